@@ -0,0 +1,70 @@
+#!/bin/bash
+#
+# End-to-end throughput benchmark against two throw-away local mongod instances.
+#
+# Usage: CRYPT_SHARED_LIB=<path-to-mongo_crypt_v1> ./benchmark.sh [documents] [schema-file]
+#
+# A fresh local master key and DEK are created for every run, so no cloud KMS or network is needed.
+
+DOCUMENTS=${1:-1000000}
+SCHEMA_FILE=$(realpath "${2:-./mongodb-csfle-migrator/schema.sample.json}")
+SOURCE_PORT=${SOURCE_PORT:-27117}
+TARGET_PORT=${TARGET_PORT:-27118}
+JAVA_OPTS=${JAVA_OPTS:-"-Xmx2g"}
+
+if [ -z "$CRYPT_SHARED_LIB" ]; then
+  echo "CRYPT_SHARED_LIB must point to the mongo_crypt_v1 shared library. Exiting."
+  exit 1
+fi
+if ! command -v mongod > /dev/null; then
+  echo "mongod is not on the PATH. Exiting."
+  exit 1
+fi
+
+cd ./mongodb-csfle-migrator
+JAR=$(ls target/MongoDBCSFLEMigrator/*-jar-with-dependencies.jar 2>/dev/null | head -1)
+if [ -z "$JAR" ]; then
+  mvn clean package -DskipTests || { echo "Build failed. Exiting."; exit 1; }
+  JAR=$(ls target/MongoDBCSFLEMigrator/*-jar-with-dependencies.jar | head -1)
+fi
+JAR=$(realpath "$JAR")
+CRYPT_SHARED_LIB=$(realpath "$CRYPT_SHARED_LIB")
+cd ..
+
+WORK_DIR=$(mktemp -d -t csfle-benchmark-XXXX)
+cleanup() {
+  for name in source target; do
+    if [ -f "$WORK_DIR/$name.pid" ]; then
+      kill "$(cat "$WORK_DIR/$name.pid")" 2>/dev/null
+    fi
+  done
+  sleep 2
+  rm -rf "$WORK_DIR"
+}
+trap cleanup EXIT
+
+start_mongod() {
+  mkdir -p "$WORK_DIR/$1"
+  mongod --port "$2" --dbpath "$WORK_DIR/$1" --bind_ip 127.0.0.1 \
+    --fork --logpath "$WORK_DIR/$1.log" --pidfilepath "$WORK_DIR/$1.pid" > /dev/null \
+    || { echo "Failed to start $1 mongod. Exiting."; exit 1; }
+}
+start_mongod source "$SOURCE_PORT"
+start_mongod target "$TARGET_PORT"
+
+cat > "$WORK_DIR/config.json" <<CONFIG
+{
+  "sourceMongoDBUri": "mongodb://127.0.0.1:$SOURCE_PORT",
+  "targetMongoDBUri": "mongodb://127.0.0.1:$TARGET_PORT",
+  "encryption": {
+    "kmsProvider": "local",
+    "masterKeyFilePath": "$WORK_DIR/master-key.txt",
+    "cryptSharedLibPath": "$CRYPT_SHARED_LIB"
+  }
+}
+CONFIG
+
+java $JAVA_OPTS -jar "$JAR" \
+  --config "$WORK_DIR/config.json" \
+  --schema "$SCHEMA_FILE" \
+  benchmark --documents "$DOCUMENTS"
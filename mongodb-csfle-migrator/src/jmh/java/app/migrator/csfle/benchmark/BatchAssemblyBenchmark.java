@@ -0,0 +1,73 @@
+package app.migrator.csfle.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import app.migrator.csfle.monitor.DocumentSizes;
+
+/**
+ * Splitting a stream of source documents into write batches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchAssemblyBenchmark {
+  @Param({"100", "1000"})
+  int batchSize;
+
+  private List<Document> stream;
+
+  @Setup
+  public void setup() {
+    stream = SyntheticDocuments.create(10_000, 5);
+  }
+
+  @Benchmark
+  public void growingList(Blackhole blackhole) {
+    List<Document> batch = new ArrayList<>();
+    for (Document document : stream) {
+      batch.add(document);
+      if (batch.size() == batchSize) {
+        blackhole.consume(batch);
+        batch = new ArrayList<>();
+      }
+    }
+    blackhole.consume(batch);
+  }
+
+  @Benchmark
+  public void presizedList(Blackhole blackhole) {
+    List<Document> batch = new ArrayList<>(batchSize);
+    for (Document document : stream) {
+      batch.add(document);
+      if (batch.size() == batchSize) {
+        blackhole.consume(batch);
+        batch = new ArrayList<>(batchSize);
+      }
+    }
+    blackhole.consume(batch);
+  }
+
+  @Benchmark
+  public long batchByteSize() {
+    return DocumentSizes.of(stream.subList(0, batchSize));
+  }
+}
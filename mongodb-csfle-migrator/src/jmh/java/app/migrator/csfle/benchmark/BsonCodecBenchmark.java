@@ -0,0 +1,110 @@
+package app.migrator.csfle.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.RawBsonDocumentCodec;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decode/encode cost of a batch as the reader sees it off the wire (raw BSON bytes) and as the
+ * writer hands it to insertMany.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BsonCodecBenchmark {
+  @Param({"100", "1000"})
+  int batchSize;
+
+  @Param({"1", "20"})
+  int medicalRecords;
+
+  private final DocumentCodec documentCodec = new DocumentCodec();
+  private final RawBsonDocumentCodec rawCodec = new RawBsonDocumentCodec();
+
+  private List<byte[]> encoded;
+  private List<Document> documents;
+  private List<RawBsonDocument> rawDocuments;
+
+  @Setup
+  public void setup() {
+    documents = SyntheticDocuments.create(batchSize, medicalRecords);
+    encoded = new ArrayList<>(batchSize);
+    rawDocuments = new ArrayList<>(batchSize);
+    for (Document document : documents) {
+      RawBsonDocument raw = new RawBsonDocument(document, documentCodec);
+      rawDocuments.add(raw);
+      byte[] bytes = new byte[raw.getByteBuffer().remaining()];
+      raw.getByteBuffer().asNIO().get(bytes);
+      encoded.add(bytes);
+    }
+  }
+
+  @Benchmark
+  public List<Document> decodeDocument() {
+    List<Document> batch = new ArrayList<>(batchSize);
+    for (byte[] bytes : encoded) {
+      try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bytes))) {
+        batch.add(documentCodec.decode(reader, DecoderContext.builder().build()));
+      }
+    }
+    return batch;
+  }
+
+  @Benchmark
+  public List<RawBsonDocument> decodeRawBsonDocument() {
+    List<RawBsonDocument> batch = new ArrayList<>(batchSize);
+    for (byte[] bytes : encoded) {
+      try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bytes))) {
+        batch.add(rawCodec.decode(reader, DecoderContext.builder().build()));
+      }
+    }
+    return batch;
+  }
+
+  @Benchmark
+  public int encodeDocument() {
+    BasicOutputBuffer buffer = new BasicOutputBuffer();
+    try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+      for (Document document : documents) {
+        documentCodec.encode(writer, document, EncoderContext.builder().build());
+      }
+    }
+    return buffer.getPosition();
+  }
+
+  @Benchmark
+  public int encodeRawBsonDocument() {
+    BasicOutputBuffer buffer = new BasicOutputBuffer();
+    try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+      for (RawBsonDocument document : rawDocuments) {
+        rawCodec.encode(writer, document, EncoderContext.builder().build());
+      }
+    }
+    return buffer.getPosition();
+  }
+}
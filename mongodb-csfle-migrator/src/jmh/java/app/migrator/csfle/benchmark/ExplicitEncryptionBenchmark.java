@@ -0,0 +1,119 @@
+package app.migrator.csfle.benchmark;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonBinary;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mongodb.ClientEncryptionSettings;
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.model.vault.DataKeyOptions;
+import com.mongodb.client.model.vault.EncryptOptions;
+import com.mongodb.client.vault.ClientEncryption;
+import com.mongodb.client.vault.ClientEncryptions;
+
+/**
+ * libmongocrypt cost of encrypting the schema.sample.json fields with a throw-away local master
+ * key. The key vault lives on the MongoDB given by -Dbench.mongodb.uri (default
+ * mongodb://localhost:27017); only the data key lookup touches it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExplicitEncryptionBenchmark {
+  private static final String DETERMINISTIC = "AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic";
+  private static final String RANDOM = "AEAD_AES_256_CBC_HMAC_SHA_512-Random";
+
+  private ClientEncryption clientEncryption;
+  private BsonBinary dataKeyId;
+  private List<BsonDocument> documents;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    byte[] masterKey = new byte[96];
+    new SecureRandom().nextBytes(masterKey);
+
+    Map<String, Object> local = new HashMap<>();
+    local.put("key", masterKey);
+    Map<String, Map<String, Object>> kmsProviders = new HashMap<>();
+    kmsProviders.put("local", local);
+
+    String uri = System.getProperty("bench.mongodb.uri", "mongodb://localhost:27017");
+    clientEncryption = ClientEncryptions.create(ClientEncryptionSettings.builder()
+        .keyVaultMongoClientSettings(MongoClientSettings.builder()
+            .applyConnectionString(new ConnectionString(uri))
+            .build())
+        .keyVaultNamespace("benchmark.__keyVault")
+        .kmsProviders(kmsProviders)
+        .build());
+    dataKeyId = clientEncryption.createDataKey("local", new DataKeyOptions());
+
+    documents = new ArrayList<>();
+    for (Document document : SyntheticDocuments.create(100, 5)) {
+      documents.add(document.toBsonDocument());
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    clientEncryption.deleteKey(dataKeyId);
+    clientEncryption.close();
+  }
+
+  @Benchmark
+  public BsonBinary encryptDeterministicInt() {
+    return clientEncryption.encrypt(new BsonInt32(123456789),
+        new EncryptOptions(DETERMINISTIC).keyId(dataKeyId));
+  }
+
+  @Benchmark
+  public BsonBinary encryptRandomString() {
+    return clientEncryption.encrypt(new BsonString("AB+"),
+        new EncryptOptions(RANDOM).keyId(dataKeyId));
+  }
+
+  /**
+   * Encrypts every schema field of a 100-document batch, the work auto-encryption does per write.
+   */
+  @Benchmark
+  public List<BsonDocument> encryptBatch() {
+    EncryptOptions deterministic = new EncryptOptions(DETERMINISTIC).keyId(dataKeyId);
+    EncryptOptions random = new EncryptOptions(RANDOM).keyId(dataKeyId);
+
+    List<BsonDocument> encrypted = new ArrayList<>(documents.size());
+    for (BsonDocument document : documents) {
+      BsonDocument copy = document.clone();
+      copy.put("ssn", clientEncryption.encrypt(copy.get("ssn"), deterministic));
+      copy.put("bloodType", clientEncryption.encrypt(copy.get("bloodType"), random));
+      copy.put("medicalRecords", clientEncryption.encrypt(copy.get("medicalRecords"), random));
+      BsonDocument insurance = copy.getDocument("insurance");
+      insurance.put("policyNumber", clientEncryption.encrypt(insurance.get("policyNumber"), deterministic));
+      encrypted.add(copy);
+    }
+    return encrypted;
+  }
+}
@@ -0,0 +1,65 @@
+package app.migrator.csfle.benchmark;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Batches handed from reader threads to writer threads through a bounded queue, as
+ * WorkerManager does with its task queue.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandOffQueueBenchmark {
+  @Param({"array", "linked"})
+  String queueType;
+
+  @Param({"16", "1000"})
+  int capacity;
+
+  private BlockingQueue<List<Document>> queue;
+  private List<Document> batch;
+
+  @Setup
+  public void setup() {
+    queue = "array".equals(queueType)
+        ? new ArrayBlockingQueue<>(capacity)
+        : new LinkedBlockingQueue<>(capacity);
+    batch = SyntheticDocuments.create(100, 1);
+  }
+
+  @Benchmark
+  @Group("handOff")
+  @GroupThreads(4)
+  public boolean produce() throws InterruptedException {
+    return queue.offer(batch, 10, TimeUnit.MILLISECONDS);
+  }
+
+  @Benchmark
+  @Group("handOff")
+  @GroupThreads(4)
+  public List<Document> consume() throws InterruptedException {
+    return queue.poll(10, TimeUnit.MILLISECONDS);
+  }
+}
@@ -0,0 +1,46 @@
+package app.migrator.csfle.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import app.migrator.csfle.config.SchemaConfiguration;
+
+/**
+ * Cost of turning the schema file into the BsonDocument map handed to AutoEncryptionSettings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchemaConversionBenchmark {
+  @Param({"1", "100", "500"})
+  int namespaces;
+
+  private SchemaConfiguration schemaConfiguration;
+
+  @Setup
+  public void setup() {
+    schemaConfiguration = new SchemaConfiguration();
+    schemaConfiguration.setSchemasObject(SyntheticDocuments.schemasObject(namespaces));
+  }
+
+  @Benchmark
+  public Map<String, BsonDocument> getSchemas() {
+    return schemaConfiguration.getSchemas();
+  }
+}
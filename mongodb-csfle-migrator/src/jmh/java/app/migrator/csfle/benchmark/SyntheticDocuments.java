@@ -0,0 +1,86 @@
+package app.migrator.csfle.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+/**
+ * Documents shaped like the namespaces in schema.sample.json, with a fixed seed so every
+ * benchmark run sees the same data.
+ */
+final class SyntheticDocuments {
+  private static final String[] BLOOD_TYPES = {"A+", "A-", "B+", "B-", "AB+", "AB-", "O+", "O-"};
+
+  private SyntheticDocuments() {
+  }
+
+  static List<Document> create(int count, int medicalRecords) {
+    Random random = new Random(42);
+    List<Document> documents = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+      List<Document> records = new ArrayList<>(medicalRecords);
+      for (int r = 0; r < medicalRecords; r++) {
+        records.add(new Document("weight", 50 + random.nextInt(60))
+            .append("bloodPressure", (100 + random.nextInt(40)) + "/" + (60 + random.nextInt(30))));
+      }
+
+      documents.add(new Document("_id", new ObjectId())
+          .append("name", "patient-" + i)
+          .append("ssn", 100000000 + random.nextInt(899999999))
+          .append("bloodType", BLOOD_TYPES[random.nextInt(BLOOD_TYPES.length)])
+          .append("medicalRecords", records)
+          .append("insurance", new Document("provider", "provider-" + random.nextInt(20))
+              .append("policyNumber", random.nextInt(Integer.MAX_VALUE))));
+    }
+
+    return documents;
+  }
+
+  /**
+   * Builds the JSON-like map that Configuration.loadSchema() hands to SchemaConfiguration.
+   */
+  static Map<String, Object> schemasObject(int namespaces) {
+    Map<String, Object> schemas = new HashMap<>();
+    for (int i = 0; i < namespaces; i++) {
+      schemas.put("db-" + i + ".patients", schema());
+    }
+    return schemas;
+  }
+
+  private static Map<String, Object> schema() {
+    Map<String, Object> keyId = new HashMap<>();
+    keyId.put("$binary", map("base64", "AAAAAAAAAAAAAAAAAAAAAA==", "subType", "04"));
+
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("insurance", map("bsonType", "object", "properties",
+        map("policyNumber", encrypt("int", "AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic"))));
+    properties.put("medicalRecords", encrypt("array", "AEAD_AES_256_CBC_HMAC_SHA_512-Random"));
+    properties.put("bloodType", encrypt("string", "AEAD_AES_256_CBC_HMAC_SHA_512-Random"));
+    properties.put("ssn", encrypt("int", "AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic"));
+
+    Map<String, Object> schema = new HashMap<>();
+    schema.put("bsonType", "object");
+    schema.put("encryptMetadata", map("keyId", Collections.singletonList(keyId)));
+    schema.put("properties", properties);
+    return schema;
+  }
+
+  private static Map<String, Object> encrypt(String bsonType, String algorithm) {
+    return map("encrypt", map("bsonType", bsonType, "algorithm", algorithm));
+  }
+
+  private static Map<String, Object> map(Object... keyValues) {
+    Map<String, Object> map = new HashMap<>();
+    for (int i = 0; i < keyValues.length; i += 2) {
+      map.put((String) keyValues[i], keyValues[i + 1]);
+    }
+    return map;
+  }
+}
@@ -1,7 +1,22 @@
 package app.migrator.csfle;
 
+import java.util.concurrent.Callable;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+
+import app.migrator.csfle.benchmark.ThroughputBenchmark;
 import app.migrator.csfle.config.Configuration;
+import app.migrator.csfle.generator.SyntheticDataGenerator;
+import app.migrator.csfle.generator.SyntheticDataGenerator.SizeDistribution;
+import app.migrator.csfle.monitor.MigrationMonitor;
 import app.migrator.csfle.service.MongoCSFLE;
+import app.migrator.csfle.service.MongoDBService;
+import app.migrator.csfle.transfer.EncryptedFileImporter;
 import lombok.Getter;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
@@ -11,7 +26,8 @@ import picocli.CommandLine.ParentCommand;
 import picocli.CommandLine.Spec;
 
 @Command(name = "mongodb-migrator-csfle", mixinStandardHelpOptions = true, version = "1.0.1e-beta",
-    subcommands = {MigrateCommand.class, GenerateDekIdCommand.class, ShowConfigCommand.class},
+    subcommands = {MigrateCommand.class, ImportCommand.class, GenerateDekIdCommand.class,
+        ShowConfigCommand.class, GenerateDataCommand.class, BenchmarkCommand.class},
     description = "CLI app with required command and optional config files")
 public class CSFLEMigratorApp implements Runnable {
 
@@ -46,6 +62,18 @@ class MigrateCommand implements Runnable {
     @ParentCommand
     private CSFLEMigratorApp parent;
 
+    @Option(names = "--to-file", description = "Write encrypted chunk files to this directory instead of the target cluster")
+    private String toFile;
+
+    @Option(names = "--from-dump", description = "Read a mongodump archive or dump directory instead of the source cluster")
+    private String fromDump;
+
+    @Option(names = "--coordinator", description = "Share the copy with the other processes started with the same plan id")
+    private String planId;
+
+    @Option(names = "--worker-id", description = "Name of this process in the shared plan (default: host:pid)")
+    private String workerId;
+
     @Override
     public void run() {
         // Configuration files
@@ -57,6 +85,18 @@ class MigrateCommand implements Runnable {
         configuration
             .loadMigrateTarget(migrationConfig)
             .loadSchema(schemaPath);
+        if (toFile != null) {
+            configuration.getExport().setDirectory(toFile);
+        }
+        if (fromDump != null) {
+            configuration.setSourceDumpPath(fromDump);
+        }
+        if (planId != null) {
+            configuration.getCoordinator().setPlanId(planId);
+        }
+        if (workerId != null) {
+            configuration.getCoordinator().setWorkerId(workerId);
+        }
 
         System.out.println("Configuration loaded:");
         System.out.println("Source MongoDB URI: " + configuration.getSourceMongoDBUri());
@@ -69,6 +109,42 @@ class MigrateCommand implements Runnable {
     }
 }
 
+@Command(name = "import", description = "Load encrypted chunk files written by migrate --to-file into the target")
+class ImportCommand implements Callable<Integer> {
+
+    @ParentCommand
+    private CSFLEMigratorApp parent;
+
+    @Option(names = "--from", required = true, description = "Directory holding the chunk files")
+    private String directory;
+
+    @Option(names = "--threads", description = "Chunks loaded in parallel (default: ${DEFAULT-VALUE})")
+    private int threads = 4;
+
+    @Option(names = "--batch-size", description = "Documents per insertMany (default: ${DEFAULT-VALUE})")
+    private int batchSize = 1000;
+
+    @Option(names = "--no-verify", negatable = true, description = "Check chunk CRC32 against the manifest (default: true)")
+    private boolean verify = true;
+
+    @Override
+    public Integer call() throws Exception {
+        Configuration configuration = Configuration.load(parent.getConfigPath());
+
+        // Documents are already encrypted, a plain client inserts them as they are
+        try (MongoDBService target = new MongoDBService(configuration.getTargetMongoDBUri())) {
+            MigrationMonitor monitor = new MigrationMonitor();
+            long failed = new EncryptedFileImporter(target.getClient(), monitor, threads,
+                batchSize, verify).importDirectory(directory);
+            monitor.getAllProgress().values().forEach(progress -> System.out.println(
+                progress.getNamespace() + ": " + progress.getState() + ", "
+                    + progress.getProcessedDocuments() + " loaded, "
+                    + progress.getFailedDocuments() + " failed"));
+            return failed == 0 ? 0 : 1;
+        }
+    }
+}
+
 @Command(name = "generate-dekid", description = "Generate DEK ID for a given key")
 class GenerateDekIdCommand implements Runnable {
 
@@ -110,4 +186,120 @@ class ShowConfigCommand implements Runnable {
         System.out.println("Target MongoDB URI: " + configuration.getTargetMongoDBUri());
         System.out.println(configuration);
     }
-}
\ No newline at end of file
+}
+
+@Command(name = "generate-data",
+    description = "Load a source collection with synthetic documents matching the encryption schema")
+class GenerateDataCommand implements Callable<Integer> {
+
+    @ParentCommand
+    private CSFLEMigratorApp parent;
+
+    @Option(names = "--namespace", required = true, description = "Source namespace to load, <database>.<collection>")
+    private String namespace;
+
+    @Option(names = "--schema-namespace", description = "Namespace of schema.json to generate from (default: --namespace)")
+    private String schemaNamespace;
+
+    @Option(names = {"-n", "--documents"}, description = "Documents to insert (default: ${DEFAULT-VALUE})")
+    private long documents = 1_000_000;
+
+    @Option(names = "--batch-size", description = "Documents per insertMany (default: ${DEFAULT-VALUE})")
+    private int batchSize = 1000;
+
+    @Option(names = "--threads", description = "Parallel unordered inserters (default: ${DEFAULT-VALUE})")
+    private int threads = 8;
+
+    @Option(names = "--cardinality", description = "Distinct values per field, 0 for unique values (default: ${DEFAULT-VALUE})")
+    private int cardinality = 0;
+
+    @Option(names = "--size-distribution", description = "Padding size distribution: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE})")
+    private SizeDistribution sizeDistribution = SizeDistribution.NONE;
+
+    @Option(names = "--min-padding", description = "Minimum padding bytes per document (default: ${DEFAULT-VALUE})")
+    private int minPadding = 0;
+
+    @Option(names = "--max-padding", description = "Maximum padding bytes per document (default: ${DEFAULT-VALUE})")
+    private int maxPadding = 0;
+
+    @Option(names = "--seed", description = "Generator seed (default: ${DEFAULT-VALUE})")
+    private long seed = 42;
+
+    @Option(names = "--drop", description = "Drop the collection before loading")
+    private boolean drop;
+
+    @Override
+    public Integer call() {
+        Configuration configuration = Configuration.load(parent.getConfigPath())
+            .loadSchema(parent.getSchemaPath());
+
+        String schemaKey = schemaNamespace != null ? schemaNamespace : namespace;
+        BsonDocument schema = configuration.getSchema().getSchemas().get(schemaKey);
+        if (schema == null) {
+            System.err.println("Namespace " + schemaKey + " not found in " + parent.getSchemaPath()
+                + ". Available: " + configuration.getSchema().getSchemasObject().keySet());
+            return 1;
+        }
+        int dot = namespace.indexOf('.');
+        if (dot <= 0) {
+            System.err.println("Namespace must be <database>.<collection>: " + namespace);
+            return 1;
+        }
+
+        SyntheticDataGenerator generator = new SyntheticDataGenerator(schema, seed);
+        generator.setCardinality(cardinality);
+        generator.setSizeDistribution(sizeDistribution);
+        generator.setMinPayloadBytes(minPadding);
+        generator.setMaxPayloadBytes(Math.max(minPadding, maxPadding));
+
+        try (MongoClient client = MongoClients.create(configuration.requireSourceMongoDBUri())) {
+            MongoCollection<Document> collection = client
+                .getDatabase(namespace.substring(0, dot))
+                .getCollection(namespace.substring(dot + 1));
+            if (drop) {
+                collection.drop();
+            }
+
+            long start = System.currentTimeMillis();
+            long inserted = generator.load(collection, documents, batchSize, threads);
+            long elapsed = Math.max(1, System.currentTimeMillis() - start);
+
+            System.out.println("Inserted " + inserted + " documents into " + namespace
+                + " in " + elapsed / 1000.0 + "s (" + inserted * 1000 / elapsed + " docs/s)");
+        }
+        return 0;
+    }
+}
+
+@Command(name = "benchmark",
+    description = "Generate synthetic data and measure an end-to-end migration with a fresh DEK")
+class BenchmarkCommand implements Callable<Integer> {
+
+    @ParentCommand
+    private CSFLEMigratorApp parent;
+
+    @Option(names = {"-n", "--documents"}, description = "Documents to generate, 0 reuses the source collection (default: ${DEFAULT-VALUE})")
+    private long documents = 1_000_000;
+
+    @Option(names = "--namespace", description = "Source/target namespace (default: ${DEFAULT-VALUE})")
+    private String namespace = "benchmark.patients";
+
+    @Option(names = "--generator-threads", description = "Parallel inserters for data generation (default: ${DEFAULT-VALUE})")
+    private int generatorThreads = 8;
+
+    @Option(names = "--seed", description = "Data generator seed (default: ${DEFAULT-VALUE})")
+    private long seed = 42;
+
+    @Override
+    public Integer call() throws Exception {
+        Configuration configuration = Configuration.load(parent.getConfigPath())
+            .loadSchema(parent.getSchemaPath());
+
+        ThroughputBenchmark.Result result =
+            new ThroughputBenchmark(configuration, namespace).run(documents, generatorThreads, seed);
+
+        System.out.println("Benchmark result:");
+        System.out.println(result);
+        return result.getTargetDocuments() == result.getDocuments() ? 0 : 1;
+    }
+}
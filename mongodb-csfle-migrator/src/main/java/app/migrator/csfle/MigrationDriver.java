@@ -1,81 +1,623 @@
 package app.migrator.csfle;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.mongodb.MongoNamespace;
 import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
 
+import app.migrator.csfle.cdc.ChangeStreamSync;
+import app.migrator.csfle.cdc.ChangeStreamTailer;
 import app.migrator.csfle.config.Configuration;
+import app.migrator.csfle.config.Configuration.ClusterTime;
+import app.migrator.csfle.config.Configuration.CoordinatorConfig;
+import app.migrator.csfle.config.Configuration.SourceReadConfig;
 import app.migrator.csfle.config.MigrationConfiguration;
-import app.migrator.csfle.service.MongoCSFLE;
+import app.migrator.csfle.config.MigrationConfiguration.DeltaConfig;
+import app.migrator.csfle.config.MigrationConfiguration.NamespaceOptions;
+import app.migrator.csfle.coordinator.Partition;
+import app.migrator.csfle.coordinator.PartitionLeases;
+import app.migrator.csfle.coordinator.PlanStore;
+import app.migrator.csfle.monitor.CollectionProgress;
+import app.migrator.csfle.monitor.MigrationMonitor;
+import app.migrator.csfle.monitor.WorkerManagerMonitor;
+import app.migrator.csfle.planning.CollectionSize;
+import app.migrator.csfle.planning.NamespaceDiscovery;
+import app.migrator.csfle.planning.SizePartitioner;
+import app.migrator.csfle.service.CryptClientPool;
 import app.migrator.csfle.service.MongoDBService;
+import app.migrator.csfle.sharding.SourceChunkPartitioner;
+import app.migrator.csfle.sharding.TargetPreSplitter;
+import app.migrator.csfle.worker.DumpMigration;
+import app.migrator.csfle.worker.DumpSourceReader;
+import app.migrator.csfle.worker.IndexCopier;
+import app.migrator.csfle.worker.KeyRange;
 import app.migrator.csfle.worker.MigrationManager;
+import app.migrator.csfle.transfer.EncryptedFileExport;
+import app.migrator.csfle.worker.MemoryGovernor;
+import app.migrator.csfle.worker.ReadRateLimiter;
 import app.migrator.csfle.worker.WorkerManager;
 
 public class MigrationDriver {
   private final Logger logger = LoggerFactory.getLogger(MigrationDriver.class);
+  // Server default of minSnapshotHistoryWindowInSeconds
+  private static final int DEFAULT_SNAPSHOT_WINDOW_SECONDS = 300;
   private final Configuration config;
   private final WorkerManager workerManager;
+  private final MigrationMonitor monitor = new MigrationMonitor();
+  // Used when no migration config was loaded, e.g. a dump or plan without one
+  private final MigrationConfiguration defaultMigrationConfig = new MigrationConfiguration();
+  private final ReadRateLimiter readRateLimiter;
+  private final MemoryGovernor memoryGovernor;
   private MongoDBService sourceService;
   private MongoDBService targetService;
+  private MongoDBService targetAdminService;
+  // Auto encrypting clients, targetService wraps the first one
+  private CryptClientPool cryptClients;
+  // Set in offline mode (migrate --to-file), documents then go to encrypted chunk files
+  private EncryptedFileExport fileExport;
+  // Set when reading a mongodump instead of a source cluster, sourceService is then null
+  private DumpSourceReader dumpReader;
   private Map<String, List<String>> collectionsMap = new HashMap<>();
+  private BsonTimestamp changeStreamStartTime;
+  // Concurrency budget of every source shard, for chunk-partitioned copies
+  private final Map<String, Semaphore> shardBudgets = new ConcurrentHashMap<>();
 
   public MigrationDriver(Configuration config) {
     this.config = config;
     this.workerManager =
         new WorkerManager(config.getWorker().getMaxThreads(), config.getWorker().getMaxQueueSize());
+    this.readRateLimiter = new ReadRateLimiter(
+        config.getWorker().getMaxReadDocsPerSecond(),
+        config.getWorker().getMaxReadBytesPerSecond(),
+        config.getWorker().getReadLatencyThresholdMillis());
+    this.memoryGovernor = new MemoryGovernor(config.getWorker().getMaxInFlightBytes());
+  }
+
+  public MigrationMonitor getMonitor() {
+    return monitor;
   }
 
   public void startMigration() {
     workerManager.initializeWorkers();
+    monitor.registerWorkerManager(
+        new WorkerManagerMonitor(
+            workerManager, config.getWorker(), readRateLimiter, memoryGovernor));
 
     try {
-      for (Map.Entry<String, List<String>> entry : collectionsMap.entrySet()) {
-        String dbName = entry.getKey();
-        List<String> collections = entry.getValue();
+      if (isStagingEnabled()) {
+        prepareStagingCollections();
+      }
+      if (fileExport != null) {
+        logger.info("Exporting to files: staging, pre-split, index copy and change streams apply"
+            + " only to target clusters and are skipped");
+      }
+      if (dumpReader != null) {
+        migrateDump();
+        return;
+      }
+      if (isCoordinated()) {
+        runCoordinated();
+        return;
+      }
+      Map<String, List<KeyRange>> rangesMap = preSplitTargets();
+      rangesMap.putAll(partitionSources());
+
+      for (CollectionSize size : planBySize(rangesMap)) {
+        String dbName = size.getDatabase();
+        String collectionName = size.getCollection();
+        String namespace = size.getNamespace();
+        List<KeyRange> ranges = rangesMap.getOrDefault(namespace, Collections.emptyList());
+        logger.info("Submitting migration task for {}.{}", dbName, collectionName);
+        CollectionProgress progress = monitor.getProgress(namespace);
+
+        if (ranges.isEmpty()) {
+          submitMigrationTask(dbName, collectionName, null);
+          continue;
+        }
+        // One task per range, so every shard is read or written from the start
+        progress.setPartitions(ranges.size());
+        for (KeyRange range : interleaveByShard(ranges)) {
+          submitMigrationTask(dbName, collectionName, range);
+        }
+      }
 
-        for (String collectionName : collections) {
-          logger.info("Submitting migration task for {}.{}", dbName, collectionName);
+      workerManager.awaitCompletion();
 
-          workerManager.submitTask(collectionName, () -> {
-            MigrationManager migrationManager = new MigrationManager(workerManager, this.config);
+      if (config.getIndexes().isEnabled() && fileExport == null) {
+        copyIndexes();
+      }
 
-            MongoClient sourceMongoClient = sourceService.getClient();
-            MongoClient targetMongoClient = targetService.getClient();
-            sourceMongoClient.getDatabase(dbName);
-            targetMongoClient.getDatabase(dbName);
+      if (isStagingEnabled()) {
+        swapStagingCollections();
+      }
 
-            migrationManager
-              .setup(sourceMongoClient, targetMongoClient, dbName, collectionName)
-              .initialize()
-              .run();
-          });
-        }
+      if (config.getChangeStream().isEnabled() && fileExport == null) {
+        new ChangeStreamSync(config, sourceService.getClient(), targetService.getClient(),
+            collectionsMap, changeStreamStartTime, monitor, memoryGovernor).run();
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.warn("Interrupted while waiting for migration tasks to finish");
     } finally {
       shutdown();
     }
   }
 
 
-  // private void getCollectionsToMigrate() {
-  // // Implementation to get collections based on prefix filter
-  // List<String> sourceDatabases = Arrays.asList(config.getSourceDatabases());
+  /**
+   * Dump mode: loads the dump through the encrypting writers. Indexes and change streams need a
+   * source cluster and are skipped.
+   */
+  private void migrateDump() throws InterruptedException {
+    DumpMigration migration =
+        new DumpMigration(config, dumpReader, cryptClients, monitor, memoryGovernor);
+    Set<String> namespaces = new LinkedHashSet<>();
+    collectionsMap.forEach((db, collections) ->
+        collections.forEach(collection -> namespaces.add(db + "." + collection)));
 
-  // Map<String, List<String>> _collectionsMap = new HashMap<>();
+    if (dumpReader.isArchive()) {
+      migration.runArchive(namespaces);
+    } else {
+      migration.submitTasks(workerManager, namespaces);
+      workerManager.awaitCompletion();
+    }
+    if (isStagingEnabled()) {
+      swapStagingCollections();
+    }
+  }
 
-  // for (String dbName : sourceDatabases) {
-  // // Get all collections in the database
-  // List<String> collections = sourceService.getAllCollections(dbName);
-  // _collectionsMap.put(dbName, collections);
-  // }
+  private boolean isCoordinated() {
+    return config.getCoordinator().getPlanId() != null;
+  }
 
-  // this.collectionsMap = _collectionsMap;
-  // }
+  /**
+   * Coordinator mode: joins the shared plan, or builds it when first, then copies the partitions
+   * this process claims until every partition of the plan is closed. The process that finalizes
+   * the plan copies the indexes and runs the change stream.
+   */
+  private void runCoordinated() throws InterruptedException {
+    CoordinatorConfig coordinator = config.getCoordinator();
+    String workerId = coordinator.getWorkerId() != null
+        ? coordinator.getWorkerId()
+        : getHostName() + ":" + ProcessHandle.current().pid();
+    PlanStore plan = new PlanStore(getTargetAdminClient(), coordinator, workerId);
+
+    try (PartitionLeases leases =
+        new PartitionLeases(getTargetAdminClient(), coordinator, workerId)) {
+      leases.startHeartbeat(plan);
+      BsonDocument joined = plan.join();
+      if (joined == null) {
+        logger.info("Building plan {} as {}", plan.getPlanId(), workerId);
+        plan.publish(buildPartitions(), getNamespaces(), getAtClusterTime(),
+            changeStreamStartTime);
+      } else {
+        logger.info("Joined plan {} as {}", plan.getPlanId(), workerId);
+        adoptPlanTimes(joined);
+      }
+      // A collection only completes once all of its partitions in the plan did
+      leases.countByNamespace().forEach((namespace, count) ->
+          monitor.getProgress(namespace).setPartitions(count));
+
+      runClaimedPartitions(leases, coordinator);
+      Map<String, Long> states = leases.countByState();
+      logger.info("Partitions of plan {}: {}", plan.getPlanId(), states);
+      long failed = states.getOrDefault(PartitionLeases.FAILED, 0L);
+      if (failed > 0) {
+        // Index copy and the change stream would otherwise run on a partial copy
+        throw new IllegalStateException(String.format(
+            "%d partition(s) of plan %s failed after %d attempts, not finalizing it. See %s.%s",
+            failed, plan.getPlanId(), coordinator.getMaxAttempts(), coordinator.getDatabase(),
+            coordinator.getPartitionCollection()));
+      }
+
+      if (!plan.tryFinalize()) {
+        logger.info("Plan {} is finalized by another process", plan.getPlanId());
+        return;
+      }
+      // Any process may finalize, so the namespaces and start time come from the plan
+      BsonDocument finalized = plan.load();
+      adoptPlanTimes(finalized);
+      collectionsMap.clear();
+      for (String namespace : PlanStore.getNamespaces(finalized)) {
+        MongoNamespace source = new MongoNamespace(namespace);
+        collectionsMap.computeIfAbsent(source.getDatabaseName(), db -> new ArrayList<>())
+            .add(source.getCollectionName());
+      }
+      if (config.getIndexes().isEnabled()) {
+        copyIndexes();
+      }
+      plan.finish();
+    }
+
+    if (config.getChangeStream().isEnabled()) {
+      new ChangeStreamSync(config, sourceService.getClient(), targetService.getClient(),
+          collectionsMap, changeStreamStartTime, monitor, memoryGovernor).run();
+    }
+  }
+
+  /**
+   * Claims partitions while worker slots are free, until no partition of the plan is left open.
+   * Partitions claimed again after a lease expiry are upserted, an earlier attempt may have
+   * copied part of them.
+   */
+  private void runClaimedPartitions(PartitionLeases leases, CoordinatorConfig coordinator)
+      throws InterruptedException {
+    Semaphore slots = new Semaphore(workerManager.getMaxWorkers());
+    while (true) {
+      slots.acquire();
+      Partition partition = leases.claim();
+      if (partition == null) {
+        slots.release();
+        if (leases.isFinished()) {
+          break;
+        }
+        // Left to other processes, or to this one once their leases expire
+        TimeUnit.SECONDS.sleep(coordinator.getHeartbeatSeconds());
+        continue;
+      }
+      logger.info("Claimed {} ({})", partition.getId(), partition);
+      workerManager.submitTask(partition.getCollection(), () -> {
+        try {
+          runMigration(partition.getDatabase(), partition.getCollection(), partition.getRange(),
+              partition.getAttempts() > 1);
+          leases.complete(partition);
+        } catch (RuntimeException e) {
+          leases.fail(partition, e.getMessage());
+          throw e;
+        } finally {
+          slots.release();
+        }
+      });
+    }
+    workerManager.awaitCompletion();
+  }
+
+  /**
+   * @return partitions of the plan, largest collections first, as a single run would submit them
+   */
+  private List<Partition> buildPartitions() {
+    Map<String, List<KeyRange>> rangesMap = preSplitTargets();
+    rangesMap.putAll(partitionSources());
+    List<Partition> partitions = new ArrayList<>();
+    for (CollectionSize size : planBySize(rangesMap)) {
+      List<KeyRange> ranges = rangesMap.getOrDefault(size.getNamespace(), Collections.emptyList());
+      List<KeyRange> planned = ranges.isEmpty()
+          ? Collections.singletonList(null)
+          : interleaveByShard(ranges);
+      for (KeyRange range : planned) {
+        int index = partitions.size();
+        partitions.add(new Partition(
+            String.format("%s:%05d", config.getCoordinator().getPlanId(), index), index,
+            size.getDatabase(), size.getCollection(), range, 0));
+      }
+    }
+    return partitions;
+  }
+
+  private List<String> getNamespaces() {
+    List<String> namespaces = new ArrayList<>();
+    collectionsMap.forEach((db, collections) ->
+        collections.forEach(collection -> namespaces.add(db + "." + collection)));
+    return namespaces;
+  }
+
+  private BsonTimestamp getAtClusterTime() {
+    ClusterTime atClusterTime = config.getSourceRead().getAtClusterTime();
+    return config.getSourceRead().isSnapshot() && atClusterTime != null
+        ? new BsonTimestamp(atClusterTime.getT(), atClusterTime.getI())
+        : null;
+  }
+
+  /**
+   * Reads at the cluster time of the plan, if one was configured, and replays changes from its
+   * start time, whichever process resolved them.
+   */
+  private void adoptPlanTimes(BsonDocument plan) {
+    if (plan.isTimestamp("atClusterTime")) {
+      BsonTimestamp time = plan.getTimestamp("atClusterTime");
+      ClusterTime atClusterTime = new ClusterTime();
+      atClusterTime.setT(time.getTime());
+      atClusterTime.setI(time.getInc());
+      config.getSourceRead().setAtClusterTime(atClusterTime);
+    }
+    if (plan.isTimestamp("changeStreamStartTime")) {
+      changeStreamStartTime = plan.getTimestamp("changeStreamStartTime");
+    }
+  }
+
+  private static String getHostName() {
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (UnknownHostException e) {
+      return "localhost";
+    }
+  }
+
+  private void submitMigrationTask(String dbName, String collectionName, KeyRange range) {
+    workerManager.submitTask(collectionName,
+        () -> runMigration(dbName, collectionName, range, false));
+  }
+
+  private void runMigration(String dbName, String collectionName, KeyRange range,
+      boolean upsert) {
+    Semaphore shardBudget = range == null || range.getShard() == null
+        ? null
+        : shardBudgets.computeIfAbsent(range.getShard(),
+            shard -> new Semaphore(config.getSharding().getPerShardConcurrency()));
+    if (shardBudget != null) {
+      shardBudget.acquireUninterruptibly();
+    }
+    try {
+      MigrationManager migrationManager =
+          new MigrationManager(
+              workerManager, this.config, monitor, readRateLimiter, memoryGovernor);
+
+      MongoClient sourceMongoClient = sourceService.getClient();
+      // Tasks are spread round-robin over the crypt clients
+      MongoClient targetMongoClient = cryptClients.next();
+      sourceMongoClient.getDatabase(dbName);
+      targetMongoClient.getDatabase(dbName);
+
+      migrationManager
+        .setup(sourceMongoClient, targetMongoClient, dbName, collectionName)
+        .setRange(range)
+        .setUpsert(upsert)
+        .setFileExport(fileExport)
+        .initialize()
+        .run();
+    } finally {
+      if (shardBudget != null) {
+        shardBudget.release();
+      }
+    }
+  }
+
+  /**
+   * Orders ranges round-robin over their source shards, so queued tasks do not pile up on the
+   * budget of a single shard.
+   */
+  private static List<KeyRange> interleaveByShard(List<KeyRange> ranges) {
+    Map<String, Deque<KeyRange>> byShard = new LinkedHashMap<>();
+    for (KeyRange range : ranges) {
+      byShard.computeIfAbsent(String.valueOf(range.getShard()), shard -> new ArrayDeque<>())
+          .add(range);
+    }
+    List<KeyRange> interleaved = new ArrayList<>(ranges.size());
+    while (interleaved.size() < ranges.size()) {
+      for (Deque<KeyRange> shardRanges : byShard.values()) {
+        if (!shardRanges.isEmpty()) {
+          interleaved.add(shardRanges.poll());
+        }
+      }
+    }
+    return interleaved;
+  }
+
+  /**
+   * Splits sharded source collections into chunk-aligned ranges when enabled.
+   *
+   * @return ranges tagged with their source shard, by namespace
+   */
+  private Map<String, List<KeyRange>> partitionSources() {
+    Map<String, List<KeyRange>> rangesMap = new HashMap<>();
+    if (!config.getSharding().isPartitionSourceByChunks()) {
+      return rangesMap;
+    }
+    SourceChunkPartitioner partitioner = new SourceChunkPartitioner(sourceService.getClient());
+    if (!partitioner.isSourceSharded()) {
+      logger.warn("sharding.partitionSourceByChunks is set but the source is not a mongos, skipping");
+      return rangesMap;
+    }
+    if (getMigrationConfig().getDelta().isEnabled()) {
+      logger.info("Delta mode keeps one task per collection, source chunks are not used");
+      return rangesMap;
+    }
+
+    for (Map.Entry<String, List<String>> entry : collectionsMap.entrySet()) {
+      for (String collectionName : entry.getValue()) {
+        List<KeyRange> ranges = partitioner.partition(entry.getKey(), collectionName);
+        if (!ranges.isEmpty()) {
+          rangesMap.put(entry.getKey() + "." + collectionName, ranges);
+        }
+      }
+    }
+    return rangesMap;
+  }
+
+  /**
+   * Shards and pre-splits the target collections when enabled.
+   *
+   * @return source ranges matching the target chunks, by namespace
+   */
+  private Map<String, List<KeyRange>> preSplitTargets() {
+    Map<String, List<KeyRange>> rangesMap = new HashMap<>();
+    if (!config.getSharding().isPreSplitTarget() || fileExport != null) {
+      return rangesMap;
+    }
+
+    TargetPreSplitter preSplitter = new TargetPreSplitter(
+        sourceService.getClient(), getTargetAdminClient(), config.getSharding());
+    if (!preSplitter.isTargetSharded()) {
+      logger.warn("sharding.preSplitTarget is set but the target is not a mongos, skipping");
+      return rangesMap;
+    }
+
+    MigrationConfiguration migration = getMigrationConfig();
+    for (Map.Entry<String, List<String>> entry : collectionsMap.entrySet()) {
+      for (String collectionName : entry.getValue()) {
+        String namespace = entry.getKey() + "." + collectionName;
+        MongoNamespace target = migration.getTargetNamespace(entry.getKey(), collectionName);
+        List<KeyRange> ranges = preSplitter.preSplit(entry.getKey(), collectionName,
+            migration.getWriteNamespace(entry.getKey(), collectionName),
+            getEncryptedFields(target.getFullName()));
+        // The delta watermark is per collection, so delta runs are not split into ranges
+        if (!migration.getDelta().isEnabled()) {
+          rangesMap.put(namespace, ranges);
+        }
+      }
+    }
+    return rangesMap;
+  }
+
+  /**
+   * Index phase: once every collection is loaded, builds the source indexes on the target, one
+   * task per collection on the worker pool.
+   */
+  private void copyIndexes() throws InterruptedException {
+    for (Map.Entry<String, List<String>> entry : collectionsMap.entrySet()) {
+      String dbName = entry.getKey();
+      for (String collectionName : entry.getValue()) {
+        String namespace = dbName + "." + collectionName;
+        MigrationConfiguration migration = getMigrationConfig();
+        String target = migration.getTargetNamespace(dbName, collectionName).getFullName();
+        MongoNamespace writeNamespace = migration.getWriteNamespace(dbName, collectionName);
+        workerManager.submitTask(collectionName, () ->
+            new IndexCopier(sourceService.getClient(), targetService.getClient(),
+                getEncryptedFields(target), monitor.getProgress(namespace))
+              .copy(dbName, collectionName, writeNamespace));
+      }
+    }
+    workerManager.awaitCompletion();
+    logger.info("Index phase completed");
+  }
+
+  private Map<String, String> getEncryptedFields(String namespace) {
+    return config.getSchema() == null
+        ? Collections.emptyMap()
+        : config.getSchema().getEncryptedFields(namespace);
+  }
+
+  /**
+   * @return the loaded migration config, or its defaults when none was loaded
+   */
+  private MigrationConfiguration getMigrationConfig() {
+    return config.getMigrationConfig() != null
+        ? config.getMigrationConfig()
+        : defaultMigrationConfig;
+  }
+
+  private boolean isStagingEnabled() {
+    return getMigrationConfig().isDropCollectionOnTarget() && fileExport == null;
+  }
+
+  /**
+   * Recreates empty staging collections, dropping leftovers of a failed run. Collections are
+   * created up front so even an empty source is swapped in.
+   */
+  private void prepareStagingCollections() {
+    for (Map.Entry<String, List<String>> entry : collectionsMap.entrySet()) {
+      for (String collectionName : entry.getValue()) {
+        MongoNamespace staging =
+            getMigrationConfig().getWriteNamespace(entry.getKey(), collectionName);
+        MongoDatabase database = getTargetAdminClient().getDatabase(staging.getDatabaseName());
+        database.getCollection(staging.getCollectionName()).drop();
+        database.createCollection(staging.getCollectionName());
+        logger.info("Loading {}.{} into staging collection {}", entry.getKey(), collectionName,
+            staging);
+      }
+    }
+  }
+
+  /**
+   * Replaces every live target collection with its staging collection, only for collections copied
+   * without failures. Otherwise the live collection is left untouched.
+   */
+  private void swapStagingCollections() {
+    MongoDatabase admin = getTargetAdminClient().getDatabase("admin");
+    for (Map.Entry<String, List<String>> entry : collectionsMap.entrySet()) {
+      for (String collectionName : entry.getValue()) {
+        String namespace = entry.getKey() + "." + collectionName;
+        MigrationConfiguration migration = getMigrationConfig();
+        String staging = migration.getWriteNamespace(entry.getKey(), collectionName).getFullName();
+        String target = migration.getTargetNamespace(entry.getKey(), collectionName).getFullName();
+        CollectionProgress progress = monitor.getProgress(namespace);
+
+        if (!CollectionProgress.State.COMPLETED.name().equals(progress.getState())
+            || progress.getFailedDocuments() > 0 || progress.getIndexesFailed() > 0) {
+          logger.error("{} did not complete cleanly, keeping the live collection and leaving {}",
+              namespace, staging);
+          continue;
+        }
+        admin.runCommand(new Document("renameCollection", staging)
+            .append("to", target)
+            .append("dropTarget", true));
+        logger.info("Swapped {} into {}", staging, target);
+      }
+    }
+  }
+
+  /**
+   * @return plain client to the target, for admin commands the auto encryption client rejects
+   */
+  private MongoClient getTargetAdminClient() {
+    if (targetAdminService == null) {
+      targetAdminService = new MongoDBService(config.getTargetMongoDBUri());
+    }
+    return targetAdminService.getClient();
+  }
+
+  /**
+   * Adds the source collections matching the include/exclude patterns to the migration.
+   */
+  private void discoverCollections(MigrationConfiguration dbs) {
+    NamespaceDiscovery discovery =
+        new NamespaceDiscovery(sourceService.getClient(), dbs.getDiscoveryThreads());
+    Map<String, List<String>> discovered = discovery.discover(dbs.getInclude(), dbs.getExclude());
+    for (Map.Entry<String, List<String>> entry : discovered.entrySet()) {
+      List<String> collections =
+          collectionsMap.computeIfAbsent(entry.getKey(), db -> new ArrayList<>());
+      for (String collection : entry.getValue()) {
+        if (!collections.contains(collection)) {
+          collections.add(collection);
+        }
+      }
+    }
+  }
+
+  /**
+   * Measures every collection and splits the large ones into _id ranges.
+   *
+   * @return collections, largest first, so the longest copies start first
+   */
+  private List<CollectionSize> planBySize(Map<String, List<KeyRange>> rangesMap) {
+    MigrationConfiguration dbs = getMigrationConfig();
+    List<CollectionSize> sizes = new NamespaceDiscovery(sourceService.getClient(),
+        dbs.getDiscoveryThreads()).measure(collectionsMap);
+    sizes.sort((a, b) -> Long.compare(b.getBytes(), a.getBytes()));
+
+    if (dbs.getPartitionSizeBytes() > 0 && !dbs.getDelta().isEnabled()) {
+      SizePartitioner partitioner = new SizePartitioner(sourceService.getClient(),
+          dbs.getPartitionSizeBytes(), dbs.getMaxPartitionsPerCollection());
+      for (CollectionSize size : sizes) {
+        // Chunk and pre-split ranges take precedence
+        if (rangesMap.getOrDefault(size.getNamespace(), Collections.emptyList()).isEmpty()) {
+          rangesMap.put(size.getNamespace(), partitioner.partition(size));
+        }
+      }
+    }
+    return sizes;
+  }
 
   @SuppressWarnings("unused")
   @Deprecated
@@ -86,29 +628,81 @@ public class MigrationDriver {
   // private List<String, List<String>> getCollection(String)
 
   public void setup() {
+    // Fail on schema mistakes before connecting anywhere
+    if (config.getSchema() != null) {
+      config.getSchema().validate();
+    }
+    if (config.getMigrationConfig() != null) {
+      for (Map.Entry<String, NamespaceOptions> entry
+          : config.getMigrationConfig().getNamespaces().entrySet()) {
+        BsonDocument filter = entry.getValue().parseFilter();
+        entry.getValue().parseProjection();
+        DeltaConfig delta = config.getMigrationConfig().getDelta();
+        // Delta batches are paged on the field, so it has to be read
+        if (delta.isEnabled() && !entry.getValue().keepsField(delta.getFieldFor(entry.getKey()))) {
+          throw new IllegalArgumentException("projection of " + entry.getKey()
+              + " must keep the delta field " + delta.getFieldFor(entry.getKey()));
+        }
+        // Change events are matched on fullDocument, not every filter can be rewritten for it
+        if (filter != null && config.getChangeStream().isEnabled()) {
+          try {
+            ChangeStreamTailer.prefix(filter, "fullDocument.");
+          } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                "Invalid filter for " + entry.getKey() + ": " + e.getMessage(), e);
+          }
+        }
+      }
+    }
+
     // Initialize source and target MongoDB clients
-    sourceService = new MongoDBService(config.getSourceMongoDBUri());
+    if (config.getSourceDumpPath() != null) {
+      setupDumpSource();
+    } else {
+      sourceService = new MongoDBService(config.requireSourceMongoDBUri());
+      resolveSnapshotWindow();
+      resolveChangeStreamStartTime();
+    }
     //
     //
-    MongoCSFLE csfleClient = new MongoCSFLE(config.getTargetMongoDBUri(), config);
-    csfleClient.setup();
+    cryptClients = new CryptClientPool(
+        config.getTargetMongoDBUri(), config, config.getEncryption().getCryptClients());
     //
-    MongoClient targetMongoClient = csfleClient.getMongoClient();
+    MongoClient targetMongoClient = cryptClients.get(0);
     targetService = new MongoDBService(targetMongoClient);
+    if (config.getExport().getDirectory() != null) {
+      if (config.getMigrationConfig() != null && config.getMigrationConfig().getDelta().isEnabled()) {
+        throw new IllegalArgumentException(
+            "Delta mode keeps its watermarks on the target and cannot export to files");
+      }
+      fileExport = new EncryptedFileExport(config, cryptClients);
+    }
     //
     //
     MigrationConfiguration dbs = this.config.getMigrationConfig();
 
-    if (dbs != null) {
+    if (dbs != null && dbs.getTargetToMigrate() != null) {
       for (Map.Entry<String, List<String>> entry : dbs.getTargetToMigrate().entrySet()) {
         String dbName = entry.getKey();
         List<String> collections = entry.getValue();
 
         if (collections != null && !collections.isEmpty()) {
-          this.collectionsMap.put(dbName, collections);
+          this.collectionsMap.put(dbName, new ArrayList<>(collections));
         }
       }
     }
+    if (dumpReader != null) {
+      selectDumpCollections(dbs);
+    } else if (dbs != null && !dbs.getInclude().isEmpty()) {
+      discoverCollections(dbs);
+    }
+    if (dbs != null && dbs.isDropCollectionOnTarget() && dbs.getDelta().isEnabled()) {
+      throw new IllegalArgumentException(
+          "dropCollectionOnTarget cannot be combined with delta mode, the swap would drop older data");
+    }
+    if (isCoordinated()) {
+      validateCoordinatorMode();
+    }
     if (this.collectionsMap.isEmpty()) {
       logger.error("No collections to migrate. Please check your configuration.");
       throw new RuntimeException("No collections to migrate.");
@@ -116,9 +710,145 @@ public class MigrationDriver {
     logger.info("Collections to migrate: {}", this.collectionsMap);
   }
 
+  /**
+   * Rejects the options that only work within a single process.
+   */
+  private void validateCoordinatorMode() {
+    MigrationConfiguration dbs = config.getMigrationConfig();
+    if (dumpReader != null || config.getExport().getDirectory() != null) {
+      throw new IllegalArgumentException(
+          "Coordinator mode copies from a source cluster to the target only");
+    }
+    if (dbs != null && dbs.getDelta().isEnabled()) {
+      throw new IllegalArgumentException(
+          "Delta mode keeps one watermark per collection and cannot be split across processes");
+    }
+    if (dbs != null && dbs.isDropCollectionOnTarget()) {
+      throw new IllegalArgumentException(
+          "dropCollectionOnTarget cannot be combined with coordinator mode, "
+              + "no single process knows when every copy of a collection is clean");
+    }
+  }
+
+  /**
+   * Opens the dump and rejects the options that need a source cluster.
+   */
+  private void setupDumpSource() {
+    MigrationConfiguration dbs = config.getMigrationConfig();
+    if (dbs != null && dbs.getDelta().isEnabled()) {
+      throw new IllegalArgumentException("Delta mode needs a source cluster, not a dump");
+    }
+    if (config.getExport().getDirectory() != null) {
+      throw new IllegalArgumentException("A dump cannot be exported to files, migrate it to the target");
+    }
+    if (config.getChangeStream().isEnabled()) {
+      logger.warn("Change streams need a source cluster and are skipped for a dump");
+    }
+    if (dbs != null && !dbs.getNamespaces().isEmpty()) {
+      logger.warn("Namespace filters and projections are not applied to a dump,"
+          + " only target remapping is");
+    }
+    dumpReader = new DumpSourceReader(config.getSourceDumpPath());
+  }
+
+  /**
+   * Dump mode: keeps the listed collections found in the dump and adds the ones matching the
+   * include/exclude patterns. Without either, the whole dump is migrated.
+   */
+  private void selectDumpCollections(MigrationConfiguration dbs) {
+    List<String> dumped = dumpReader.listNamespaces();
+    for (Map.Entry<String, List<String>> entry : collectionsMap.entrySet()) {
+      entry.getValue().removeIf(collection -> {
+        boolean missing = !dumped.contains(entry.getKey() + "." + collection);
+        if (missing) {
+          logger.warn("{}.{} is not in the dump, skipping", entry.getKey(), collection);
+        }
+        return missing;
+      });
+    }
+    collectionsMap.values().removeIf(List::isEmpty);
+
+    List<String> include = dbs == null || (dbs.getInclude().isEmpty() && collectionsMap.isEmpty())
+        ? Collections.singletonList("*")
+        : dbs.getInclude();
+    List<String> exclude = dbs == null ? Collections.emptyList() : dbs.getExclude();
+    if (include.isEmpty()) {
+      return;
+    }
+    for (Map.Entry<String, List<String>> entry
+        : NamespaceDiscovery.select(dumped, include, exclude).entrySet()) {
+      List<String> collections =
+          collectionsMap.computeIfAbsent(entry.getKey(), db -> new ArrayList<>());
+      for (String collection : entry.getValue()) {
+        if (!collections.contains(collection)) {
+          collections.add(collection);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads how long the source keeps snapshot history. Unless a cluster time is configured, each
+   * task pins its own snapshot at its first read and moves on to a new one within this window.
+   */
+  private void resolveSnapshotWindow() {
+    SourceReadConfig sourceRead = config.getSourceRead();
+    if (sourceRead == null || !sourceRead.isSnapshot()) {
+      return;
+    }
+    if (sourceService.getCurrentOperationTime() == null) {
+      throw new IllegalStateException("Snapshot reads require a replica set or sharded source");
+    }
+    if (sourceRead.getAtClusterTime() != null) {
+      logger.info("Snapshot reads pinned to cluster time {}", getAtClusterTime());
+      return;
+    }
+    if (sourceRead.getSnapshotWindowSeconds() != null) {
+      return;
+    }
+    try {
+      Document parameter = sourceService.getClient().getDatabase("admin").runCommand(
+          new Document("getParameter", 1).append("minSnapshotHistoryWindowInSeconds", 1));
+      sourceRead.setSnapshotWindowSeconds(
+          ((Number) parameter.get("minSnapshotHistoryWindowInSeconds")).intValue());
+    } catch (RuntimeException e) {
+      logger.warn("Could not read minSnapshotHistoryWindowInSeconds of the source, assuming {}s: {}",
+          DEFAULT_SNAPSHOT_WINDOW_SECONDS, e.getMessage());
+      sourceRead.setSnapshotWindowSeconds(DEFAULT_SNAPSHOT_WINDOW_SECONDS);
+    }
+    logger.info("Snapshot reads pinned per task, renewed within the {}s snapshot window",
+        sourceRead.getSnapshotWindowSeconds());
+  }
+
+  /**
+   * Records the point the change stream replays from, before any document is copied. With a
+   * configured cluster time the copy reflects it, so the stream starts right there. Otherwise
+   * snapshot reads are pinned later, by each task, so nothing written after this point is missed.
+   */
+  private void resolveChangeStreamStartTime() {
+    if (!config.getChangeStream().isEnabled()) {
+      return;
+    }
+    changeStreamStartTime = getAtClusterTime() != null
+        ? getAtClusterTime()
+        : sourceService.getCurrentOperationTime();
+    if (changeStreamStartTime == null) {
+      throw new IllegalStateException("Change streams require a replica set or sharded source");
+    }
+    logger.info("Change stream start time recorded: {}", changeStreamStartTime);
+  }
+
   private void shutdown() {
     workerManager.shutdown();
-    sourceService.close();
+    monitor.unregisterAll();
+    if (sourceService != null) {
+      sourceService.close();
+    }
     targetService.close();
+    // Also stops the data key refresh
+    cryptClients.close();
+    if (targetAdminService != null) {
+      targetAdminService.close();
+    }
   }
 }
@@ -0,0 +1,198 @@
+package app.migrator.csfle.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+
+import app.migrator.csfle.MigrationDriver;
+import app.migrator.csfle.config.Configuration;
+import app.migrator.csfle.config.MigrationConfiguration;
+import app.migrator.csfle.generator.SyntheticDataGenerator;
+import app.migrator.csfle.monitor.BatchLatencies;
+import app.migrator.csfle.service.MongoCSFLE;
+import lombok.Data;
+
+/**
+ * End-to-end throughput run: creates a fresh DEK, loads synthetic documents into the source,
+ * runs the full {@link MigrationDriver} and reports throughput, batch latency and heap usage.
+ */
+public class ThroughputBenchmark {
+  private static final Logger logger = LoggerFactory.getLogger(ThroughputBenchmark.class);
+
+  private final Configuration config;
+  private final String database;
+  private final String collection;
+
+  public ThroughputBenchmark(Configuration config, String namespace) {
+    this.config = config;
+    int dot = namespace.indexOf('.');
+    if (dot <= 0 || dot == namespace.length() - 1) {
+      throw new IllegalArgumentException("Namespace must be <database>.<collection>: " + namespace);
+    }
+    this.database = namespace.substring(0, dot);
+    this.collection = namespace.substring(dot + 1);
+  }
+
+  @Data
+  public static class Result {
+    private long documents;
+    private long sourceBytes;
+    private long elapsedMillis;
+    private long targetDocuments;
+    private int batches;
+    private double p50BatchMillis;
+    private double p99BatchMillis;
+    private long peakHeapBytes;
+
+    public double getDocsPerSecond() {
+      return elapsedMillis == 0 ? 0 : documents * 1000.0 / elapsedMillis;
+    }
+
+    public double getMegabytesPerSecond() {
+      return elapsedMillis == 0 ? 0 : sourceBytes / 1024.0 / 1024.0 * 1000.0 / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "documents=%d targetDocuments=%d elapsed=%.1fs%n"
+              + "throughput=%.0f docs/s %.2f MB/s%n"
+              + "batches=%d p50=%.1f ms p99=%.1f ms%n"
+              + "peakHeap=%.1f MB",
+          documents, targetDocuments, elapsedMillis / 1000.0,
+          getDocsPerSecond(), getMegabytesPerSecond(),
+          batches, p50BatchMillis, p99BatchMillis,
+          peakHeapBytes / 1024.0 / 1024.0);
+    }
+  }
+
+  /**
+   * @param documents number of synthetic documents, 0 to reuse the existing source collection
+   * @param generatorThreads parallel inserters used to load the source
+   * @param seed generator seed
+   * @return measured result of the migration phase
+   */
+  public Result run(long documents, int generatorThreads, long seed) throws Exception {
+    if (config.requireSourceMongoDBUri().equals(config.getTargetMongoDBUri())) {
+      throw new IllegalArgumentException(
+          "Source and target must be different deployments, the namespace is the same on both");
+    }
+
+    Map<String, Object> schemaTemplate = findSchemaTemplate();
+    config.getSchema().setSchemasObject(new HashMap<>());
+
+    String dataKeyId = createDataKey();
+    schemaTemplate.put("encryptMetadata", Collections.singletonMap("keyId",
+        Collections.singletonList(Collections.singletonMap("$binary",
+            toMap("base64", dataKeyId, "subType", "04")))));
+    config.getSchema().setSchemasObject(
+        Collections.singletonMap(database + "." + collection, schemaTemplate));
+    BsonDocument schema = config.getSchema().getSchemas().get(database + "." + collection);
+
+    Result result = new Result();
+    try (MongoClient source = MongoClients.create(config.getSourceMongoDBUri());
+        MongoClient target = MongoClients.create(config.getTargetMongoDBUri())) {
+      MongoCollection<Document> sourceCollection =
+          source.getDatabase(database).getCollection(collection);
+
+      if (documents > 0) {
+        sourceCollection.drop();
+        logger.info("Generating {} documents into {}.{}", documents, database, collection);
+        new SyntheticDataGenerator(schema, seed)
+            .load(sourceCollection, documents, 1000, generatorThreads);
+      }
+      result.setDocuments(sourceCollection.countDocuments());
+      Document stats = source.getDatabase(database).runCommand(new Document("collStats", collection));
+      result.setSourceBytes(((Number) stats.get("size")).longValue());
+
+      target.getDatabase(database).getCollection(collection).drop();
+
+      MigrationConfiguration migrationConfig = new MigrationConfiguration();
+      Map<String, List<String>> targetToMigrate = new HashMap<>();
+      targetToMigrate.put(database, new ArrayList<>(Collections.singletonList(collection)));
+      migrationConfig.setTargetToMigrate(targetToMigrate);
+      config.setMigrationConfig(migrationConfig);
+
+      System.gc();
+      List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP) {
+          pool.resetPeakUsage();
+          heapPools.add(pool);
+        }
+      }
+
+      long start = System.currentTimeMillis();
+      MigrationDriver driver = new MigrationDriver(config);
+      driver.setup();
+      driver.startMigration();
+      result.setElapsedMillis(System.currentTimeMillis() - start);
+
+      // Sum of per-pool peaks, an upper bound of the real peak
+      long peakHeap = 0;
+      for (MemoryPoolMXBean pool : heapPools) {
+        peakHeap += pool.getPeakUsage().getUsed();
+      }
+      result.setPeakHeapBytes(peakHeap);
+
+      BatchLatencies latencies = driver.getMonitor().getBatchLatencies();
+      result.setBatches(latencies.getCount());
+      result.setP50BatchMillis(latencies.percentileMillis(50));
+      result.setP99BatchMillis(latencies.percentileMillis(99));
+      result.setTargetDocuments(
+          target.getDatabase(database).getCollection(collection).countDocuments());
+    }
+
+    return result;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> findSchemaTemplate() {
+    Map<String, Object> schemas = config.getSchema().getSchemasObject();
+    if (schemas == null || schemas.isEmpty()) {
+      throw new IllegalArgumentException("The schema file does not contain any namespace");
+    }
+    Object schema = schemas.getOrDefault(database + "." + collection,
+        schemas.values().iterator().next());
+
+    // Deep copy, the encryptMetadata is replaced by the benchmark key
+    return new ObjectMapper().convertValue(schema, Map.class);
+  }
+
+  private String createDataKey() throws Exception {
+    MongoCSFLE csfle = new MongoCSFLE(config.getTargetMongoDBUri(), config);
+    try {
+      csfle.createMasterKeyFileIfMissing();
+      csfle.setup();
+      csfle.createKeyVault();
+      String dataKeyId = csfle.generateDataKey();
+      logger.info("Created benchmark DEK: {}", dataKeyId);
+      return dataKeyId;
+    } finally {
+      csfle.close();
+    }
+  }
+
+  private static Map<String, Object> toMap(Object... keyValues) {
+    Map<String, Object> map = new HashMap<>();
+    for (int i = 0; i < keyValues.length; i += 2) {
+      map.put((String) keyValues[i], keyValues[i + 1]);
+    }
+    return map;
+  }
+}
@@ -0,0 +1,358 @@
+package app.migrator.csfle.cdc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoNamespace;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+
+import app.migrator.csfle.config.MigrationConfiguration;
+import app.migrator.csfle.monitor.ChangeStreamProgress;
+
+/**
+ * Buffers change events and applies them to the target with one ordered bulkWrite per namespace.
+ * The target client auto-encrypts, so replacements are encrypted exactly like the bulk copy.
+ *
+ * <p>Inserts, updates and replaces become upserting replacements of the looked-up full document,
+ * which makes re-applying events that overlap the bulk copy harmless. Events are written to the
+ * renamed target namespace, and the configured projection is applied to their documents.
+ *
+ * <p>On namespaces with a filter, updates and replaces of documents that no longer match it become
+ * deletes, so a document moved out of the filter does not stay on the target. Matching is checked
+ * on the source with one query per namespace and flush, so it follows the server's own semantics.
+ */
+public class ChangeEventBatchWriter {
+  private static final Logger logger = LoggerFactory.getLogger(ChangeEventBatchWriter.class);
+  private static final ReplaceOptions UPSERT = new ReplaceOptions().upsert(true);
+  private static final BulkWriteOptions ORDERED = new BulkWriteOptions().ordered(true);
+  private static final DocumentCodec CODEC = new DocumentCodec();
+
+  private final MongoClient sourceClient;
+  private final MongoClient targetClient;
+  private final ChangeStreamProgress progress;
+  private final MigrationConfiguration migration;
+  private final Map<MongoNamespace, MongoNamespace> targets = new HashMap<>();
+  private final Map<MongoNamespace, BsonDocument> projections = new HashMap<>();
+  private final Map<MongoNamespace, BsonDocument> filters = new HashMap<>();
+  private final Map<MongoNamespace, List<WriteModel<Document>>> pending = new LinkedHashMap<>();
+  // Pending updates and replaces of filtered source namespaces, checked before the flush
+  private final Map<MongoNamespace, List<FilteredChange>> filtered = new LinkedHashMap<>();
+  private int size = 0;
+
+  public ChangeEventBatchWriter(MongoClient sourceClient, MongoClient targetClient,
+      ChangeStreamProgress progress, MigrationConfiguration migration) {
+    this.sourceClient = sourceClient;
+    this.targetClient = targetClient;
+    this.progress = progress;
+    this.migration = migration;
+  }
+
+  /**
+   * Adds an event to the pending batch.
+   *
+   * @param event change event with a looked-up full document, decoded here on the lane thread
+   */
+  public void add(ChangeStreamDocument<RawBsonDocument> event) {
+    WriteModel<Document> model = toWriteModel(event);
+    if (model == null) {
+      progress.recordSkipped();
+      return;
+    }
+    MongoNamespace target = targets.computeIfAbsent(event.getNamespace(),
+        ns -> migration.getTargetNamespace(ns.getDatabaseName(), ns.getCollectionName()));
+    List<WriteModel<Document>> models = pending.computeIfAbsent(target, ns -> new ArrayList<>());
+    models.add(model);
+    size++;
+    // Inserts only pass the change stream pipeline when they match
+    if (model instanceof ReplaceOneModel && event.getOperationType() != OperationType.INSERT
+        && getFilter(event.getNamespace()) != null) {
+      filtered.computeIfAbsent(event.getNamespace(), ns -> new ArrayList<>())
+          .add(new FilteredChange(models, models.size() - 1, event.getDocumentKey()));
+    }
+  }
+
+  /**
+   * Position of a pending replacement that is turned into a delete if its document no longer
+   * matches the namespace filter.
+   */
+  private static class FilteredChange {
+    private final List<WriteModel<Document>> models;
+    private final int index;
+    private final BsonDocument documentKey;
+
+    FilteredChange(List<WriteModel<Document>> models, int index, BsonDocument documentKey) {
+      this.models = models;
+      this.index = index;
+      this.documentKey = documentKey;
+    }
+  }
+
+  private WriteModel<Document> toWriteModel(ChangeStreamDocument<RawBsonDocument> event) {
+    switch (event.getOperationType()) {
+      case INSERT:
+      case UPDATE:
+      case REPLACE:
+        if (event.getFullDocument() == null) {
+          // Deleted after the change, the delete event follows
+          return null;
+        }
+        countOperation(event);
+        return new ReplaceOneModel<>(event.getDocumentKey(),
+            project(event.getFullDocument().decode(CODEC), getProjection(event.getNamespace())),
+            UPSERT);
+      case DELETE:
+        progress.recordDelete();
+        return new DeleteOneModel<>(event.getDocumentKey());
+      default:
+        logger.warn("Ignoring {} event on {}, apply it to the target manually",
+            event.getOperationTypeString(), event.getNamespace());
+        return null;
+    }
+  }
+
+  private BsonDocument getFilter(MongoNamespace namespace) {
+    if (!filters.containsKey(namespace)) {
+      filters.put(namespace, migration.getNamespaceOptions(namespace.getDatabaseName(),
+          namespace.getCollectionName()).parseFilter());
+    }
+    return filters.get(namespace);
+  }
+
+  private BsonDocument getProjection(MongoNamespace namespace) {
+    if (!projections.containsKey(namespace)) {
+      projections.put(namespace, migration.getNamespaceOptions(namespace.getDatabaseName(),
+          namespace.getCollectionName()).parseProjection());
+    }
+    return projections.get(namespace);
+  }
+
+  /**
+   * Applies an inclusion or exclusion projection like the server does for the bulk copy. _id is
+   * always kept, excluding it is rejected when the projection is parsed. A dotted path applies to
+   * every element of an array it crosses: included paths keep only the embedded documents of the
+   * array, excluded ones leave its other elements as they are.
+   */
+  static Document project(Document document, BsonDocument projection) {
+    if (projection == null) {
+      return document;
+    }
+    boolean inclusion = false;
+    Map<String, Object> paths = new LinkedHashMap<>();
+    for (Map.Entry<String, BsonValue> field : projection.entrySet()) {
+      if ("_id".equals(field.getKey())) {
+        continue;
+      }
+      if (isIncluded(field.getValue())) {
+        inclusion = true;
+      }
+      addPath(paths, field.getKey().split("\\."));
+    }
+    if (!inclusion) {
+      return exclude(document, paths);
+    }
+    paths.put("_id", Boolean.TRUE);
+    return include(document, paths);
+  }
+
+  private static boolean isIncluded(BsonValue value) {
+    return value.isBoolean() ? value.asBoolean().getValue() : value.asNumber().intValue() != 0;
+  }
+
+  /**
+   * Adds a dotted path to a tree of field names, whose leaves are {@code Boolean.TRUE}.
+   */
+  @SuppressWarnings("unchecked")
+  private static void addPath(Map<String, Object> paths, String[] path) {
+    Map<String, Object> node = paths;
+    for (int i = 0; i < path.length - 1; i++) {
+      Object child = node.computeIfAbsent(path[i], name -> new LinkedHashMap<String, Object>());
+      if (!(child instanceof Map)) {
+        // A parent path already covers it
+        return;
+      }
+      node = (Map<String, Object>) child;
+    }
+    node.put(path[path.length - 1], Boolean.TRUE);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Document include(Document document, Map<String, Object> paths) {
+    Document projected = new Document();
+    for (Map.Entry<String, Object> field : document.entrySet()) {
+      Object node = paths.get(field.getKey());
+      if (node == Boolean.TRUE) {
+        projected.put(field.getKey(), field.getValue());
+      } else if (node != null) {
+        Object value = includeValue(field.getValue(), (Map<String, Object>) node);
+        if (value != null) {
+          projected.put(field.getKey(), value);
+        }
+      }
+    }
+    return projected;
+  }
+
+  /**
+   * @return the value with only the given paths, null if it holds no embedded document
+   */
+  private static Object includeValue(Object value, Map<String, Object> paths) {
+    if (value instanceof Document) {
+      return include((Document) value, paths);
+    }
+    if (value instanceof List) {
+      List<Object> projected = new ArrayList<>();
+      for (Object element : (List<?>) value) {
+        Object included = includeValue(element, paths);
+        if (included != null) {
+          projected.add(included);
+        }
+      }
+      return projected;
+    }
+    return null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Document exclude(Document document, Map<String, Object> paths) {
+    // Copied so the event's own document is left untouched
+    Document projected = new Document();
+    for (Map.Entry<String, Object> field : document.entrySet()) {
+      Object node = paths.get(field.getKey());
+      if (node == null) {
+        projected.put(field.getKey(), field.getValue());
+      } else if (node != Boolean.TRUE) {
+        projected.put(field.getKey(), excludeValue(field.getValue(), (Map<String, Object>) node));
+      }
+    }
+    return projected;
+  }
+
+  private static Object excludeValue(Object value, Map<String, Object> paths) {
+    if (value instanceof Document) {
+      return exclude((Document) value, paths);
+    }
+    if (value instanceof List) {
+      List<Object> projected = new ArrayList<>();
+      for (Object element : (List<?>) value) {
+        projected.add(excludeValue(element, paths));
+      }
+      return projected;
+    }
+    return value;
+  }
+
+  private void countOperation(ChangeStreamDocument<RawBsonDocument> event) {
+    switch (event.getOperationType()) {
+      case INSERT:
+        progress.recordInsert();
+        break;
+      case UPDATE:
+        progress.recordUpdate();
+        break;
+      default:
+        progress.recordReplace();
+        break;
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Writes every pending event to the target.
+   */
+  public void flush() {
+    deleteUnmatched();
+    for (Map.Entry<MongoNamespace, List<WriteModel<Document>>> entry : pending.entrySet()) {
+      MongoNamespace namespace = entry.getKey();
+      try {
+        targetClient
+            .getDatabase(namespace.getDatabaseName())
+            .getCollection(namespace.getCollectionName())
+            .bulkWrite(entry.getValue(), ORDERED);
+      } catch (MongoBulkWriteException e) {
+        // Ordered: everything after the first error is retried one by one
+        List<WriteModel<Document>> models = entry.getValue();
+        for (BulkWriteError error : e.getWriteErrors()) {
+          logger.error("[{}] Change event failed at index {}: {}", namespace, error.getIndex(),
+              error.getMessage());
+        }
+        int failedIndex = e.getWriteErrors().isEmpty()
+            ? models.size()
+            : e.getWriteErrors().get(0).getIndex();
+        applyOneByOne(namespace,
+            models.subList(Math.min(models.size(), failedIndex + 1), models.size()));
+      }
+    }
+    pending.clear();
+    size = 0;
+  }
+
+  /**
+   * Replaces the pending updates and replaces of documents that no longer match their namespace
+   * filter with deletes. Matching is read from the source, so it reflects the current document
+   * like the looked-up one does.
+   */
+  private void deleteUnmatched() {
+    for (Map.Entry<MongoNamespace, List<FilteredChange>> entry : filtered.entrySet()) {
+      MongoNamespace namespace = entry.getKey();
+      List<BsonValue> ids = new ArrayList<>();
+      for (FilteredChange change : entry.getValue()) {
+        ids.add(change.documentKey.get("_id"));
+      }
+      Set<BsonValue> matching = new HashSet<>();
+      sourceClient
+          .getDatabase(namespace.getDatabaseName())
+          .getCollection(namespace.getCollectionName(), BsonDocument.class)
+          .find(Filters.and(Filters.in("_id", ids), getFilter(namespace)))
+          .projection(Projections.include("_id"))
+          .forEach(document -> matching.add(document.get("_id")));
+      for (FilteredChange change : entry.getValue()) {
+        if (!matching.contains(change.documentKey.get("_id"))) {
+          change.models.set(change.index, new DeleteOneModel<>(change.documentKey));
+        }
+      }
+    }
+    filtered.clear();
+  }
+
+  private void applyOneByOne(MongoNamespace namespace, List<WriteModel<Document>> models) {
+    for (WriteModel<Document> model : models) {
+      try {
+        targetClient
+            .getDatabase(namespace.getDatabaseName())
+            .getCollection(namespace.getCollectionName())
+            .bulkWrite(Collections.singletonList(model), ORDERED);
+      } catch (MongoBulkWriteException e) {
+        logger.error("[{}] Change event failed: {}", namespace, e.getWriteErrors());
+        progress.recordSkipped();
+      }
+    }
+  }
+}
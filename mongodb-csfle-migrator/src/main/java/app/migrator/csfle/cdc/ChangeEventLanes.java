@@ -0,0 +1,268 @@
+package app.migrator.csfle.cdc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.bson.BsonTimestamp;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+
+import app.migrator.csfle.monitor.ChangeStreamProgress;
+import app.migrator.csfle.worker.MemoryGovernor;
+
+/**
+ * Applies change events in parallel on N ordered lanes. Events are hashed by documentKey, so all
+ * changes of one document stay in order on the same lane while different documents are encrypted
+ * and written concurrently, each lane with its own batch writer.
+ *
+ * <p>Queued and buffered events hold their full document size in the {@link MemoryGovernor}
+ * until written, so dispatch pauses when the process-wide budget is used up.
+ *
+ * <p>Lanes flush independently, so the stream is only applied up to the oldest event still
+ * waiting on any lane. Replication lag is reported from that event.
+ */
+public class ChangeEventLanes implements AutoCloseable {
+  private static final Logger logger = LoggerFactory.getLogger(ChangeEventLanes.class);
+
+  private final List<Lane> lanes = new ArrayList<>();
+  private final MemoryGovernor memoryGovernor;
+  private final ChangeStreamProgress progress;
+  private volatile RuntimeException failure;
+
+  /**
+   * @param name name used for the lane threads
+   * @param laneCount number of parallel lanes
+   * @param batchSize events per bulkWrite on each lane
+   * @param maxBatchWaitMillis time a partial batch may wait before it is written
+   * @param memoryGovernor budget the queued events reserve from
+   * @param progress progress the applied cluster time and lag are reported to
+   * @param writers creates the batch writer of each lane
+   */
+  public ChangeEventLanes(
+      String name,
+      int laneCount,
+      int batchSize,
+      long maxBatchWaitMillis,
+      MemoryGovernor memoryGovernor,
+      ChangeStreamProgress progress,
+      Supplier<ChangeEventBatchWriter> writers) {
+    this.memoryGovernor = memoryGovernor;
+    this.progress = progress;
+    for (int i = 0; i < Math.max(1, laneCount); i++) {
+      Lane lane = new Lane(writers.get(), batchSize, maxBatchWaitMillis);
+      Thread thread = new Thread(lane, "change-stream-" + name + "-lane-" + i);
+      thread.setDaemon(true);
+      lane.thread = thread;
+      lanes.add(lane);
+      thread.start();
+    }
+  }
+
+  /**
+   * Hands an event to the lane of its document, blocking while that lane is full or the memory
+   * budget is used up.
+   *
+   * @param event change event
+   * @throws RuntimeException failure of a lane, instead of waiting on a queue nobody drains
+   */
+  public void dispatch(ChangeStreamDocument<RawBsonDocument> event) throws InterruptedException {
+    checkFailure();
+    int index = event.getDocumentKey() == null
+        ? 0
+        : Math.floorMod(event.getDocumentKey().hashCode(), lanes.size());
+    // The tailer holds no reservation, lanes release theirs within maxBatchWaitMillis
+    long bytes = event.getFullDocument() == null
+        ? 0
+        : event.getFullDocument().getByteBuffer().remaining();
+    memoryGovernor.reserve(bytes);
+    Lane lane = lanes.get(index);
+    boolean queued = false;
+    try {
+      lane.dispatched(event.getClusterTime());
+      put(lane, new Reserved(event, bytes));
+      queued = true;
+    } finally {
+      if (!queued) {
+        memoryGovernor.release(bytes);
+      }
+    }
+  }
+
+  private static class Reserved {
+    private final ChangeStreamDocument<RawBsonDocument> event;
+    private final long bytes;
+
+    Reserved(ChangeStreamDocument<RawBsonDocument> event, long bytes) {
+      this.event = event;
+      this.bytes = bytes;
+    }
+  }
+
+  /**
+   * Waits for room on a lane queue, checking between attempts that no lane failed. A failed lane
+   * stops draining its queue, a plain put could wait on it forever.
+   */
+  private void put(Lane lane, Object item) throws InterruptedException {
+    while (!lane.queue.offer(item, 1, TimeUnit.SECONDS)) {
+      checkFailure();
+    }
+  }
+
+  /**
+   * Blocks until every event dispatched so far has been written to the target, so the resume
+   * token of the last dispatched event can be checkpointed.
+   */
+  public void flushAll() throws InterruptedException {
+    CountDownLatch flushed = new CountDownLatch(lanes.size());
+    for (Lane lane : lanes) {
+      put(lane, flushed);
+    }
+    while (!flushed.await(1, TimeUnit.SECONDS)) {
+      checkFailure();
+    }
+    checkFailure();
+  }
+
+  private void checkFailure() {
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Reports the stream as applied up to the oldest event still waiting on any lane, or up to the
+   * newest written event when no lane has anything left.
+   */
+  private void recordApplied() {
+    BsonTimestamp oldestPending = null;
+    for (Lane lane : lanes) {
+      BsonTimestamp pending = lane.oldestPending();
+      if (pending != null && (oldestPending == null || pending.compareTo(oldestPending) < 0)) {
+        oldestPending = pending;
+      }
+    }
+    BsonTimestamp appliedThrough = null;
+    for (Lane lane : lanes) {
+      BsonTimestamp applied = lane.lastApplied();
+      if (applied != null
+          && (oldestPending == null || applied.compareTo(oldestPending) < 0)
+          && (appliedThrough == null || applied.compareTo(appliedThrough) > 0)) {
+        appliedThrough = applied;
+      }
+    }
+    progress.recordApplied(appliedThrough, oldestPending);
+  }
+
+  @Override
+  public void close() {
+    for (Lane lane : lanes) {
+      lane.running = false;
+      lane.thread.interrupt();
+    }
+  }
+
+  private class Lane implements Runnable {
+    private final BlockingQueue<Object> queue;
+    private final ChangeEventBatchWriter writer;
+    private final int batchSize;
+    private final long maxBatchWaitMillis;
+    private volatile boolean running = true;
+    private Thread thread;
+    private long reservedBytes = 0;
+    // Cluster times of events dispatched to this lane and not yet written, oldest first
+    private final Deque<BsonTimestamp> pending = new ArrayDeque<>();
+    private BsonTimestamp lastApplied;
+    // Events handed to the writer since the last flush
+    private int taken = 0;
+
+    Lane(ChangeEventBatchWriter writer, int batchSize, long maxBatchWaitMillis) {
+      this.queue = new ArrayBlockingQueue<>(batchSize * 4);
+      this.writer = writer;
+      this.batchSize = batchSize;
+      this.maxBatchWaitMillis = maxBatchWaitMillis;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (running) {
+          Object item = queue.poll(maxBatchWaitMillis, TimeUnit.MILLISECONDS);
+
+          if (item instanceof CountDownLatch) {
+            flush();
+            ((CountDownLatch) item).countDown();
+          } else if (item != null) {
+            Reserved reserved = (Reserved) item;
+            reservedBytes += reserved.bytes;
+            writer.add(reserved.event);
+            if (reserved.event.getClusterTime() != null) {
+              taken++;
+            }
+            if (writer.size() >= batchSize) {
+              flush();
+            }
+          } else {
+            flush();
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (RuntimeException e) {
+        logger.error("Change stream lane {} failed: {}", thread.getName(), e.getMessage(), e);
+        failure = e;
+      } finally {
+        // Hand back what this lane holds, so a stopped lane cannot block dispatch
+        for (Object item : queue.toArray()) {
+          if (item instanceof Reserved) {
+            reservedBytes += ((Reserved) item).bytes;
+          }
+        }
+        memoryGovernor.release(reservedBytes);
+        reservedBytes = 0;
+      }
+    }
+
+    private void flush() {
+      if (writer.size() > 0) {
+        writer.flush();
+      }
+      memoryGovernor.release(reservedBytes);
+      reservedBytes = 0;
+      if (taken > 0) {
+        applied(taken);
+        taken = 0;
+        recordApplied();
+      }
+    }
+
+    synchronized void dispatched(BsonTimestamp clusterTime) {
+      if (clusterTime != null) {
+        pending.addLast(clusterTime);
+      }
+    }
+
+    private synchronized void applied(int count) {
+      for (int i = 0; i < count; i++) {
+        lastApplied = pending.pollFirst();
+      }
+    }
+
+    synchronized BsonTimestamp oldestPending() {
+      return pending.peekFirst();
+    }
+
+    synchronized BsonTimestamp lastApplied() {
+      return lastApplied;
+    }
+  }
+}
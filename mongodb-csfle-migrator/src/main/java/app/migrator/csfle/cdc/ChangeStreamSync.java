@@ -0,0 +1,172 @@
+package app.migrator.csfle.cdc;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonTimestamp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoClient;
+
+import app.migrator.csfle.config.Configuration;
+import app.migrator.csfle.config.Configuration.ChangeStreamConfig;
+import app.migrator.csfle.config.MigrationConfiguration;
+import app.migrator.csfle.monitor.ChangeStreamProgress;
+import app.migrator.csfle.monitor.MigrationMonitor;
+import app.migrator.csfle.worker.MemoryGovernor;
+
+/**
+ * Continuous-sync phase run after the bulk copy: replays every write made to the migrated
+ * namespaces since the recorded start time, then keeps the target in sync until stopped, so the
+ * final cutover only has to wait for the reported lag to reach zero.
+ */
+public class ChangeStreamSync {
+  private static final Logger logger = LoggerFactory.getLogger(ChangeStreamSync.class);
+
+  private final Configuration config;
+  private final MongoClient sourceClient;
+  private final MongoClient targetClient;
+  private final Map<String, List<String>> collectionsMap;
+  private final BsonTimestamp startAt;
+  private final MigrationMonitor monitor;
+  private final MemoryGovernor memoryGovernor;
+
+  private final List<ChangeStreamTailer> tailers = new ArrayList<>();
+  private final List<ChangeStreamProgress> progresses = new ArrayList<>();
+  private CountDownLatch finished;
+
+  public ChangeStreamSync(
+      Configuration config,
+      MongoClient sourceClient,
+      MongoClient targetClient,
+      Map<String, List<String>> collectionsMap,
+      BsonTimestamp startAt,
+      MigrationMonitor monitor,
+      MemoryGovernor memoryGovernor) {
+    this.config = config;
+    this.sourceClient = sourceClient;
+    this.targetClient = targetClient;
+    this.collectionsMap = collectionsMap;
+    this.startAt = startAt;
+    this.monitor = monitor;
+    this.memoryGovernor = memoryGovernor;
+  }
+
+  /**
+   * Runs until every stream stopped, either idle (stopAfterIdleSeconds) or because the process is
+   * shutting down.
+   */
+  public void run() throws InterruptedException {
+    ChangeStreamConfig streamConfig = config.getChangeStream();
+    CheckpointStore checkpointStore = new CheckpointStore(targetClient, streamConfig);
+    String checkpointPrefix = getCheckpointPrefix();
+    logger.info("Change stream checkpoints are kept under {}", checkpointPrefix);
+
+    List<String> streams = "cluster".equals(streamConfig.getScope())
+        ? Collections.singletonList(null)
+        : new ArrayList<>(collectionsMap.keySet());
+
+    finished = new CountDownLatch(streams.size());
+    for (String database : streams) {
+      String name = database == null ? "cluster" : database;
+      ChangeStreamProgress progress = monitor.getChangeStreamProgress(name);
+      progresses.add(progress);
+
+      ChangeEventLanes lanes = new ChangeEventLanes(
+          name,
+          streamConfig.getLanes(),
+          streamConfig.getBatchSize(),
+          streamConfig.getMaxBatchWaitMillis(),
+          memoryGovernor,
+          progress,
+          () -> new ChangeEventBatchWriter(sourceClient, targetClient, progress,
+              config.getMigrationConfig()));
+
+      ChangeStreamTailer tailer = new ChangeStreamTailer(
+          sourceClient,
+          lanes,
+          streamConfig,
+          database,
+          collectionsMap,
+          config.getMigrationConfig(),
+          startAt,
+          checkpointStore,
+          checkpointPrefix + ":" + name,
+          progress);
+      tailers.add(tailer);
+
+      Thread thread = new Thread(() -> {
+        try {
+          tailer.run();
+        } finally {
+          finished.countDown();
+        }
+      }, "change-stream-" + name);
+      thread.start();
+    }
+
+    Thread shutdownHook = new Thread(this::stopAndWait, "change-stream-shutdown");
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+    logger.info("Continuous sync started for {} stream(s) from {}", streams.size(), startAt);
+    while (!finished.await(streamConfig.getLagReportIntervalSeconds(), TimeUnit.SECONDS)) {
+      for (ChangeStreamProgress progress : progresses) {
+        logger.info("Change stream {}", progress);
+      }
+    }
+    logger.info("Continuous sync finished");
+
+    try {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    } catch (IllegalStateException e) {
+      // Already shutting down
+    }
+  }
+
+  public void stop() {
+    for (ChangeStreamTailer tailer : tailers) {
+      tailer.stop();
+    }
+  }
+
+  private void stopAndWait() {
+    logger.info("Stopping continuous sync, flushing pending change events");
+    stop();
+    try {
+      finished.await(30, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Checkpoints are keyed by migrationName when set, otherwise by the streamed namespaces, so a
+   * restart of the same migration finds its resume tokens either way.
+   */
+  private String getCheckpointPrefix() {
+    MigrationConfiguration migration = config.getMigrationConfig();
+    if (migration != null && migration.getMigrationName() != null) {
+      return migration.getMigrationName();
+    }
+    List<String> namespaces = new ArrayList<>();
+    collectionsMap.forEach((database, collections) ->
+        collections.forEach(collection -> namespaces.add(database + "." + collection)));
+    Collections.sort(namespaces);
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256")
+          .digest(String.join(",", namespaces).getBytes(StandardCharsets.UTF_8));
+      return String.format("namespaces-%016x", ByteBuffer.wrap(digest).getLong());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+}
@@ -0,0 +1,220 @@
+package app.migrator.csfle.cdc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+
+import app.migrator.csfle.config.Configuration.ChangeStreamConfig;
+import app.migrator.csfle.config.MigrationConfiguration;
+import app.migrator.csfle.monitor.ChangeStreamProgress;
+
+/**
+ * Tails one change stream (a database or the whole cluster) and dispatches its events to the
+ * apply lanes. Resume tokens are only checkpointed after every lane has flushed.
+ */
+public class ChangeStreamTailer implements Runnable {
+  private static final Logger logger = LoggerFactory.getLogger(ChangeStreamTailer.class);
+
+  private final MongoClient sourceClient;
+  private final ChangeEventLanes lanes;
+  private final ChangeStreamConfig config;
+  private final String database;
+  private final Map<String, List<String>> namespaces;
+  private final MigrationConfiguration migration;
+  private final BsonTimestamp startAt;
+  private final CheckpointStore checkpointStore;
+  private final String checkpointId;
+  private final ChangeStreamProgress progress;
+
+  private volatile boolean running = true;
+
+  /**
+   * @param database database to watch, or null to watch the whole cluster
+   * @param namespaces collections to apply, by database
+   * @param migration per namespace filters, applied to the looked-up documents
+   * @param startAt operation time recorded before the bulk copy
+   */
+  public ChangeStreamTailer(
+      MongoClient sourceClient,
+      ChangeEventLanes lanes,
+      ChangeStreamConfig config,
+      String database,
+      Map<String, List<String>> namespaces,
+      MigrationConfiguration migration,
+      BsonTimestamp startAt,
+      CheckpointStore checkpointStore,
+      String checkpointId,
+      ChangeStreamProgress progress) {
+    this.sourceClient = sourceClient;
+    this.lanes = lanes;
+    this.config = config;
+    this.database = database;
+    this.namespaces = namespaces;
+    this.migration = migration;
+    this.startAt = startAt;
+    this.checkpointStore = checkpointStore;
+    this.checkpointId = checkpointId;
+    this.progress = progress;
+  }
+
+  public void stop() {
+    running = false;
+  }
+
+  private List<Bson> buildPipeline() {
+    List<Bson> perDatabase = new ArrayList<>();
+    for (Map.Entry<String, List<String>> entry : namespaces.entrySet()) {
+      if (database != null && !database.equals(entry.getKey())) {
+        continue;
+      }
+      List<String> unfiltered = new ArrayList<>();
+      for (String collection : entry.getValue()) {
+        BsonDocument filter =
+            migration.getNamespaceOptions(entry.getKey(), collection).parseFilter();
+        if (filter == null) {
+          unfiltered.add(collection);
+          continue;
+        }
+        // Deletes carry no document, updates and replaces may move a document out of the
+        // filter, the writer deletes those. Only inserts are filtered here.
+        perDatabase.add(Filters.and(
+            Filters.eq("ns.db", entry.getKey()),
+            Filters.eq("ns.coll", collection),
+            Filters.or(Filters.in("operationType", "delete", "update", "replace"),
+                prefix(filter, "fullDocument."))));
+      }
+      if (!unfiltered.isEmpty()) {
+        perDatabase.add(Filters.and(
+            Filters.eq("ns.db", entry.getKey()),
+            Filters.in("ns.coll", unfiltered)));
+      }
+    }
+    List<Bson> pipeline = new ArrayList<>();
+    pipeline.add(Aggregates.match(Filters.or(perDatabase)));
+    return pipeline;
+  }
+
+  /**
+   * Rewrites a collection filter to match the same fields below the given prefix.
+   *
+   * @throws IllegalArgumentException for top-level operators other than $and, $or and $nor
+   */
+  public static BsonDocument prefix(BsonDocument filter, String prefix) {
+    BsonDocument prefixed = new BsonDocument();
+    for (Map.Entry<String, BsonValue> entry : filter.entrySet()) {
+      String key = entry.getKey();
+      if ("$and".equals(key) || "$or".equals(key) || "$nor".equals(key)) {
+        BsonArray clauses = new BsonArray();
+        for (BsonValue clause : entry.getValue().asArray()) {
+          clauses.add(prefix(clause.asDocument(), prefix));
+        }
+        prefixed.append(key, clauses);
+      } else if (key.startsWith("$")) {
+        throw new IllegalArgumentException(
+            "Operator " + key + " is not supported in filters used by the change stream");
+      } else {
+        prefixed.append(prefix + key, entry.getValue());
+      }
+    }
+    return prefixed;
+  }
+
+  /**
+   * Full documents are kept as raw BSON, sized without re-encoding and decoded by the lanes.
+   */
+  private ChangeStreamIterable<RawBsonDocument> openStream() {
+    List<Bson> pipeline = buildPipeline();
+    ChangeStreamIterable<RawBsonDocument> stream = database == null
+        ? sourceClient.watch(pipeline, RawBsonDocument.class)
+        : sourceClient.getDatabase(database).watch(pipeline, RawBsonDocument.class);
+
+    stream = stream
+        .fullDocument(FullDocument.UPDATE_LOOKUP)
+        .batchSize(config.getBatchSize())
+        .maxAwaitTime(config.getMaxAwaitTimeMillis(), TimeUnit.MILLISECONDS);
+
+    BsonDocument resumeToken = checkpointStore.load(checkpointId);
+    if (resumeToken != null) {
+      logger.info("[{}] Resuming change stream from checkpoint", progress.getName());
+      return stream.startAfter(resumeToken);
+    }
+    logger.info("[{}] Starting change stream at operation time {}", progress.getName(), startAt);
+    return stream.startAtOperationTime(startAt);
+  }
+
+  @Override
+  public void run() {
+    long idleLimitNanos = TimeUnit.SECONDS.toNanos(config.getStopAfterIdleSeconds());
+    long checkpointNanos = TimeUnit.MILLISECONDS.toNanos(config.getCheckpointIntervalMillis());
+    long lastEventNanos = System.nanoTime();
+    long lastCheckpointNanos = System.nanoTime();
+    long dispatchedSinceCheckpoint = 0;
+    BsonTimestamp lastClusterTime = startAt;
+
+    try (MongoChangeStreamCursor<ChangeStreamDocument<RawBsonDocument>> cursor =
+        openStream().cursor()) {
+      while (running) {
+        ChangeStreamDocument<RawBsonDocument> event = cursor.tryNext();
+        long now = System.nanoTime();
+
+        if (event != null) {
+          lanes.dispatch(event);
+          dispatchedSinceCheckpoint++;
+          lastEventNanos = now;
+          if (event.getClusterTime() != null) {
+            lastClusterTime = event.getClusterTime();
+          }
+        }
+
+        if (dispatchedSinceCheckpoint > 0
+            && (event == null || now - lastCheckpointNanos >= checkpointNanos)) {
+          lanes.flushAll();
+          checkpointStore.save(checkpointId, cursor.getResumeToken(), lastClusterTime);
+          dispatchedSinceCheckpoint = 0;
+          lastCheckpointNanos = now;
+        }
+
+        if (event == null) {
+          progress.caughtUp();
+          if (idleLimitNanos > 0 && now - lastEventNanos >= idleLimitNanos) {
+            logger.info("[{}] No change for {}s, stopping", progress.getName(),
+                config.getStopAfterIdleSeconds());
+            running = false;
+          }
+        }
+      }
+
+      lanes.flushAll();
+      checkpointStore.save(checkpointId, cursor.getResumeToken(), lastClusterTime);
+      progress.stop();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      progress.fail();
+      logger.warn("[{}] Change stream interrupted before the last checkpoint", progress.getName());
+    } catch (RuntimeException e) {
+      progress.fail();
+      logger.error("[{}] Change stream failed: {}", progress.getName(), e.getMessage(), e);
+      throw e;
+    } finally {
+      lanes.close();
+    }
+  }
+}
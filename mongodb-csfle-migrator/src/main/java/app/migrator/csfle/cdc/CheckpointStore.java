@@ -0,0 +1,53 @@
+package app.migrator.csfle.cdc;
+
+import java.util.Date;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+
+import app.migrator.csfle.config.Configuration.ChangeStreamConfig;
+
+/**
+ * Stores change stream resume tokens on the target so a restarted run continues where the
+ * previous one stopped.
+ */
+public class CheckpointStore {
+  private final MongoCollection<Document> collection;
+
+  public CheckpointStore(MongoClient targetClient, ChangeStreamConfig config) {
+    this.collection = targetClient
+        .getDatabase(config.getCheckpointDatabase())
+        .getCollection(config.getCheckpointCollection());
+  }
+
+  /**
+   * @param id checkpoint id, e.g. migrationName:database
+   * @return stored resume token, or null if none
+   */
+  public BsonDocument load(String id) {
+    Document checkpoint = collection.find(Filters.eq("_id", id)).first();
+    if (checkpoint == null || checkpoint.get("resumeToken") == null) {
+      return null;
+    }
+    return checkpoint.get("resumeToken", Document.class).toBsonDocument();
+  }
+
+  public void save(String id, BsonDocument resumeToken, BsonTimestamp clusterTime) {
+    if (resumeToken == null) {
+      return;
+    }
+    collection.replaceOne(
+        Filters.eq("_id", id),
+        new Document("_id", id)
+            .append("resumeToken", resumeToken)
+            .append("clusterTime", clusterTime)
+            .append("updatedAt", new Date()),
+        new ReplaceOptions().upsert(true));
+  }
+}
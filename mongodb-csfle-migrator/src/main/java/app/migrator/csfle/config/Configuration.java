@@ -2,8 +2,13 @@ package app.migrator.csfle.config;
 
 import java.io.File;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.Document;
+
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -14,9 +19,17 @@ import lombok.Data;
 public class Configuration {
   private String sourceMongoDBUri;
   private String targetMongoDBUri;
+  // mongodump archive (optionally gzipped) or dump directory read instead of sourceMongoDBUri
+  private String sourceDumpPath;
 
   private WorkerConfig worker = new WorkerConfig();
   private EncryptionConfig encryption = new EncryptionConfig();
+  private SourceReadConfig sourceRead = new SourceReadConfig();
+  private ChangeStreamConfig changeStream = new ChangeStreamConfig();
+  private IndexConfig indexes = new IndexConfig();
+  private ShardingConfig sharding = new ShardingConfig();
+  private ExportConfig export = new ExportConfig();
+  private CoordinatorConfig coordinator = new CoordinatorConfig();
 
   private SchemaConfiguration schema;
   private String schemaFilePath = "schema.json";
@@ -27,14 +40,125 @@ public class Configuration {
 
   @Data
   public static class WorkerConfig {
-    private int maxThreads = 10;
+    // maxThreads, maxBatchSize and the read limits can be changed at runtime through JMX
+    private volatile int maxThreads = 10;
     private int maxQueueSize = 1000;
-    private int maxBatchSize = 100;
+    private volatile int maxBatchSize = 100;
+    private volatile int maxReadDocsPerSecond = 0; // 0 = unlimited
+    private volatile long maxReadBytesPerSecond = 0; // 0 = unlimited
+    private volatile int readLatencyThresholdMillis = 0; // 0 = no adaptive throttling
+    // Bytes of documents held in memory by all batches and change event lanes, 0 = half the heap
+    private long maxInFlightBytes = 0;
+    // Local directory for documents over the in-flight budget, null = flush partial batches
+    private String spillDirectory;
     private int maxBatchWaitTime = 1000; // in millisecondsprivate int maxBatchSize = 100;
     private int retryDelay = 1000; // in milliseconds
     private boolean enableLogging = true;
   }
 
+  @Data
+  public static class SourceReadConfig {
+    // primary, primaryPreferred, secondary, secondaryPreferred or nearest
+    private String readPreference;
+    // e.g. [{ "nodeType": "ANALYTICS" }], tried in order
+    private List<Map<String, String>> readPreferenceTags;
+    private Integer maxStalenessSeconds;
+    // local, available, majority, linearizable; ignored for snapshot reads
+    private String readConcern;
+    // Point-in-time reads, each task pinned at its first read (MongoDB 5.0+)
+    private boolean snapshot = false;
+    // Pins every task to this one cluster time instead, the source must keep history back to it
+    // for the whole run
+    private ClusterTime atClusterTime;
+    // Longest a task reads from one snapshot before moving on to a new one, resolved from the
+    // source's minSnapshotHistoryWindowInSeconds at startup when not set
+    private Integer snapshotWindowSeconds;
+  }
+
+  @Data
+  public static class ChangeStreamConfig {
+    // Keep applying source writes to the target after the bulk copy
+    private boolean enabled = false;
+    // "database": one change stream per source database, "cluster": a single stream
+    private String scope = "database";
+    private int batchSize = 500;
+    private int maxBatchWaitMillis = 500;
+    // Parallel apply lanes per stream, events are hashed by documentKey
+    private int lanes = 4;
+    private int checkpointIntervalMillis = 1000;
+    private int maxAwaitTimeMillis = 1000;
+    private int lagReportIntervalSeconds = 10;
+    // Stop once no event arrived for this long, 0 = run until the process is stopped
+    private int stopAfterIdleSeconds = 0;
+    // Resume tokens are stored on the target, keyed by migrationName or the namespaces
+    private String checkpointDatabase = "csfle_migrator";
+    private String checkpointCollection = "cdcCheckpoints";
+  }
+
+  @Data
+  public static class IndexConfig {
+    // Copy source secondary indexes to the target after the bulk load
+    private boolean enabled = true;
+  }
+
+  @Data
+  public static class ShardingConfig {
+    // Shard the target collections and spread pre-split chunks over all shards before loading
+    private boolean preSplitTarget = false;
+    // Target shard key per database.collection, {"_id": 1} when not listed
+    private Map<String, Map<String, Object>> shardKeys = new HashMap<>();
+    private int chunksPerShard = 4;
+    // Source documents sampled per chunk to place the split points
+    private int samplesPerChunk = 100;
+    // Copy sharded source collections as one task per shard-owned chunk range
+    private boolean partitionSourceByChunks = false;
+    // Ranges of one source shard read at the same time
+    private int perShardConcurrency = 2;
+
+    public BsonDocument getShardKeyFor(String namespace) {
+      Map<String, Object> key = shardKeys.get(namespace);
+      return key == null
+          ? new BsonDocument("_id", new BsonInt32(1))
+          : new Document(key).toBsonDocument();
+    }
+  }
+
+  @Data
+  public static class ExportConfig {
+    // Write encrypted chunk files here instead of the target cluster, set by migrate --to-file
+    private String directory;
+    // Uncompressed BSON bytes per chunk file
+    private long chunkSizeBytes = 256L * 1024 * 1024;
+    // Direct buffer each chunk is written through
+    private int bufferSizeBytes = 8 * 1024 * 1024;
+    // "gzip" or "none"
+    private String compression = "gzip";
+    private int compressionLevel = 1;
+  }
+
+  @Data
+  public static class CoordinatorConfig {
+    // Share the copy with other migrator processes through this plan, set by migrate --coordinator
+    private String planId;
+    // Name of this process in the plan, host:pid when not set
+    private String workerId;
+    // A partition whose lease was not renewed for this long is claimed again by another process
+    private int leaseSeconds = 60;
+    private int heartbeatSeconds = 10;
+    // Claims of one partition before it is marked failed
+    private int maxAttempts = 3;
+    // Plans and partitions are stored on the target
+    private String database = "csfle_migrator";
+    private String planCollection = "plans";
+    private String partitionCollection = "partitions";
+  }
+
+  @Data
+  public static class ClusterTime {
+    private int t;
+    private int i;
+  }
+
   @Data
   public class EncryptionConfig {
     private String keyVaultDb = "encryption";
@@ -60,6 +184,16 @@ public class Configuration {
     private String trustStorePassword;
     private String keyStoreType;
     private String trustStoreType;
+
+    // Independent auto encrypting clients, each with its own crypt context and connection pool
+    private int cryptClients = 1;
+
+    // Fetch and unwrap every data key of the schema before the first batch
+    private boolean warmUpDataKeys = true;
+    private int warmUpParallelism = 4;
+    // Re-warm once the auto encryption key cache (60 s after a fetch) has expired, counted from the
+    // end of the previous warm-up, 0 to warm once
+    private int dataKeyRefreshSeconds = 61;
   }
 
   public static Configuration load(String configPath) {
@@ -89,6 +223,8 @@ public class Configuration {
       defaultConfig.setSourceMongoDBUri(userConfig.getSourceMongoDBUri());
     if (userConfig.getTargetMongoDBUri() != null)
       defaultConfig.setTargetMongoDBUri(userConfig.getTargetMongoDBUri());
+    if (userConfig.getSourceDumpPath() != null)
+      defaultConfig.setSourceDumpPath(userConfig.getSourceDumpPath());
     // if (userConfig.getCollectionPrefix() != null)
     //   defaultConfig.setCollectionPrefix(userConfig.getCollectionPrefix());
 
@@ -125,8 +261,25 @@ public class Configuration {
         defaultEnc.setTrustStorePassword(userEnc.getTrustStorePassword());
       if (userEnc.getTrustStoreType() != null)
         defaultEnc.setTrustStoreType(userEnc.getTrustStoreType());
+      defaultEnc.setCryptClients(userEnc.getCryptClients());
+      defaultEnc.setWarmUpDataKeys(userEnc.isWarmUpDataKeys());
+      defaultEnc.setWarmUpParallelism(userEnc.getWarmUpParallelism());
+      defaultEnc.setDataKeyRefreshSeconds(userEnc.getDataKeyRefreshSeconds());
     }
 
+    if (userConfig.getSourceRead() != null)
+      defaultConfig.setSourceRead(userConfig.getSourceRead());
+    if (userConfig.getChangeStream() != null)
+      defaultConfig.setChangeStream(userConfig.getChangeStream());
+    if (userConfig.getIndexes() != null)
+      defaultConfig.setIndexes(userConfig.getIndexes());
+    if (userConfig.getSharding() != null)
+      defaultConfig.setSharding(userConfig.getSharding());
+    if (userConfig.getExport() != null)
+      defaultConfig.setExport(userConfig.getExport());
+    if (userConfig.getCoordinator() != null)
+      defaultConfig.setCoordinator(userConfig.getCoordinator());
+
     // Merge worker config
     if (userConfig.getWorker() != null) {
       WorkerConfig defaultWorker = defaultConfig.getWorker();
@@ -136,18 +289,46 @@ public class Configuration {
       defaultWorker.setMaxQueueSize(userWorker.getMaxQueueSize());
       defaultWorker.setMaxBatchSize(userWorker.getMaxBatchSize());
       defaultWorker.setMaxBatchWaitTime(userWorker.getMaxBatchWaitTime());
+      defaultWorker.setMaxReadDocsPerSecond(userWorker.getMaxReadDocsPerSecond());
+      defaultWorker.setMaxReadBytesPerSecond(userWorker.getMaxReadBytesPerSecond());
+      defaultWorker.setReadLatencyThresholdMillis(userWorker.getReadLatencyThresholdMillis());
+      defaultWorker.setMaxInFlightBytes(userWorker.getMaxInFlightBytes());
+      defaultWorker.setSpillDirectory(userWorker.getSpillDirectory());
       defaultWorker.setRetryDelay(userWorker.getRetryDelay());
       defaultWorker.setEnableLogging(userWorker.isEnableLogging());
     }
   }
 
   private static void validateConfiguration(Configuration config) {
-    if (config.getSourceMongoDBUri() == null) {
-      throw new IllegalArgumentException("sourceMongoDBUri is required");
-    }
+    // sourceMongoDBUri is checked where a source cluster is read, a dump path can replace it
     if (config.getTargetMongoDBUri() == null) {
       throw new IllegalArgumentException("targetMongoDBUri is required");
     }
+    SourceReadConfig sourceRead = config.getSourceRead();
+    if (sourceRead.isSnapshot() && sourceRead.getReadConcern() != null
+        && !sourceRead.getReadConcern().equals("snapshot")) {
+      throw new IllegalArgumentException("sourceRead.readConcern cannot be combined with snapshot reads");
+    }
+    String compression = config.getExport().getCompression();
+    if (!"gzip".equals(compression) && !"none".equals(compression)) {
+      throw new IllegalArgumentException("export.compression must be 'gzip' or 'none'");
+    }
+    CoordinatorConfig coordinator = config.getCoordinator();
+    if (coordinator.getHeartbeatSeconds() <= 0
+        || coordinator.getLeaseSeconds() <= coordinator.getHeartbeatSeconds()) {
+      throw new IllegalArgumentException(
+          "coordinator.leaseSeconds must be greater than coordinator.heartbeatSeconds");
+    }
+    String scope = config.getChangeStream().getScope();
+    if (!"database".equals(scope) && !"cluster".equals(scope)) {
+      throw new IllegalArgumentException("changeStream.scope must be 'database' or 'cluster'");
+    }
+    int refreshSeconds = config.getEncryption().getDataKeyRefreshSeconds();
+    if (refreshSeconds > 0 && refreshSeconds <= 60) {
+      // Keys are still cached then, the warm-up would not fetch anything
+      throw new IllegalArgumentException("encryption.dataKeyRefreshSeconds must be 0 or more than "
+          + "the 60 s key cache expiry");
+    }
     if (config.getEncryption().getKmsProvider().equals("local") && config.getEncryption().getMasterKeyFilePath() == null) {
       throw new IllegalArgumentException("encryption.masterKeyFilePath is required");
     }
@@ -159,6 +340,11 @@ public class Configuration {
       throw new IllegalArgumentException("encryption.cryptSharedLibPath is required");
     }
 
+    // Client certificates are only used for the KMIP connection
+    if (!config.getEncryption().getKmsProvider().equals("kmip")) {
+      return;
+    }
+
     if (config.getEncryption().getKeyStorePath() == null) {
       throw new IllegalArgumentException("encryption.keyStorePath is required");
     }
@@ -179,6 +365,16 @@ public class Configuration {
     }
   }
 
+  /**
+   * @return source URI, for the commands that read a source cluster
+   */
+  public String requireSourceMongoDBUri() {
+    if (sourceMongoDBUri == null) {
+      throw new IllegalArgumentException("sourceMongoDBUri is required");
+    }
+    return sourceMongoDBUri;
+  }
+
   public Configuration loadSchema() {
     return loadSchema(this.schemaFilePath);
   }
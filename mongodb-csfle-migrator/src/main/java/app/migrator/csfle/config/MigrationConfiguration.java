@@ -1,15 +1,163 @@
 package app.migrator.csfle.config;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Map;
 import lombok.Data;
 import java.util.List;
 
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoNamespace;
+
 @Data
 public class MigrationConfiguration {
   private Map<String, List<String>> targetToMigrate;
+  // Namespace patterns discovered on the source, added to targetToMigrate, e.g. "app_*.*"
+  private List<String> include = new ArrayList<>();
+  // e.g. "*.tmp_*" or "/^app_test\\./", admin/local/config and system collections are never migrated
+  private List<String> exclude = new ArrayList<>();
+  private int discoveryThreads = 8;
+  // Collections larger than this are copied as several _id ranges in parallel, 0 to disable
+  private long partitionSizeBytes = 0;
+  private int maxPartitionsPerCollection = 64;
+  // Load into a staging collection, then swap it in place of the target with a rename
   private boolean dropCollectionOnTarget = false;
+  private String stagingSuffix = "__csfle_staging";
 
-  private String migrationName = "Migration_" + System.currentTimeMillis();
+  // Keys the change stream checkpoints, derived from the migrated namespaces when not set
+  private String migrationName;
   private int migrationVersion;
   private String migrationDescription;
+
+  private DeltaConfig delta = new DeltaConfig();
+
+  // Per source database.collection: target renaming, filter and projection
+  private Map<String, NamespaceOptions> namespaces = new HashMap<>();
+
+  public NamespaceOptions getNamespaceOptions(String database, String collection) {
+    NamespaceOptions options = namespaces.get(database + "." + collection);
+    return options == null ? new NamespaceOptions() : options;
+  }
+
+  /**
+   * @return live target namespace of a source collection, after renaming
+   */
+  public MongoNamespace getTargetNamespace(String database, String collection) {
+    NamespaceOptions options = getNamespaceOptions(database, collection);
+    return new MongoNamespace(
+        options.getTargetDatabase() != null ? options.getTargetDatabase() : database,
+        options.getTargetCollection() != null ? options.getTargetCollection() : collection);
+  }
+
+  /**
+   * @return namespace the documents of a source collection are written to, the staging collection
+   *     of its target when dropCollectionOnTarget is set
+   */
+  public MongoNamespace getWriteNamespace(String database, String collection) {
+    MongoNamespace target = getTargetNamespace(database, collection);
+    return dropCollectionOnTarget
+        ? new MongoNamespace(target.getDatabaseName(), getStagingCollection(target.getCollectionName()))
+        : target;
+  }
+
+  public String getStagingCollection(String collection) {
+    return collection + stagingSuffix;
+  }
+
+  @Data
+  public static class NamespaceOptions {
+    private String targetDatabase;
+    private String targetCollection;
+    // Query filter in extended JSON, e.g. {"status": "active"}
+    private Map<String, Object> filter;
+    // Inclusion or exclusion of fields, e.g. {"legacyNotes": 0}
+    private Map<String, Object> projection;
+
+    /**
+     * @return parsed filter, null to read every document
+     */
+    public BsonDocument parseFilter() {
+      return parse(filter, "filter");
+    }
+
+    /**
+     * @return parsed projection, null to keep every field
+     * @throws IllegalArgumentException if a field is not simply included or excluded, as change
+     *     events are projected client side, or if _id is excluded, as the target is upserted and
+     *     paged by _id
+     */
+    public BsonDocument parseProjection() {
+      BsonDocument parsed = parse(projection, "projection");
+      if (parsed != null) {
+        for (Map.Entry<String, BsonValue> field : parsed.entrySet()) {
+          BsonValue value = field.getValue();
+          boolean flag = value.isBoolean()
+              || (value.isNumber() && (value.asNumber().intValue() == 0 || value.asNumber().intValue() == 1));
+          if (!flag) {
+            throw new IllegalArgumentException(
+                "projection." + field.getKey() + " must be 0/1 or true/false");
+          }
+          if ("_id".equals(field.getKey()) && !isIncluded(value)) {
+            throw new IllegalArgumentException("projection cannot exclude _id");
+          }
+        }
+      }
+      return parsed;
+    }
+
+    /**
+     * @return true if the projection keeps the whole value of the field, e.g. the delta field
+     *     batches are paged on
+     */
+    public boolean keepsField(String path) {
+      BsonDocument parsed = parseProjection();
+      if (parsed == null || "_id".equals(path)) {
+        return true;
+      }
+      boolean inclusion = false;
+      for (Map.Entry<String, BsonValue> field : parsed.entrySet()) {
+        boolean included = isIncluded(field.getValue());
+        if (path.equals(field.getKey()) || path.startsWith(field.getKey() + ".")) {
+          return included;
+        }
+        inclusion |= included && !"_id".equals(field.getKey());
+      }
+      return !inclusion;
+    }
+
+    private static boolean isIncluded(BsonValue value) {
+      return value.isBoolean() ? value.asBoolean().getValue() : value.asNumber().intValue() == 1;
+    }
+
+    private static BsonDocument parse(Map<String, Object> value, String name) {
+      if (value == null || value.isEmpty()) {
+        return null;
+      }
+      try {
+        return BsonDocument.parse(new ObjectMapper().writeValueAsString(value));
+      } catch (JsonProcessingException | RuntimeException e) {
+        throw new IllegalArgumentException("Invalid " + name + ": " + value, e);
+      }
+    }
+  }
+
+  @Data
+  public static class DeltaConfig {
+    // Only migrate documents past the high-water mark stored by the previous run
+    private boolean enabled = false;
+    // Monotonic field compared against the watermark, e.g. _id (ObjectId), createdAt, updatedAt
+    private String field = "_id";
+    // Per-namespace override of field, keyed by database.collection
+    private Map<String, String> fields = new HashMap<>();
+    private String watermarkDatabase = "csfle_migrator";
+    private String watermarkCollection = "watermarks";
+
+    public String getFieldFor(String namespace) {
+      return fields.getOrDefault(namespace, field);
+    }
+  }
 }
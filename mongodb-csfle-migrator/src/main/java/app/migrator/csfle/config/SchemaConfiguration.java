@@ -1,92 +1,337 @@
 package app.migrator.csfle.config;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonBinarySubType;
 import org.bson.BsonDocument;
+import org.bson.BsonValue;
 import org.bson.Document;
-import com.fasterxml.jackson.core.type.TypeReference;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+
 import lombok.AccessLevel;
 import lombok.Data;
 import lombok.Getter;
 import lombok.Setter;
 
+/**
+ * Registry of the CSFLE JSON schemas by namespace.
+ *
+ * <p>The raw schema file is parsed once, on first use, into an unmodifiable map shared by every
+ * component, together with an index of the encrypted paths of each namespace. The returned
+ * schemas must be treated as read-only. {@link #validate()} checks key ids, algorithms and bson
+ * types, and is run once before a migration starts.
+ */
 @Data
 public class SchemaConfiguration {
+  public static final String DETERMINISTIC = "AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic";
+  public static final String RANDOM = "AEAD_AES_256_CBC_HMAC_SHA_512-Random";
+
+  private static final Set<String> BSON_TYPES = new HashSet<>(Arrays.asList(
+      "double", "string", "object", "array", "binData", "objectId", "bool", "date", "null",
+      "regex", "dbPointer", "javascript", "symbol", "javascriptWithScope", "int", "timestamp",
+      "long", "decimal", "minKey", "maxKey", "undefined"));
+  private static final Set<String> NEVER_ENCRYPTED =
+      new HashSet<>(Arrays.asList("minKey", "maxKey", "null", "undefined"));
+  private static final Set<String> NOT_DETERMINISTIC = new HashSet<>(Arrays.asList(
+      "double", "decimal", "bool", "object", "array", "javascriptWithScope"));
+
   /**
-   * The schema configuration for the MongoDB Encryption Schema
-   * @param namespace The namespace of the collection
-   * @param schema The encrypt schema of the collection
+   * Schema file content, namespace to schema as parsed by Jackson.
    */
+  private Map<String, Object> schemasObject;
+
   @Setter(AccessLevel.NONE)
   @Getter(AccessLevel.NONE)
-  private HashMap</* namespace */ String, BsonDocument> schemas;
+  private volatile Map</* namespace */ String, BsonDocument> schemas;
 
-  private Map<String, Object> schemasObject;
+  // Namespace -> encrypted path -> algorithm
+  @Setter(AccessLevel.NONE)
+  @Getter(AccessLevel.NONE)
+  private volatile Map<String, Map<String, String>> encryptedFields;
+
+  // Every data key UUID referenced by the schemas, JSON pointer keyIds excluded
+  @Setter(AccessLevel.NONE)
+  @Getter(AccessLevel.NONE)
+  private volatile Set<BsonBinary> keyIds;
+
+  public void setSchemasObject(Map<String, Object> schemasObject) {
+    synchronized (this) {
+      this.schemasObject = schemasObject;
+      this.schemas = null;
+      this.encryptedFields = null;
+      this.keyIds = null;
+    }
+  }
+
+  /**
+   * @return unmodifiable map of namespace to schema, parsed on first call
+   */
+  public Map<String, BsonDocument> getSchemas() {
+    Map<String, BsonDocument> parsed = schemas;
+    if (parsed == null) {
+      synchronized (this) {
+        if (schemas == null) {
+          parse();
+        }
+        parsed = schemas;
+      }
+    }
+    return parsed;
+  }
 
-  // public Document getSchemas() {
-  //   ObjectMapper mapper = new ObjectMapper();
-  //   Map<String, Object> schemaMap = mapper.convertValue(
-  //     schemas,
-  //     new TypeReference<Map<String, Object>>() {}
-  //   );
+  /**
+   * @return schema of the namespace, null if the collection is not encrypted
+   */
+  public BsonDocument getSchema(String namespace) {
+    return getSchemas().get(namespace);
+  }
 
-  //   return new Document(schemaMap);
-  // }
+  /**
+   * @return encrypted paths of the namespace mapped to their algorithm, empty if not encrypted
+   */
+  public Map<String, String> getEncryptedFields(String namespace) {
+    getSchemas();
+    return encryptedFields.getOrDefault(namespace, Collections.emptyMap());
+  }
 
-  public HashMap<String, BsonDocument> getSchemas() {
+  /**
+   * @return data key ids referenced by any schema, e.g. to warm the key cache
+   */
+  public Set<BsonBinary> getKeyIds() {
+    getSchemas();
+    return keyIds;
+  }
+
+  public Document getSchemaAsDocument(String namespace) {
+    BsonDocument schema = getSchema(namespace);
+    if (schema == null) {
+      throw new IllegalArgumentException("Invalid schema type for namespace: " + namespace);
+    }
+    return new Document(namespace, Document.parse(schema.toJson()));
+  }
+
+  private void parse() {
     ObjectMapper mapper = new ObjectMapper();
-    HashMap<String, BsonDocument> converted = new HashMap<>();
+    Map<String, BsonDocument> parsed = new LinkedHashMap<>();
+    Map<String, Map<String, String>> fields = new HashMap<>();
+    Set<BsonBinary> ids = new LinkedHashSet<>();
+
+    if (schemasObject != null) {
+      for (Map.Entry<String, Object> entry : schemasObject.entrySet()) {
+        BsonDocument schema;
+        try {
+          // Extended JSON ($binary keyIds) is kept as is and read by the BSON parser
+          schema = BsonDocument.parse(mapper.writeValueAsString(entry.getValue()));
+        } catch (JsonProcessingException | RuntimeException e) {
+          throw new IllegalArgumentException("Invalid schema for namespace: " + entry.getKey(), e);
+        }
+        parsed.put(entry.getKey(), schema);
+
+        Map<String, String> encrypted = new HashMap<>();
+        collectEncryptedFields(schema, "", null, encrypted);
+        fields.put(entry.getKey(), Collections.unmodifiableMap(encrypted));
+        collectKeyIds(schema, ids);
+      }
+    }
+    this.keyIds = Collections.unmodifiableSet(ids);
+    this.encryptedFields = Collections.unmodifiableMap(fields);
+    this.schemas = Collections.unmodifiableMap(parsed);
+  }
 
-    for (Map.Entry<String, Object> entry : schemasObject.entrySet()) {
-        // Convert Object to Document
-        Document document = mapper.convertValue(entry.getValue(), Document.class);
+  private static void collectEncryptedFields(BsonDocument node, String prefix,
+      String inheritedAlgorithm, Map<String, String> fields) {
+    String algorithm = stringOf(node.getDocument("encryptMetadata", null), "algorithm",
+        inheritedAlgorithm);
+    BsonDocument properties = node.getDocument("properties", null);
+    if (properties == null) {
+      return;
+    }
+    for (Map.Entry<String, BsonValue> entry : properties.entrySet()) {
+      if (!entry.getValue().isDocument()) {
+        continue;
+      }
+      BsonDocument child = entry.getValue().asDocument();
+      String path = prefix.isEmpty() ? entry.getKey() : prefix + "." + entry.getKey();
+      if (child.containsKey("encrypt")) {
+        fields.put(path, stringOf(child.getDocument("encrypt"), "algorithm", algorithm));
+      } else {
+        collectEncryptedFields(child, path, algorithm, fields);
+      }
+    }
+  }
 
-        // Convert Document to BsonDocument
-        BsonDocument bsonDocument = BsonDocument.parse(document.toJson());
+  private static void collectKeyIds(BsonValue node, Set<BsonBinary> ids) {
+    if (node.isArray()) {
+      for (BsonValue value : node.asArray()) {
+        collectKeyIds(value, ids);
+      }
+    } else if (node.isDocument()) {
+      for (Map.Entry<String, BsonValue> entry : node.asDocument().entrySet()) {
+        if ("keyId".equals(entry.getKey()) && entry.getValue().isArray()) {
+          for (BsonValue keyId : entry.getValue().asArray()) {
+            if (keyId.isBinary()) {
+              ids.add(keyId.asBinary());
+            }
+          }
+        } else {
+          collectKeyIds(entry.getValue(), ids);
+        }
+      }
+    }
+  }
 
-        converted.put(entry.getKey(), bsonDocument);
+  /**
+   * Checks every namespace and encrypted field of the schema file.
+   *
+   * @throws IllegalArgumentException listing every problem found
+   */
+  public void validate() {
+    List<String> errors = new ArrayList<>();
+    for (Map.Entry<String, BsonDocument> entry : getSchemas().entrySet()) {
+      String namespace = entry.getKey();
+      int dot = namespace.indexOf('.');
+      if (dot <= 0 || dot == namespace.length() - 1) {
+        errors.add(namespace + ": namespace must be <database>.<collection>");
+      }
+      validateNode(namespace, entry.getValue(), "", null, null, errors);
+    }
+    if (!errors.isEmpty()) {
+      throw new IllegalArgumentException("Invalid encryption schema:\n  " + String.join("\n  ", errors));
+    }
+  }
+
+  private static void validateNode(String namespace, BsonDocument node, String path,
+      BsonValue inheritedKeyId, String inheritedAlgorithm, List<String> errors) {
+    BsonDocument metadata = node.getDocument("encryptMetadata", null);
+    BsonValue keyId = metadata != null && metadata.containsKey("keyId")
+        ? metadata.get("keyId")
+        : inheritedKeyId;
+    String algorithm = stringOf(metadata, "algorithm", inheritedAlgorithm);
+    String where = namespace + (path.isEmpty() ? "" : " " + path);
+    if (metadata != null) {
+      validateKeyId(where, metadata.get("keyId"), errors);
+      validateAlgorithm(where, metadata.get("algorithm"), errors);
     }
 
-    return converted;
+    BsonDocument properties = node.getDocument("properties", null);
+    if (properties == null) {
+      return;
+    }
+    for (Map.Entry<String, BsonValue> entry : properties.entrySet()) {
+      String childPath = path.isEmpty() ? entry.getKey() : path + "." + entry.getKey();
+      if (!entry.getValue().isDocument()) {
+        errors.add(namespace + " " + childPath + ": property schema must be a document");
+        continue;
+      }
+      BsonDocument child = entry.getValue().asDocument();
+      if (child.containsKey("encrypt")) {
+        validateEncrypt(namespace + " " + childPath, child.get("encrypt"), keyId, algorithm, errors);
+      } else {
+        validateNode(namespace, child, childPath, keyId, algorithm, errors);
+      }
+    }
   }
 
-  public Document getSchemaAsDocument(String namespace) {
-    Object schema = schemas.get(namespace);
-
-    if (schema instanceof Map) {
-      // If the schema is a map, convert it to a Document
-      ObjectMapper mapper = new ObjectMapper();
-      Map<String, Object> schemaMap = mapper.convertValue(
-        schema,
-        new TypeReference<Map<String, Object>>() {}
-      );
-
-      return new Document(namespace, new Document(schemaMap));
-    } else {
-      throw new IllegalArgumentException("Invalid schema type for namespace: " + namespace);
+  private static void validateEncrypt(String where, BsonValue value, BsonValue inheritedKeyId,
+      String inheritedAlgorithm, List<String> errors) {
+    if (!value.isDocument()) {
+      errors.add(where + ": encrypt must be a document");
+      return;
+    }
+    BsonDocument encrypt = value.asDocument();
+    validateKeyId(where, encrypt.get("keyId"), errors);
+    validateAlgorithm(where, encrypt.get("algorithm"), errors);
+
+    BsonValue keyId = encrypt.containsKey("keyId") ? encrypt.get("keyId") : inheritedKeyId;
+    String algorithm = stringOf(encrypt, "algorithm", inheritedAlgorithm);
+    if (keyId == null) {
+      errors.add(where + ": no keyId, set it on the field or in encryptMetadata");
+    }
+    if (algorithm == null) {
+      errors.add(where + ": no algorithm, set it on the field or in encryptMetadata");
+    }
+
+    BsonValue bsonType = encrypt.get("bsonType");
+    List<String> types = new ArrayList<>();
+    if (bsonType != null && bsonType.isString()) {
+      types.add(bsonType.asString().getValue());
+    } else if (bsonType != null && bsonType.isArray()) {
+      for (BsonValue type : bsonType.asArray()) {
+        types.add(type.isString() ? type.asString().getValue() : type.toString());
+      }
+    } else if (bsonType != null) {
+      errors.add(where + ": bsonType must be a string or an array of strings");
+    }
+    for (String type : types) {
+      if (!BSON_TYPES.contains(type)) {
+        errors.add(where + ": unknown bsonType '" + type + "'");
+      } else if (NEVER_ENCRYPTED.contains(type)) {
+        errors.add(where + ": bsonType '" + type + "' cannot be encrypted");
+      }
+    }
+
+    if (DETERMINISTIC.equals(algorithm)) {
+      if (types.size() != 1) {
+        errors.add(where + ": deterministic encryption requires exactly one bsonType");
+      } else if (NOT_DETERMINISTIC.contains(types.get(0))) {
+        errors.add(where + ": bsonType '" + types.get(0) + "' requires the Random algorithm");
+      }
+      if (keyId != null && keyId.isString()) {
+        errors.add(where + ": a keyId JSON pointer requires the Random algorithm");
+      }
+    }
+  }
+
+  private static void validateKeyId(String where, BsonValue keyId, List<String> errors) {
+    if (keyId == null) {
+      return;
+    }
+    // A JSON pointer to a field holding the keyAltName
+    if (keyId.isString()) {
+      if (!keyId.asString().getValue().startsWith("/")) {
+        errors.add(where + ": keyId string must be a JSON pointer starting with '/'");
+      }
+      return;
+    }
+    if (!keyId.isArray() || keyId.asArray().size() != 1) {
+      errors.add(where + ": keyId must be an array holding one UUID");
+      return;
+    }
+    BsonValue uuid = ((BsonArray) keyId).get(0);
+    if (!uuid.isBinary()
+        || ((BsonBinary) uuid).getType() != BsonBinarySubType.UUID_STANDARD.getValue()
+        || ((BsonBinary) uuid).getData().length != 16) {
+      errors.add(where + ": keyId must be a 16 byte binary of subtype 04");
+    }
+  }
+
+  private static void validateAlgorithm(String where, BsonValue algorithm, List<String> errors) {
+    if (algorithm == null) {
+      return;
+    }
+    if (!algorithm.isString() || !(DETERMINISTIC.equals(algorithm.asString().getValue())
+        || RANDOM.equals(algorithm.asString().getValue()))) {
+      errors.add(where + ": algorithm must be " + DETERMINISTIC + " or " + RANDOM);
+    }
+  }
+
+  private static String stringOf(BsonDocument document, String key, String defaultValue) {
+    if (document == null || !document.isString(key)) {
+      return defaultValue;
     }
-    // if (schema instanceof String) {
-    //   // If the schema is a string, parse it as a JSON string
-    //   try {
-    //     return mapper.readValue((String) schema, Document.class);
-    //   } catch (Exception e) {
-    //     throw new IllegalArgumentException("Invalid schema format for namespace: " + namespace, e);
-    //   }
-    // } else if (schema instanceof Map) {
-    //   // If the schema is a map, convert it to a Document
-    //   return new Document((Map<String, Object>) schema);
-    // } else if (schema instanceof Document) {
-    //   // If the schema is already a Document, return it directly
-    //   return (Document) schema;
-    // }
-
-    // if (schema instanceof Document) {
-    //   return (Document) schema;
-    // } else if (schema instanceof Binary) {
-    //   return Document.parse(((Binary) schema).getData());
-    // } else {
-    //   throw new IllegalArgumentException("Invalid schema type for namespace: " + namespace);
-    // }
+    return document.getString(key).getValue();
   }
 }
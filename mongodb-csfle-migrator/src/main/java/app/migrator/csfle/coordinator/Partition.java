@@ -0,0 +1,83 @@
+package app.migrator.csfle.coordinator;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonString;
+
+import app.migrator.csfle.worker.KeyRange;
+import lombok.Getter;
+
+/**
+ * Unit of work of a shared plan: a whole collection, or one index range of it. Stored as one
+ * document of the partitions collection, claimed by a single process at a time.
+ */
+@Getter
+public class Partition {
+  private final String id;
+  // Claim order, largest collections first
+  private final int index;
+  private final String database;
+  private final String collection;
+  // Null to copy the whole collection
+  private final KeyRange range;
+  // Claims so far, including the current one
+  private final int attempts;
+
+  public Partition(String id, int index, String database, String collection, KeyRange range,
+      int attempts) {
+    this.id = id;
+    this.index = index;
+    this.database = database;
+    this.collection = collection;
+    this.range = range;
+    this.attempts = attempts;
+  }
+
+  public String getNamespace() {
+    return database + "." + collection;
+  }
+
+  BsonDocument toDocument(String planId) {
+    BsonDocument document = new BsonDocument("_id", new BsonString(id))
+        .append("planId", new BsonString(planId))
+        .append("index", new BsonInt32(index))
+        .append("database", new BsonString(database))
+        .append("collection", new BsonString(collection))
+        .append("state", new BsonString(PartitionLeases.PENDING))
+        .append("attempts", new BsonInt32(0));
+    if (range != null) {
+      document.append("keyPattern", range.getKeyPattern())
+          .append("min", range.getMin() == null ? BsonNull.VALUE : range.getMin())
+          .append("max", range.getMax() == null ? BsonNull.VALUE : range.getMax())
+          .append("estimatedDocuments", new BsonInt64(range.getEstimatedDocuments()));
+      if (range.getShard() != null) {
+        document.append("shard", new BsonString(range.getShard()));
+      }
+    }
+    return document;
+  }
+
+  static Partition fromDocument(BsonDocument document) {
+    KeyRange range = null;
+    if (document.containsKey("keyPattern")) {
+      range = new KeyRange(document.getDocument("keyPattern"),
+          document.isDocument("min") ? document.getDocument("min") : null,
+          document.isDocument("max") ? document.getDocument("max") : null,
+          document.getInt64("estimatedDocuments").getValue(),
+          document.isString("shard") ? document.getString("shard").getValue() : null);
+    }
+    return new Partition(document.getString("_id").getValue(),
+        document.getInt32("index").getValue(),
+        document.getString("database").getValue(),
+        document.getString("collection").getValue(),
+        range,
+        document.getInt32("attempts").getValue());
+  }
+
+  @Override
+  public String toString() {
+    return getNamespace() + (range == null ? "" : " " + range);
+  }
+}
@@ -0,0 +1,202 @@
+package app.migrator.csfle.coordinator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonNull;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+
+import app.migrator.csfle.config.Configuration.CoordinatorConfig;
+
+/**
+ * Claims the partitions of a shared plan through leases, so several processes copy one plan
+ * without running a partition twice at the same time.
+ *
+ * <p>A claim is a single {@code findOneAndUpdate} on the next PENDING partition, or on a CLAIMED
+ * one whose lease expired because its process stopped. A heartbeat thread extends the leases held
+ * by this process until it closes. A partition is retried by the next claim after a failure, and
+ * marked FAILED once {@code maxAttempts} claims did not complete it.
+ */
+public class PartitionLeases implements AutoCloseable {
+  private static final Logger logger = LoggerFactory.getLogger(PartitionLeases.class);
+
+  public static final String PENDING = "PENDING";
+  public static final String CLAIMED = "CLAIMED";
+  public static final String DONE = "DONE";
+  public static final String FAILED = "FAILED";
+
+  private final MongoCollection<BsonDocument> partitions;
+  private final CoordinatorConfig config;
+  private final String workerId;
+  private ScheduledExecutorService heartbeat;
+
+  public PartitionLeases(MongoClient targetClient, CoordinatorConfig config, String workerId) {
+    this.partitions = targetClient.getDatabase(config.getDatabase())
+        .getCollection(config.getPartitionCollection(), BsonDocument.class);
+    this.config = config;
+    this.workerId = workerId;
+  }
+
+  /**
+   * Renews the leases of this process, and the plan lease it may hold, every heartbeatSeconds.
+   */
+  public void startHeartbeat(PlanStore plan) {
+    heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "lease-heartbeat");
+      thread.setDaemon(true);
+      return thread;
+    });
+    heartbeat.scheduleAtFixedRate(() -> {
+      try {
+        renew();
+        plan.renew();
+      } catch (RuntimeException e) {
+        logger.warn("Lease heartbeat failed: {}", e.getMessage());
+      }
+    }, config.getHeartbeatSeconds(), config.getHeartbeatSeconds(), TimeUnit.SECONDS);
+  }
+
+  /**
+   * @return next partition, now leased by this process, or null when none is claimable
+   */
+  public Partition claim() {
+    Bson filter = Filters.and(
+        Filters.eq("planId", config.getPlanId()),
+        Filters.lt("attempts", config.getMaxAttempts()),
+        Filters.or(
+            Filters.eq("state", PENDING),
+            Filters.and(Filters.eq("state", CLAIMED), PlanStore.leaseExpired())));
+    BsonDocument update = PlanStore.set(new BsonDocument("state", new BsonString(CLAIMED))
+        .append("owner", new BsonString(workerId))
+        .append("leaseUntil", PlanStore.leaseUntil(config))
+        .append("attempts", new BsonDocument("$add",
+            new BsonArray(Arrays.asList(new BsonString("$attempts"), new BsonInt32(1)))))
+        .append("claimedAt", new BsonString("$$NOW")));
+
+    BsonDocument claimed = partitions.findOneAndUpdate(filter, Collections.singletonList(update),
+        new FindOneAndUpdateOptions().sort(Sorts.ascending("index"))
+            .returnDocument(ReturnDocument.AFTER));
+    if (claimed == null) {
+      return null;
+    }
+    Partition partition = Partition.fromDocument(claimed);
+    if (partition.getAttempts() > 1) {
+      logger.warn("Reclaimed {} ({}), attempt {}", partition.getId(), partition,
+          partition.getAttempts());
+    }
+    return partition;
+  }
+
+  private void renew() {
+    partitions.updateMany(
+        Filters.and(Filters.eq("planId", config.getPlanId()), Filters.eq("owner", workerId),
+            Filters.eq("state", CLAIMED)),
+        Collections.singletonList(
+            PlanStore.set(new BsonDocument("leaseUntil", PlanStore.leaseUntil(config)))));
+  }
+
+  public void complete(Partition partition) {
+    release(partition, new BsonString(DONE), BsonNull.VALUE);
+  }
+
+  /**
+   * Releases the partition for another attempt, or marks it FAILED on the last one.
+   */
+  public void fail(Partition partition, String error) {
+    BsonDocument state = new BsonDocument("$cond", new BsonArray(Arrays.asList(
+        new BsonDocument("$gte", new BsonArray(Arrays.asList(
+            new BsonString("$attempts"), new BsonInt32(config.getMaxAttempts())))),
+        new BsonString(FAILED),
+        new BsonString(PENDING))));
+    release(partition, state, new BsonDocument("$literal",
+        new BsonString(String.valueOf(error))));
+  }
+
+  private void release(Partition partition, BsonValue state, BsonValue error) {
+    long matched = partitions.updateOne(
+        Filters.and(Filters.eq("_id", partition.getId()), Filters.eq("owner", workerId),
+            Filters.eq("state", CLAIMED)),
+        Collections.singletonList(PlanStore.set(new BsonDocument("state", state)
+            .append("owner", BsonNull.VALUE)
+            .append("leaseUntil", BsonNull.VALUE)
+            .append("error", error)
+            .append("closedAt", new BsonString("$$NOW"))))).getMatchedCount();
+    if (matched == 0) {
+      // Another process reclaimed it after the lease expired, its attempt decides the outcome
+      logger.warn("Lease of {} ({}) was lost before it was closed", partition.getId(), partition);
+    }
+  }
+
+  /**
+   * Marks FAILED the partitions whose last allowed attempt stopped without closing them, then
+   * checks whether anything is left to run.
+   *
+   * @return true when every partition of the plan is DONE or FAILED
+   */
+  public boolean isFinished() {
+    partitions.updateMany(
+        Filters.and(Filters.eq("planId", config.getPlanId()), Filters.eq("state", CLAIMED),
+            Filters.gte("attempts", config.getMaxAttempts()), PlanStore.leaseExpired()),
+        Collections.singletonList(PlanStore.set(new BsonDocument("state", new BsonString(FAILED))
+            .append("owner", BsonNull.VALUE)
+            .append("error", new BsonString("Lease expired on the last attempt")))));
+    return partitions.countDocuments(Filters.and(Filters.eq("planId", config.getPlanId()),
+        Filters.in("state", PENDING, CLAIMED))) == 0;
+  }
+
+  /**
+   * @return number of partitions of the plan by state
+   */
+  public Map<String, Long> countByState() {
+    Map<String, Long> counts = new TreeMap<>();
+    partitions.aggregate(Arrays.asList(
+        Aggregates.match(Filters.eq("planId", config.getPlanId())),
+        Aggregates.group("$state", Accumulators.sum("count", 1L))))
+        .forEach(group -> counts.put(group.getString("_id").getValue(),
+            group.getNumber("count").longValue()));
+    return counts;
+  }
+
+  /**
+   * @return number of partitions of the plan by namespace, whichever process runs them
+   */
+  public Map<String, Integer> countByNamespace() {
+    Map<String, Integer> counts = new TreeMap<>();
+    partitions.aggregate(Arrays.asList(
+        Aggregates.match(Filters.eq("planId", config.getPlanId())),
+        Aggregates.group(new BsonDocument("$concat", new BsonArray(Arrays.asList(
+            new BsonString("$database"), new BsonString("."), new BsonString("$collection")))),
+            Accumulators.sum("count", 1))))
+        .forEach(group -> counts.put(group.getString("_id").getValue(),
+            group.getNumber("count").intValue()));
+    return counts;
+  }
+
+  @Override
+  public void close() {
+    if (heartbeat != null) {
+      heartbeat.shutdownNow();
+    }
+  }
+}
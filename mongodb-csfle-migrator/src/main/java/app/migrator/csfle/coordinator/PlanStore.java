@@ -0,0 +1,224 @@
+package app.migrator.csfle.coordinator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.result.UpdateResult;
+
+import app.migrator.csfle.config.Configuration.CoordinatorConfig;
+
+/**
+ * Plan shared by the processes of a distributed migration, one document of the plans collection.
+ *
+ * <p>The first process to arrive builds the plan while holding its lease, every other one waits
+ * until it is READY, then all of them claim partitions through {@link PartitionLeases}. Once every
+ * partition is closed, a single process takes the FINALIZING lease to copy indexes. A planning or
+ * finalizing process that stops renewing its lease is replaced by the next one to ask. Lease
+ * expiry is compared to the server clock ({@code $$NOW}), so host clocks do not need to agree.
+ */
+public class PlanStore {
+  private static final Logger logger = LoggerFactory.getLogger(PlanStore.class);
+
+  static final String PLANNING = "PLANNING";
+  static final String READY = "READY";
+  static final String FINALIZING = "FINALIZING";
+  static final String DONE = "DONE";
+
+  private final MongoCollection<BsonDocument> plans;
+  private final MongoCollection<BsonDocument> partitions;
+  private final CoordinatorConfig config;
+  private final String workerId;
+
+  public PlanStore(MongoClient targetClient, CoordinatorConfig config, String workerId) {
+    this.plans = targetClient.getDatabase(config.getDatabase())
+        .getCollection(config.getPlanCollection(), BsonDocument.class);
+    this.partitions = targetClient.getDatabase(config.getDatabase())
+        .getCollection(config.getPartitionCollection(), BsonDocument.class);
+    this.config = config;
+    this.workerId = workerId;
+  }
+
+  public String getPlanId() {
+    return config.getPlanId();
+  }
+
+  /**
+   * Blocks until the plan is ready, unless this process has to build it.
+   *
+   * @return plan document, or null when this process holds the planning lease
+   */
+  public BsonDocument join() throws InterruptedException {
+    while (true) {
+      if (tryCreate()) {
+        return null;
+      }
+      BsonDocument plan = plans.find(Filters.eq("_id", getPlanId())).first();
+      if (plan != null && !PLANNING.equals(plan.getString("state").getValue())) {
+        return plan;
+      }
+      TimeUnit.SECONDS.sleep(1);
+    }
+  }
+
+  /**
+   * Inserts the plan, or takes over planning from a process whose lease expired. The upsert
+   * fails on the _id index when the plan exists in any other state.
+   */
+  private boolean tryCreate() {
+    Bson filter = Filters.and(Filters.eq("_id", getPlanId()), Filters.eq("state", PLANNING),
+        leaseExpired());
+    try {
+      UpdateResult result = plans.updateOne(filter, Collections.singletonList(
+          set(acquire().append("createdAt",
+              new BsonDocument("$ifNull", new BsonArray(Arrays.asList(
+                  new BsonString("$createdAt"), new BsonString("$$NOW"))))))),
+          new UpdateOptions().upsert(true));
+      if (result.getUpsertedId() == null) {
+        logger.warn("Planning lease of {} expired, {} takes over", getPlanId(), workerId);
+      }
+      return true;
+    } catch (MongoWriteException e) {
+      if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Stores the partitions and opens them for claiming.
+   *
+   * @param namespaces every namespace of the plan, for the finalizing process
+   * @param atClusterTime snapshot read time all processes read at, or null
+   * @param changeStreamStartTime point the change stream replays from, or null
+   */
+  public void publish(List<Partition> planned, List<String> namespaces,
+      BsonTimestamp atClusterTime, BsonTimestamp changeStreamStartTime) {
+    Bson owned = Filters.and(Filters.eq("_id", getPlanId()), Filters.eq("owner", workerId),
+        Filters.eq("state", PLANNING));
+    if (plans.countDocuments(owned) == 0) {
+      throw new IllegalStateException("Lost the planning lease of " + getPlanId()
+          + ", raise coordinator.leaseSeconds");
+    }
+    partitions.createIndex(Indexes.ascending("planId", "state", "index"));
+    // Leftovers of a planner that stopped half way
+    partitions.deleteMany(Filters.eq("planId", getPlanId()));
+    List<BsonDocument> documents = new ArrayList<>(planned.size());
+    for (Partition partition : planned) {
+      documents.add(partition.toDocument(getPlanId()));
+    }
+    if (!documents.isEmpty()) {
+      partitions.insertMany(documents);
+    }
+
+    BsonArray namespaceArray = new BsonArray();
+    namespaces.forEach(namespace -> namespaceArray.add(new BsonString(namespace)));
+    BsonDocument ready = new BsonDocument("state", new BsonString(READY))
+        .append("owner", BsonNull.VALUE)
+        .append("partitions", new BsonInt32(planned.size()))
+        .append("namespaces", namespaceArray)
+        .append("atClusterTime", atClusterTime == null ? BsonNull.VALUE : atClusterTime)
+        .append("changeStreamStartTime",
+            changeStreamStartTime == null ? BsonNull.VALUE : changeStreamStartTime);
+    UpdateResult result = plans.updateOne(owned, new BsonDocument("$set", ready));
+    if (result.getMatchedCount() == 0) {
+      throw new IllegalStateException("Lost the planning lease of " + getPlanId()
+          + ", raise coordinator.leaseSeconds");
+    }
+    logger.info("Plan {} is ready with {} partitions", getPlanId(), planned.size());
+  }
+
+  /**
+   * Takes the finalizing lease once every partition is closed.
+   *
+   * @return true if this process has to finalize the plan
+   */
+  public boolean tryFinalize() {
+    Bson filter = Filters.and(Filters.eq("_id", getPlanId()), Filters.or(
+        Filters.eq("state", READY),
+        Filters.and(Filters.eq("state", FINALIZING), leaseExpired())));
+    return plans.updateOne(filter, Collections.singletonList(
+        set(acquire().append("state", new BsonString(FINALIZING))))).getMatchedCount() > 0;
+  }
+
+  public void finish() {
+    plans.updateOne(Filters.and(Filters.eq("_id", getPlanId()), Filters.eq("owner", workerId)),
+        Collections.singletonList(set(new BsonDocument("state", new BsonString(DONE))
+            .append("owner", BsonNull.VALUE)
+            .append("finishedAt", new BsonString("$$NOW")))));
+    logger.info("Plan {} is done", getPlanId());
+  }
+
+  /**
+   * Extends the planning or finalizing lease held by this process, called by the heartbeat.
+   */
+  void renew() {
+    plans.updateOne(
+        Filters.and(Filters.eq("_id", getPlanId()), Filters.eq("owner", workerId),
+            Filters.in("state", PLANNING, FINALIZING)),
+        Collections.singletonList(set(new BsonDocument("leaseUntil", leaseUntil()))));
+  }
+
+  /**
+   * @return namespaces stored with a plan document
+   */
+  public static List<String> getNamespaces(BsonDocument plan) {
+    List<String> namespaces = new ArrayList<>();
+    for (BsonValue namespace : plan.getArray("namespaces", new BsonArray())) {
+      namespaces.add(namespace.asString().getValue());
+    }
+    return namespaces;
+  }
+
+  /**
+   * @return current plan document
+   */
+  public BsonDocument load() {
+    return plans.find(Filters.eq("_id", getPlanId())).first();
+  }
+
+  private BsonDocument acquire() {
+    return new BsonDocument("owner", new BsonString(workerId))
+        .append("leaseUntil", leaseUntil());
+  }
+
+  private BsonDocument leaseUntil() {
+    return leaseUntil(config);
+  }
+
+  static BsonDocument leaseUntil(CoordinatorConfig config) {
+    return new BsonDocument("$add", new BsonArray(Arrays.asList(new BsonString("$$NOW"),
+        new BsonInt64(TimeUnit.SECONDS.toMillis(config.getLeaseSeconds())))));
+  }
+
+  static Bson leaseExpired() {
+    return Filters.expr(new BsonDocument("$lt",
+        new BsonArray(Arrays.asList(new BsonString("$leaseUntil"), new BsonString("$$NOW")))));
+  }
+
+  static BsonDocument set(BsonDocument fields) {
+    return new BsonDocument("$set", fields);
+  }
+}
@@ -0,0 +1,241 @@
+package app.migrator.csfle.generator;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+
+import lombok.Setter;
+
+/**
+ * Generates source documents whose fields match the bsonType declarations of a CSFLE schema, so
+ * load tests encrypt the same types as a real migration.
+ */
+public class SyntheticDataGenerator {
+  private static final Logger logger = LoggerFactory.getLogger(SyntheticDataGenerator.class);
+  // Fixed reference time (2025-01-01T00:00:00Z), so dates and ids depend only on the seed
+  private static final long BASE_TIME_MILLIS = 1_735_689_600_000L;
+
+  private final BsonDocument schema;
+  private final long seed;
+
+  /**
+   * Number of distinct values per field, 0 for (practically) unique values. Low cardinality
+   * produces repeated plaintexts, e.g. to exercise the deterministic encryption path.
+   */
+  @Setter
+  private int cardinality = 0;
+
+  /**
+   * Distribution of the size of the extra "payload" string field added to every document.
+   */
+  @Setter
+  private SizeDistribution sizeDistribution = SizeDistribution.NONE;
+  @Setter
+  private int minPayloadBytes = 0;
+  @Setter
+  private int maxPayloadBytes = 0;
+
+  public enum SizeDistribution { NONE, FIXED, UNIFORM, EXPONENTIAL }
+
+  /**
+   * @param schema encryption schema of one namespace, as found in schema.json
+   * @param seed seed of the value generator, the same seed produces the same documents
+   */
+  public SyntheticDataGenerator(BsonDocument schema, long seed) {
+    this.schema = schema;
+    this.seed = seed;
+  }
+
+  /**
+   * Creates one document. Field values only depend on the seed and the random source passed in.
+   *
+   * @param random value source
+   * @return generated document with a fresh _id
+   */
+  public Document generate(Random random) {
+    Document document = new Document("_id", new ObjectId());
+    fillProperties(document, schema, "", random);
+
+    int payloadBytes = nextPayloadSize(random);
+    if (payloadBytes > 0) {
+      document.append("payload", randomString(random, payloadBytes));
+    }
+    return document;
+  }
+
+  private int nextPayloadSize(Random random) {
+    int range = Math.max(0, maxPayloadBytes - minPayloadBytes);
+    switch (sizeDistribution) {
+      case FIXED:
+        return minPayloadBytes;
+      case UNIFORM:
+        return minPayloadBytes + (range == 0 ? 0 : random.nextInt(range + 1));
+      case EXPONENTIAL:
+        // Mostly small documents with a long tail up to maxPayloadBytes
+        double mean = Math.max(1, range / 8.0);
+        return minPayloadBytes + (int) Math.min(range, -mean * Math.log(1 - random.nextDouble()));
+      case NONE:
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Random source of one field value. With a cardinality set, the value is derived from one of
+   * {@code cardinality} fixed seeds per field, so the same values repeat across documents.
+   */
+  private Random valueRandom(String path, Random random) {
+    if (cardinality <= 0) {
+      return random;
+    }
+    return new Random(seed * 31 + path.hashCode() * 1_000_003L + random.nextInt(cardinality));
+  }
+
+  private void fillProperties(
+      Document document, BsonDocument objectSchema, String prefix, Random random) {
+    BsonDocument properties = objectSchema.getDocument("properties", new BsonDocument());
+
+    for (Map.Entry<String, BsonValue> property : properties.entrySet()) {
+      if (!property.getValue().isDocument()) {
+        continue;
+      }
+      BsonDocument fieldSchema = property.getValue().asDocument();
+      String path = prefix + property.getKey();
+
+      if (fieldSchema.containsKey("encrypt")) {
+        String bsonType = fieldSchema.getDocument("encrypt").getString("bsonType").getValue();
+        document.append(property.getKey(), generateValue(bsonType, valueRandom(path, random)));
+      } else if (fieldSchema.containsKey("properties")) {
+        Document nested = new Document();
+        fillProperties(nested, fieldSchema, path + ".", random);
+        document.append(property.getKey(), nested);
+      } else if (fieldSchema.isString("bsonType")) {
+        document.append(property.getKey(),
+            generateValue(fieldSchema.getString("bsonType").getValue(), valueRandom(path, random)));
+      }
+    }
+  }
+
+  protected Object generateValue(String bsonType, Random random) {
+    switch (bsonType) {
+      case "int":
+        return random.nextInt(Integer.MAX_VALUE);
+      case "long":
+        return random.nextLong();
+      case "double":
+        return random.nextDouble() * 1000;
+      case "decimal":
+        return new Decimal128(random.nextInt(1_000_000));
+      case "bool":
+        return random.nextBoolean();
+      case "date":
+        return new Date(BASE_TIME_MILLIS - random.nextInt(Integer.MAX_VALUE) * 1000L);
+      case "objectId":
+        // Timestamp then 8 random bytes, the same seed always gives the same id
+        byte[] id = new byte[12];
+        random.nextBytes(id);
+        int seconds = (int) (BASE_TIME_MILLIS / 1000) - random.nextInt(365 * 24 * 3600);
+        ByteBuffer.wrap(id).putInt(seconds);
+        return new ObjectId(id);
+      case "binData":
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        return new Binary(bytes);
+      case "array":
+        List<Document> items = new ArrayList<>();
+        int size = 1 + random.nextInt(5);
+        for (int i = 0; i < size; i++) {
+          items.add(new Document("code", randomString(random, 8)).append("value", random.nextInt(1000)));
+        }
+        return items;
+      case "object":
+        return new Document("code", randomString(random, 8)).append("value", random.nextInt(1000));
+      case "string":
+      default:
+        return randomString(random, 12);
+    }
+  }
+
+  protected static String randomString(Random random, int length) {
+    StringBuilder builder = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      builder.append((char) ('a' + random.nextInt(26)));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Inserts generated documents with parallel unordered insertMany calls.
+   *
+   * @param collection source collection to load
+   * @param count number of documents
+   * @param batchSize documents per insertMany
+   * @param threads number of parallel inserters
+   * @return number of documents inserted
+   */
+  public long load(MongoCollection<Document> collection, long count, int batchSize, int threads) {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    AtomicLong inserted = new AtomicLong();
+    InsertManyOptions options = new InsertManyOptions().ordered(false);
+    long perThread = (count + threads - 1) / threads;
+
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        long toInsert = Math.max(0, Math.min(perThread, count - t * perThread));
+        Random random = new Random(seed + t);
+
+        futures.add(executor.submit(() -> {
+          List<Document> batch = new ArrayList<>(batchSize);
+          for (long i = 0; i < toInsert; i++) {
+            batch.add(generate(random));
+            if (batch.size() == batchSize) {
+              collection.insertMany(batch, options);
+              logProgress(inserted.addAndGet(batch.size()), count);
+              batch = new ArrayList<>(batchSize);
+            }
+          }
+          if (!batch.isEmpty()) {
+            collection.insertMany(batch, options);
+            logProgress(inserted.addAndGet(batch.size()), count);
+          }
+        }));
+      }
+
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (Exception e) {
+      throw new RuntimeException("Failed to generate data for " + collection.getNamespace(), e);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    return inserted.get();
+  }
+
+  private static void logProgress(long inserted, long count) {
+    if (inserted % 100_000 < 1_000 || inserted == count) {
+      logger.info("Generated {}/{} documents", inserted, count);
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package app.migrator.csfle.monitor;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Auto-encryption runs inside the driver right before each command is sent, so it cannot be timed
+ * on its own. This event spans the whole batch write and reports the part spent outside the
+ * command round trips measured by {@link CommandTimingListener}: encryption, BSON serialization
+ * and connection checkout.
+ */
+@Name("app.migrator.csfle.BatchClientTime")
+@Label("Batch Client Time")
+@Description("Client-side time of one batch write, outside the write command round trips")
+public class BatchClientTimeEvent extends BatchEvent {
+  @Label("Client Time")
+  @Description("Write time minus the command round trips, includes auto-encryption")
+  @Timespan(Timespan.NANOSECONDS)
+  long clientTime;
+
+  @Label("Failed Documents")
+  int failedDocuments;
+
+  /**
+   * @param writeNanos wall time of the batch write, measured by the caller since begin()
+   */
+  public void commit(String namespace, int documents, long bytes, long writeNanos,
+      long serverNanos, int failedDocuments) {
+    end();
+    if (shouldCommit()) {
+      this.namespace = namespace;
+      this.documents = documents;
+      this.bytes = bytes;
+      this.clientTime = Math.max(0, writeNanos - serverNanos);
+      this.failedDocuments = failedDocuments;
+      commit();
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package app.migrator.csfle.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Event;
+
+/**
+ * Common fields of the per-batch Flight Recorder events. Byte sizes are only computed when the
+ * event is enabled in the running recording.
+ */
+@Category({"MongoDB CSFLE Migrator", "Batch"})
+abstract class BatchEvent extends Event {
+  @Label("Namespace")
+  String namespace;
+
+  @Label("Documents")
+  int documents;
+
+  @Label("Size")
+  @DataAmount
+  long bytes;
+}
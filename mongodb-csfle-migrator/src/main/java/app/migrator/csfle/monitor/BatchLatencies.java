@@ -0,0 +1,38 @@
+package app.migrator.csfle.monitor;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the end-to-end latency (read, encrypt and write) of every batch of a run.
+ */
+public class BatchLatencies {
+  private long[] nanos = new long[1024];
+  private int count = 0;
+
+  public synchronized void record(long elapsedNanos) {
+    if (count == nanos.length) {
+      nanos = Arrays.copyOf(nanos, count * 2);
+    }
+    nanos[count++] = elapsedNanos;
+  }
+
+  public synchronized int getCount() {
+    return count;
+  }
+
+  /**
+   * @param percentile percentile between 0 and 100
+   * @return latency of the given percentile in milliseconds, 0 if nothing was recorded
+   */
+  public synchronized double percentileMillis(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long[] sorted = Arrays.copyOf(nanos, count);
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+    long value = sorted[Math.max(0, Math.min(count - 1, index))];
+    return value / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
@@ -0,0 +1,35 @@
+package app.migrator.csfle.monitor;
+
+import java.util.List;
+
+import org.bson.Document;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("app.migrator.csfle.BatchRead")
+@Label("Batch Read")
+@Description("Reading one batch from the source cursor")
+public class BatchReadEvent extends BatchEvent {
+
+  public void commit(String namespace, List<Document> documents) {
+    end();
+    if (shouldCommit()) {
+      this.namespace = namespace;
+      this.documents = documents.size();
+      this.bytes = DocumentSizes.of(documents);
+      commit();
+    }
+  }
+
+  public void commit(String namespace, int documents, long bytes) {
+    end();
+    if (shouldCommit()) {
+      this.namespace = namespace;
+      this.documents = documents;
+      this.bytes = bytes;
+      commit();
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package app.migrator.csfle.monitor;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("app.migrator.csfle.BatchWrite")
+@Label("Batch Write")
+@Description("Writing one batch to the target, including auto-encryption")
+public class BatchWriteEvent extends BatchEvent {
+  @Label("Server Time")
+  @Description("Time spent waiting for the target to acknowledge the write commands")
+  @Timespan(Timespan.NANOSECONDS)
+  long serverTime;
+
+  @Label("Failed Documents")
+  int failedDocuments;
+
+  public void commit(String namespace, int documents, long bytes, long serverNanos,
+      int failedDocuments) {
+    end();
+    if (shouldCommit()) {
+      this.namespace = namespace;
+      this.documents = documents;
+      this.bytes = bytes;
+      this.serverTime = serverNanos;
+      this.failedDocuments = failedDocuments;
+      commit();
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package app.migrator.csfle.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.BsonTimestamp;
+
+/**
+ * Counters and replication lag of one change stream, updated by the applier and read through JMX.
+ */
+public class ChangeStreamProgress implements ChangeStreamProgressMXBean {
+  public enum State { STARTING, CATCHING_UP, CAUGHT_UP, STOPPED, FAILED }
+
+  private final String name;
+  private volatile State state = State.STARTING;
+  private volatile long lagMillis;
+  private volatile BsonTimestamp lastAppliedClusterTime;
+  private final AtomicLong inserts = new AtomicLong();
+  private final AtomicLong updates = new AtomicLong();
+  private final AtomicLong replaces = new AtomicLong();
+  private final AtomicLong deletes = new AtomicLong();
+  private final AtomicLong skippedEvents = new AtomicLong();
+
+  public ChangeStreamProgress(String name) {
+    this.name = name;
+  }
+
+  public void recordInsert() {
+    inserts.incrementAndGet();
+  }
+
+  public void recordUpdate() {
+    updates.incrementAndGet();
+  }
+
+  public void recordReplace() {
+    replaces.incrementAndGet();
+  }
+
+  public void recordDelete() {
+    deletes.incrementAndGet();
+  }
+
+  public void recordSkipped() {
+    skippedEvents.incrementAndGet();
+  }
+
+  /**
+   * Records how far the stream is applied to the target. Lag is measured from the oldest event
+   * still waiting to be written, or from the newest written one when nothing is waiting.
+   *
+   * @param appliedThrough cluster time every earlier source write is applied up to, or null
+   * @param oldestPending cluster time of the oldest event not yet written, null when none
+   */
+  public synchronized void recordApplied(BsonTimestamp appliedThrough, BsonTimestamp oldestPending) {
+    BsonTimestamp lagFrom = oldestPending != null ? oldestPending : appliedThrough;
+    if (lagFrom == null) {
+      return;
+    }
+    if (appliedThrough != null) {
+      this.lastAppliedClusterTime = appliedThrough;
+    }
+    this.lagMillis = Math.max(0, System.currentTimeMillis() - lagFrom.getTime() * 1000L);
+    this.state = State.CATCHING_UP;
+  }
+
+  /**
+   * Marks the stream as having applied every event available on the source.
+   */
+  public void caughtUp() {
+    this.lagMillis = 0;
+    this.state = State.CAUGHT_UP;
+  }
+
+  public void stop() {
+    this.state = State.STOPPED;
+  }
+
+  public void fail() {
+    this.state = State.FAILED;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public String getState() {
+    return state.name();
+  }
+
+  @Override
+  public long getInserts() {
+    return inserts.get();
+  }
+
+  @Override
+  public long getUpdates() {
+    return updates.get();
+  }
+
+  @Override
+  public long getReplaces() {
+    return replaces.get();
+  }
+
+  @Override
+  public long getDeletes() {
+    return deletes.get();
+  }
+
+  @Override
+  public long getSkippedEvents() {
+    return skippedEvents.get();
+  }
+
+  @Override
+  public long getLagMillis() {
+    return lagMillis;
+  }
+
+  @Override
+  public String getLastAppliedClusterTime() {
+    return lastAppliedClusterTime == null ? null : lastAppliedClusterTime.toString();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s state=%s lag=%dms inserts=%d updates=%d replaces=%d deletes=%d skipped=%d",
+        name, state, lagMillis, inserts.get(), updates.get(), replaces.get(), deletes.get(),
+        skippedEvents.get());
+  }
+}
@@ -0,0 +1,27 @@
+package app.migrator.csfle.monitor;
+
+/**
+ * JMX view of a change stream applying source writes to the target after the bulk copy.
+ */
+public interface ChangeStreamProgressMXBean {
+  String getName();
+
+  String getState();
+
+  long getInserts();
+
+  long getUpdates();
+
+  long getReplaces();
+
+  long getDeletes();
+
+  long getSkippedEvents();
+
+  /**
+   * @return time between the source write and its application on the target, 0 when caught up
+   */
+  long getLagMillis();
+
+  String getLastAppliedClusterTime();
+}
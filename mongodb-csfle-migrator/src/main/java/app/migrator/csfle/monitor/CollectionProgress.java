@@ -0,0 +1,140 @@
+package app.migrator.csfle.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress counters for one namespace, updated by the migration task and read through JMX.
+ */
+public class CollectionProgress implements CollectionProgressMXBean {
+  public enum State { PENDING, RUNNING, COMPLETED, FAILED }
+
+  private final String namespace;
+  private volatile State state = State.PENDING;
+  private volatile long totalDocuments;
+  // Collections copied as several index ranges complete when the last range does
+  private volatile int partitions = 1;
+  private final AtomicLong completedPartitions = new AtomicLong();
+  private volatile long startTime;
+  private volatile long endTime;
+  private final AtomicLong processedDocuments = new AtomicLong();
+  private final AtomicLong failedDocuments = new AtomicLong();
+  private final AtomicLong batches = new AtomicLong();
+  private volatile int indexesToBuild;
+  private volatile int indexesSkipped;
+  private volatile int indexesBuilt;
+  private volatile int indexesFailed;
+
+  public CollectionProgress(String namespace) {
+    this.namespace = namespace;
+  }
+
+  public void setPartitions(int partitions) {
+    this.partitions = partitions;
+  }
+
+  public synchronized void start(long totalDocuments) {
+    if (state == State.PENDING) {
+      this.startTime = System.currentTimeMillis();
+      this.state = State.RUNNING;
+    }
+    this.totalDocuments += totalDocuments;
+  }
+
+  public void recordBatch(long processed, long failed) {
+    batches.incrementAndGet();
+    processedDocuments.addAndGet(processed);
+    failedDocuments.addAndGet(failed);
+  }
+
+  public synchronized void complete() {
+    if (completedPartitions.incrementAndGet() < partitions || state == State.FAILED) {
+      return;
+    }
+    this.endTime = System.currentTimeMillis();
+    this.state = State.COMPLETED;
+  }
+
+  public synchronized void fail() {
+    this.endTime = System.currentTimeMillis();
+    this.state = State.FAILED;
+  }
+
+  public void startIndexes(int toBuild, int skipped) {
+    this.indexesToBuild = toBuild;
+    this.indexesSkipped = skipped;
+  }
+
+  public void recordIndexesBuilt(int built) {
+    this.indexesBuilt += built;
+  }
+
+  public void recordIndexesFailed(int failed) {
+    this.indexesFailed += failed;
+  }
+
+  @Override
+  public String getNamespace() {
+    return namespace;
+  }
+
+  @Override
+  public String getState() {
+    return state.name();
+  }
+
+  @Override
+  public long getTotalDocuments() {
+    return totalDocuments;
+  }
+
+  @Override
+  public long getProcessedDocuments() {
+    return processedDocuments.get();
+  }
+
+  @Override
+  public long getFailedDocuments() {
+    return failedDocuments.get();
+  }
+
+  @Override
+  public long getBatches() {
+    return batches.get();
+  }
+
+  @Override
+  public int getIndexesToBuild() {
+    return indexesToBuild;
+  }
+
+  @Override
+  public int getIndexesBuilt() {
+    return indexesBuilt;
+  }
+
+  @Override
+  public int getIndexesSkipped() {
+    return indexesSkipped;
+  }
+
+  @Override
+  public int getIndexesFailed() {
+    return indexesFailed;
+  }
+
+  @Override
+  public double getPercentComplete() {
+    if (totalDocuments <= 0) {
+      return state == State.COMPLETED ? 100.0 : 0.0;
+    }
+    return Math.min(100.0, processedDocuments.get() * 100.0 / totalDocuments);
+  }
+
+  @Override
+  public long getElapsedMillis() {
+    if (startTime == 0) {
+      return 0;
+    }
+    return (endTime == 0 ? System.currentTimeMillis() : endTime) - startTime;
+  }
+}
@@ -0,0 +1,30 @@
+package app.migrator.csfle.monitor;
+
+/**
+ * JMX view of the migration progress of a single namespace.
+ */
+public interface CollectionProgressMXBean {
+  String getNamespace();
+
+  String getState();
+
+  long getTotalDocuments();
+
+  long getProcessedDocuments();
+
+  long getFailedDocuments();
+
+  long getBatches();
+
+  int getIndexesToBuild();
+
+  int getIndexesBuilt();
+
+  int getIndexesSkipped();
+
+  int getIndexesFailed();
+
+  double getPercentComplete();
+
+  long getElapsedMillis();
+}
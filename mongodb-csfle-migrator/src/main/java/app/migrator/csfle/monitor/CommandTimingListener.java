@@ -0,0 +1,40 @@
+package app.migrator.csfle.monitor;
+
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandSucceededEvent;
+
+/**
+ * Accumulates the server round-trip time of the commands issued by the current thread. The sync
+ * driver reports command events on the calling thread, after auto-encryption has been applied, so
+ * the total separates network/server time from client-side encryption time.
+ */
+public class CommandTimingListener implements CommandListener {
+  private static final ThreadLocal<long[]> ELAPSED = ThreadLocal.withInitial(() -> new long[1]);
+
+  /**
+   * Resets the accumulated time of the current thread.
+   */
+  public static void reset() {
+    ELAPSED.get()[0] = 0;
+  }
+
+  /**
+   * @return server round-trip time in nanoseconds accumulated since the last {@link #reset()}
+   */
+  public static long elapsedNanos() {
+    return ELAPSED.get()[0];
+  }
+
+  @Override
+  public void commandSucceeded(CommandSucceededEvent event) {
+    ELAPSED.get()[0] += event.getElapsedTime(TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void commandFailed(CommandFailedEvent event) {
+    ELAPSED.get()[0] += event.getElapsedTime(TimeUnit.NANOSECONDS);
+  }
+}
@@ -0,0 +1,29 @@
+package app.migrator.csfle.monitor;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+
+public final class DocumentSizes {
+  private static final DocumentCodec CODEC = new DocumentCodec();
+
+  private DocumentSizes() {
+  }
+
+  /**
+   * Computes the encoded BSON size of a batch. This re-encodes every document, so callers only
+   * use it when the value is actually recorded.
+   *
+   * @param documents batch of documents
+   * @return total BSON size in bytes
+   */
+  public static long of(List<Document> documents) {
+    long bytes = 0;
+    for (Document document : documents) {
+      bytes += new RawBsonDocument(document, CODEC).getByteBuffer().remaining();
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,94 @@
+package app.migrator.csfle.monitor;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers the migration MBeans with the platform MBean server so a running migration can be
+ * observed and tuned from JConsole or any JMX client.
+ */
+public class MigrationMonitor {
+  private static final Logger logger = LoggerFactory.getLogger(MigrationMonitor.class);
+  public static final String DOMAIN = "app.migrator.csfle";
+
+  private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+  private final Map<String, CollectionProgress> progressByNamespace = new ConcurrentHashMap<>();
+  private final Map<String, ChangeStreamProgress> changeStreams = new ConcurrentHashMap<>();
+  private final List<ObjectName> registered = new CopyOnWriteArrayList<>();
+  private final BatchLatencies batchLatencies = new BatchLatencies();
+
+  public void registerWorkerManager(WorkerManagerMonitor workerManagerMonitor) {
+    register(workerManagerMonitor, DOMAIN + ":type=WorkerManager");
+  }
+
+  /**
+   * Gets the progress tracker of a namespace, registering its MBean on first use.
+   *
+   * @param namespace database.collection
+   * @return progress tracker of the namespace
+   */
+  public CollectionProgress getProgress(String namespace) {
+    return progressByNamespace.computeIfAbsent(namespace, ns -> {
+      CollectionProgress progress = new CollectionProgress(ns);
+      register(progress, DOMAIN + ":type=CollectionProgress,namespace=" + ObjectName.quote(ns));
+      return progress;
+    });
+  }
+
+  public BatchLatencies getBatchLatencies() {
+    return batchLatencies;
+  }
+
+  /**
+   * Gets the progress tracker of a change stream, registering its MBean on first use.
+   *
+   * @param name database name, or "cluster" for a cluster-wide stream
+   * @return progress tracker of the change stream
+   */
+  public ChangeStreamProgress getChangeStreamProgress(String name) {
+    return changeStreams.computeIfAbsent(name, n -> {
+      ChangeStreamProgress progress = new ChangeStreamProgress(n);
+      register(progress, DOMAIN + ":type=ChangeStream,name=" + ObjectName.quote(n));
+      return progress;
+    });
+  }
+
+  public Map<String, CollectionProgress> getAllProgress() {
+    return progressByNamespace;
+  }
+
+  private void register(Object mBean, String name) {
+    try {
+      ObjectName objectName = new ObjectName(name);
+      if (mBeanServer.isRegistered(objectName)) {
+        mBeanServer.unregisterMBean(objectName);
+      }
+      mBeanServer.registerMBean(mBean, objectName);
+      registered.add(objectName);
+    } catch (Exception e) {
+      logger.warn("Failed to register MBean {}: {}", name, e.getMessage());
+    }
+  }
+
+  public void unregisterAll() {
+    for (ObjectName objectName : registered) {
+      try {
+        if (mBeanServer.isRegistered(objectName)) {
+          mBeanServer.unregisterMBean(objectName);
+        }
+      } catch (Exception e) {
+        logger.warn("Failed to unregister MBean {}: {}", objectName, e.getMessage());
+      }
+    }
+    registered.clear();
+  }
+}
@@ -0,0 +1,157 @@
+package app.migrator.csfle.monitor;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import app.migrator.csfle.config.Configuration.WorkerConfig;
+import app.migrator.csfle.worker.MemoryGovernor;
+import app.migrator.csfle.worker.ReadRateLimiter;
+import app.migrator.csfle.worker.WorkerManager;
+import app.migrator.csfle.worker.WorkerManager.WorkerStatus;
+
+public class WorkerManagerMonitor implements WorkerManagerMonitorMXBean {
+  private static final Logger logger = LoggerFactory.getLogger(WorkerManagerMonitor.class);
+
+  private final WorkerManager workerManager;
+  private final WorkerConfig workerConfig;
+  private final ReadRateLimiter readRateLimiter;
+  private final MemoryGovernor memoryGovernor;
+
+  public WorkerManagerMonitor(
+      WorkerManager workerManager,
+      WorkerConfig workerConfig,
+      ReadRateLimiter readRateLimiter,
+      MemoryGovernor memoryGovernor) {
+    this.workerManager = workerManager;
+    this.workerConfig = workerConfig;
+    this.readRateLimiter = readRateLimiter;
+    this.memoryGovernor = memoryGovernor;
+  }
+
+  @Override
+  public int getMaxWorkers() {
+    return workerManager.getMaxWorkers();
+  }
+
+  @Override
+  public void setMaxWorkers(int maxWorkers) {
+    workerManager.setMaxWorkers(maxWorkers);
+    workerConfig.setMaxThreads(maxWorkers);
+  }
+
+  @Override
+  public int getActiveWorkers() {
+    return workerManager.getActiveWorkers();
+  }
+
+  @Override
+  public int getQueueDepth() {
+    return workerManager.getQueueDepth();
+  }
+
+  @Override
+  public String[] getWorkerStatus() {
+    long now = System.currentTimeMillis();
+    Map<String, WorkerStatus> statuses = new TreeMap<>(workerManager.getWorkersStatus());
+
+    return statuses.values().stream()
+        .map(status -> String.format("%s busy=%s collection=%s completedTasks=%d runningMs=%d",
+            status.getWorkerId(),
+            status.isBusy(),
+            status.getCurrentCollection(),
+            status.getCompletedTasks(),
+            status.isBusy() ? now - status.getStartTime() : 0))
+        .toArray(String[]::new);
+  }
+
+  @Override
+  public int getBatchSize() {
+    return workerConfig.getMaxBatchSize();
+  }
+
+  @Override
+  public void setBatchSize(int batchSize) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("Batch size must be greater than zero.");
+    }
+    logger.info("Changing batch size from {} to {}", workerConfig.getMaxBatchSize(), batchSize);
+    workerConfig.setMaxBatchSize(batchSize);
+  }
+
+  @Override
+  public int getMaxReadDocsPerSecond() {
+    return workerConfig.getMaxReadDocsPerSecond();
+  }
+
+  @Override
+  public void setMaxReadDocsPerSecond(int maxReadDocsPerSecond) {
+    logger.info("Changing source read limit from {} to {} docs/s",
+        workerConfig.getMaxReadDocsPerSecond(), maxReadDocsPerSecond);
+    workerConfig.setMaxReadDocsPerSecond(maxReadDocsPerSecond);
+    readRateLimiter.setDocsPerSecond(maxReadDocsPerSecond);
+  }
+
+  @Override
+  public long getMaxReadBytesPerSecond() {
+    return workerConfig.getMaxReadBytesPerSecond();
+  }
+
+  @Override
+  public void setMaxReadBytesPerSecond(long maxReadBytesPerSecond) {
+    logger.info("Changing source read limit from {} to {} bytes/s",
+        workerConfig.getMaxReadBytesPerSecond(), maxReadBytesPerSecond);
+    workerConfig.setMaxReadBytesPerSecond(maxReadBytesPerSecond);
+    readRateLimiter.setBytesPerSecond(maxReadBytesPerSecond);
+  }
+
+  @Override
+  public int getReadLatencyThresholdMillis() {
+    return workerConfig.getReadLatencyThresholdMillis();
+  }
+
+  @Override
+  public void setReadLatencyThresholdMillis(int readLatencyThresholdMillis) {
+    logger.info("Changing source read latency threshold from {} to {} ms",
+        workerConfig.getReadLatencyThresholdMillis(), readLatencyThresholdMillis);
+    workerConfig.setReadLatencyThresholdMillis(readLatencyThresholdMillis);
+    readRateLimiter.setLatencyThresholdMillis(readLatencyThresholdMillis);
+  }
+
+  @Override
+  public double getReadThrottleFactor() {
+    return readRateLimiter.getThrottleFactor();
+  }
+
+  @Override
+  public double getEffectiveReadDocsPerSecond() {
+    return readRateLimiter.getEffectiveDocsPerSecond();
+  }
+
+  @Override
+  public long getMaxInFlightBytes() {
+    return memoryGovernor.getMaxBytes();
+  }
+
+  @Override
+  public long getInFlightBytes() {
+    return memoryGovernor.getUsedBytes();
+  }
+
+  @Override
+  public long getPeakInFlightBytes() {
+    return memoryGovernor.getPeakBytes();
+  }
+
+  @Override
+  public long getMemoryWaits() {
+    return memoryGovernor.getWaits();
+  }
+
+  @Override
+  public long getSpilledDocuments() {
+    return memoryGovernor.getSpilledDocuments();
+  }
+}
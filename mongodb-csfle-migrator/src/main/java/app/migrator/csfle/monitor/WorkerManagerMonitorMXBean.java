@@ -0,0 +1,67 @@
+package app.migrator.csfle.monitor;
+
+/**
+ * JMX view of the worker pool. Setters change the running migration without a restart.
+ */
+public interface WorkerManagerMonitorMXBean {
+  int getMaxWorkers();
+
+  void setMaxWorkers(int maxWorkers);
+
+  int getActiveWorkers();
+
+  int getQueueDepth();
+
+  /**
+   * @return one line per worker with its state, current collection and completed task count
+   */
+  String[] getWorkerStatus();
+
+  int getBatchSize();
+
+  void setBatchSize(int batchSize);
+
+  int getMaxReadDocsPerSecond();
+
+  /**
+   * @param maxReadDocsPerSecond global source read limit, 0 for unlimited
+   */
+  void setMaxReadDocsPerSecond(int maxReadDocsPerSecond);
+
+  long getMaxReadBytesPerSecond();
+
+  /**
+   * @param maxReadBytesPerSecond global source read limit in bytes, 0 for unlimited
+   */
+  void setMaxReadBytesPerSecond(long maxReadBytesPerSecond);
+
+  int getReadLatencyThresholdMillis();
+
+  /**
+   * @param readLatencyThresholdMillis batch read latency above which reads slow down, 0 to disable
+   */
+  void setReadLatencyThresholdMillis(int readLatencyThresholdMillis);
+
+  /**
+   * @return share of the configured read rate allowed by adaptive throttling
+   */
+  double getReadThrottleFactor();
+
+  double getEffectiveReadDocsPerSecond();
+
+  long getMaxInFlightBytes();
+
+  /**
+   * @return bytes of documents currently held by batches and change event lanes
+   */
+  long getInFlightBytes();
+
+  long getPeakInFlightBytes();
+
+  /**
+   * @return number of times a reader paused for the in-flight budget
+   */
+  long getMemoryWaits();
+
+  long getSpilledDocuments();
+}
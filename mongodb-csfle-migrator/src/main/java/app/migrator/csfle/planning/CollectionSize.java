@@ -0,0 +1,19 @@
+package app.migrator.csfle.planning;
+
+import lombok.Data;
+
+/**
+ * Size estimate of a source collection, from collStats.
+ */
+@Data
+public class CollectionSize {
+  private final String database;
+  private final String collection;
+  private final long documents;
+  // Uncompressed BSON size
+  private final long bytes;
+
+  public String getNamespace() {
+    return database + "." + collection;
+  }
+}
@@ -0,0 +1,167 @@
+package app.migrator.csfle.planning;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.model.Filters;
+
+/**
+ * Lists the source collections matching include/exclude patterns and measures them, one database
+ * and one collection per thread, so large estates are planned in seconds.
+ */
+public class NamespaceDiscovery {
+  private static final Logger logger = LoggerFactory.getLogger(NamespaceDiscovery.class);
+
+  // Never migrated, whatever the patterns say
+  private static final List<NamespacePattern> ALWAYS_EXCLUDED = Arrays.asList(
+      new NamespacePattern("admin.*"),
+      new NamespacePattern("local.*"),
+      new NamespacePattern("config.*"),
+      new NamespacePattern("*.system.*"));
+
+  private final MongoClient client;
+  private final int threads;
+
+  public NamespaceDiscovery(MongoClient client, int threads) {
+    this.client = client;
+    this.threads = Math.max(1, threads);
+  }
+
+  /**
+   * @return matching collections by database, views excluded
+   */
+  public Map<String, List<String>> discover(List<String> include, List<String> exclude) {
+    List<NamespacePattern> includes = toPatterns(include);
+    List<NamespacePattern> excludes = new ArrayList<>(ALWAYS_EXCLUDED);
+    excludes.addAll(toPatterns(exclude));
+
+    long start = System.currentTimeMillis();
+    Map<String, List<String>> found = new TreeMap<>();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      Map<String, Future<List<String>>> listings = new TreeMap<>();
+      for (String database : client.listDatabaseNames()) {
+        listings.put(database, executor.submit(() -> listCollections(database)));
+      }
+      for (Map.Entry<String, Future<List<String>>> listing : listings.entrySet()) {
+        List<String> collections = new ArrayList<>();
+        for (String collection : listing.getValue().get()) {
+          String namespace = listing.getKey() + "." + collection;
+          if (anyMatch(includes, namespace) && !anyMatch(excludes, namespace)) {
+            collections.add(collection);
+          }
+        }
+        if (!collections.isEmpty()) {
+          Collections.sort(collections);
+          found.put(listing.getKey(), collections);
+        }
+      }
+    } catch (Exception e) {
+      throw new RuntimeException("Namespace discovery failed", e);
+    } finally {
+      executor.shutdown();
+    }
+    logger.info("Discovered {} collection(s) in {} database(s) in {} ms",
+        found.values().stream().mapToInt(List::size).sum(), found.size(),
+        System.currentTimeMillis() - start);
+    return found;
+  }
+
+  /**
+   * Applies the include/exclude patterns to a known list of namespaces, e.g. the content of a dump.
+   *
+   * @return matching collections by database
+   */
+  public static Map<String, List<String>> select(Collection<String> namespaces,
+      List<String> include, List<String> exclude) {
+    List<NamespacePattern> includes = toPatterns(include);
+    List<NamespacePattern> excludes = new ArrayList<>(ALWAYS_EXCLUDED);
+    excludes.addAll(toPatterns(exclude));
+
+    Map<String, List<String>> found = new TreeMap<>();
+    for (String namespace : namespaces) {
+      if (anyMatch(includes, namespace) && !anyMatch(excludes, namespace)) {
+        int dot = namespace.indexOf('.');
+        found.computeIfAbsent(namespace.substring(0, dot), db -> new ArrayList<>())
+            .add(namespace.substring(dot + 1));
+      }
+    }
+    found.values().forEach(Collections::sort);
+    return found;
+  }
+
+  /**
+   * @return size of every collection, missing collections count as empty
+   */
+  public List<CollectionSize> measure(Map<String, List<String>> collections) {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<CollectionSize>> futures = new ArrayList<>();
+      for (Map.Entry<String, List<String>> entry : collections.entrySet()) {
+        for (String collection : entry.getValue()) {
+          futures.add(executor.submit(() -> measure(entry.getKey(), collection)));
+        }
+      }
+      List<CollectionSize> sizes = new ArrayList<>();
+      for (Future<CollectionSize> future : futures) {
+        sizes.add(future.get());
+      }
+      return sizes;
+    } catch (Exception e) {
+      throw new RuntimeException("Collection size estimation failed", e);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private CollectionSize measure(String database, String collection) {
+    try {
+      Document stats = client.getDatabase(database).runCommand(new Document("collStats", collection));
+      return new CollectionSize(database, collection,
+          ((Number) stats.get("count", 0)).longValue(), ((Number) stats.get("size", 0)).longValue());
+    } catch (RuntimeException e) {
+      logger.warn("Failed to read collStats of {}.{}: {}", database, collection, e.getMessage());
+      return new CollectionSize(database, collection, 0, 0);
+    }
+  }
+
+  private List<String> listCollections(String database) {
+    return client.getDatabase(database)
+        .listCollections()
+        .filter(Filters.eq("type", "collection"))
+        .map(info -> info.getString("name"))
+        .into(new ArrayList<>());
+  }
+
+  private static List<NamespacePattern> toPatterns(List<String> patterns) {
+    List<NamespacePattern> result = new ArrayList<>();
+    if (patterns != null) {
+      for (String pattern : patterns) {
+        result.add(new NamespacePattern(pattern));
+      }
+    }
+    return result;
+  }
+
+  private static boolean anyMatch(List<NamespacePattern> patterns, String namespace) {
+    for (NamespacePattern pattern : patterns) {
+      if (pattern.matches(namespace)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
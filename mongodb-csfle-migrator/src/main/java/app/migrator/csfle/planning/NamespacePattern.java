@@ -0,0 +1,46 @@
+package app.migrator.csfle.planning;
+
+import java.util.regex.Pattern;
+
+/**
+ * Include/exclude pattern on database.collection namespaces. Either a glob, where {@code *}
+ * matches any characters and {@code ?} a single one, e.g. {@code app_*.*}, or a regular
+ * expression between slashes, e.g. {@code /^tenant_[0-9]+\.orders$/}.
+ */
+public class NamespacePattern {
+  private final String source;
+  private final boolean regex;
+  private final Pattern pattern;
+
+  public NamespacePattern(String source) {
+    this.source = source;
+    this.regex = source.length() > 1 && source.startsWith("/") && source.endsWith("/");
+    if (regex) {
+      this.pattern = Pattern.compile(source.substring(1, source.length() - 1));
+    } else {
+      StringBuilder regex = new StringBuilder();
+      for (char c : source.toCharArray()) {
+        if (c == '*') {
+          regex.append(".*");
+        } else if (c == '?') {
+          regex.append('.');
+        } else {
+          regex.append(Pattern.quote(String.valueOf(c)));
+        }
+      }
+      this.pattern = Pattern.compile(regex.toString());
+    }
+  }
+
+  /**
+   * @return true if the pattern matches the whole namespace (globs) or a part of it (regex)
+   */
+  public boolean matches(String namespace) {
+    return regex ? pattern.matcher(namespace).find() : pattern.matcher(namespace).matches();
+  }
+
+  @Override
+  public String toString() {
+    return source;
+  }
+}
@@ -0,0 +1,69 @@
+package app.migrator.csfle.planning;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoClient;
+
+import app.migrator.csfle.worker.KeyRange;
+
+/**
+ * Splits large collections into {@code _id} ranges of roughly equal size, so one large collection
+ * is copied by several tasks instead of keeping a single worker busy until the end of the run.
+ */
+public class SizePartitioner {
+  private static final Logger logger = LoggerFactory.getLogger(SizePartitioner.class);
+  private static final BsonDocument ID_KEY = new BsonDocument("_id", new BsonInt32(1));
+  private static final int SAMPLES_PER_RANGE = 100;
+
+  private final MongoClient sourceClient;
+  private final long partitionSizeBytes;
+  private final int maxPartitions;
+
+  /**
+   * @param partitionSizeBytes target size of a range
+   * @param maxPartitions upper bound of ranges per collection
+   */
+  public SizePartitioner(MongoClient sourceClient, long partitionSizeBytes, int maxPartitions) {
+    this.sourceClient = sourceClient;
+    this.partitionSizeBytes = partitionSizeBytes;
+    this.maxPartitions = maxPartitions;
+  }
+
+  /**
+   * @return ranges covering the whole collection, empty when it fits in a single partition
+   */
+  public List<KeyRange> partition(CollectionSize size) {
+    long wanted = (size.getBytes() + partitionSizeBytes - 1) / partitionSizeBytes;
+    int ranges = (int) Math.min(maxPartitions, wanted);
+    if (ranges < 2) {
+      return Collections.emptyList();
+    }
+
+    List<BsonDocument> splitPoints = SplitPoints.sample(
+        sourceClient.getDatabase(size.getDatabase())
+            .getCollection(size.getCollection(), BsonDocument.class),
+        Collections.singletonList("_id"), ranges, SAMPLES_PER_RANGE, size.getDocuments());
+    if (splitPoints.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    List<KeyRange> result = new ArrayList<>();
+    long perRange = size.getDocuments() / (splitPoints.size() + 1);
+    for (int i = 0; i <= splitPoints.size(); i++) {
+      result.add(new KeyRange(ID_KEY,
+          i == 0 ? null : splitPoints.get(i - 1),
+          i == splitPoints.size() ? null : splitPoints.get(i),
+          perRange));
+    }
+    logger.info("Planned {} as {} ranges of ~{} MB", size.getNamespace(), result.size(),
+        size.getBytes() / result.size() / (1024 * 1024));
+    return result;
+  }
+}
@@ -0,0 +1,81 @@
+package app.migrator.csfle.planning;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonNull;
+import org.bson.BsonValue;
+
+import com.mongodb.client.MongoCollection;
+
+/**
+ * Range boundaries of a collection, taken as quantiles of a {@code $sample} of its key values.
+ */
+public final class SplitPoints {
+  private SplitPoints() {
+  }
+
+  /**
+   * @param fields key fields, in key pattern order
+   * @param ranges number of ranges wanted
+   * @param samplesPerRange sampled documents per range
+   * @param count estimated number of documents in the collection
+   * @return up to ranges - 1 distinct ascending split points, empty if the collection is too small
+   */
+  public static List<BsonDocument> sample(MongoCollection<BsonDocument> collection,
+      List<String> fields, int ranges, int samplesPerRange, long count) {
+    if (ranges < 2 || count < ranges) {
+      return Collections.emptyList();
+    }
+    BsonDocument projection = new BsonDocument();
+    if (!fields.contains("_id")) {
+      projection.append("_id", new BsonInt32(0));
+    }
+    BsonDocument sort = new BsonDocument();
+    for (String field : fields) {
+      projection.append(field, new BsonInt32(1));
+      sort.append(field, new BsonInt32(1));
+    }
+
+    int sampleSize = (int) Math.min(count, (long) ranges * samplesPerRange);
+    List<BsonDocument> sample = collection.aggregate(Arrays.asList(
+        new BsonDocument("$sample", new BsonDocument("size", new BsonInt32(sampleSize))),
+        new BsonDocument("$project", projection),
+        new BsonDocument("$sort", sort))).allowDiskUse(true).into(new ArrayList<>());
+    if (sample.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    List<BsonDocument> splitPoints = new ArrayList<>();
+    for (int i = 1; i < ranges; i++) {
+      BsonDocument point = keyOf(sample.get(i * sample.size() / ranges), fields);
+      if (point != null && (splitPoints.isEmpty()
+          || !splitPoints.get(splitPoints.size() - 1).equals(point))) {
+        splitPoints.add(point);
+      }
+    }
+    return splitPoints;
+  }
+
+  /**
+   * @return key values of the document, null if one is an array and cannot be a split point
+   */
+  private static BsonDocument keyOf(BsonDocument document, List<String> fields) {
+    BsonDocument key = new BsonDocument();
+    for (String field : fields) {
+      BsonValue value = document;
+      for (String part : field.split("\\.")) {
+        value = value != null && value.isDocument() ? value.asDocument().get(part) : null;
+      }
+      if (value != null && value.isArray()) {
+        return null;
+      }
+      key.append(field, value == null ? BsonNull.VALUE : value);
+    }
+    return key;
+  }
+}
@@ -0,0 +1,72 @@
+package app.migrator.csfle.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.vault.ClientEncryption;
+
+import app.migrator.csfle.config.Configuration;
+
+/**
+ * Fixed set of independent auto encrypting clients. Each one has its own libmongocrypt handle, key
+ * cache and connection pool, so migration tasks spread over the pool do not contend on a single
+ * crypt context.
+ */
+public class CryptClientPool implements AutoCloseable {
+  private static final Logger logger = LoggerFactory.getLogger(CryptClientPool.class);
+
+  private final List<MongoCSFLE> clients = new ArrayList<>();
+  private final AtomicInteger next = new AtomicInteger();
+
+  /**
+   * Creates and sets up the clients, data keys are warmed on each of them.
+   *
+   * @param size number of clients, at least 1
+   */
+  public CryptClientPool(String mongoUri, Configuration configuration, int size) {
+    for (int i = 0; i < Math.max(1, size); i++) {
+      MongoCSFLE client = new MongoCSFLE(mongoUri, configuration);
+      client.setup();
+      clients.add(client);
+    }
+    logger.info("Created {} auto encrypting client(s)", clients.size());
+  }
+
+  public int size() {
+    return clients.size();
+  }
+
+  /**
+   * @return client for the given task or partition index
+   */
+  public MongoClient get(int index) {
+    return clients.get(Math.floorMod(index, clients.size())).getMongoClient();
+  }
+
+  /**
+   * @return explicit encryption handle of the given client, same keys and KMS as its auto
+   *     encryption
+   */
+  public ClientEncryption getClientEncryption(int index) {
+    return clients.get(Math.floorMod(index, clients.size())).getClientEncryption();
+  }
+
+  /**
+   * @return next client, round-robin
+   */
+  public MongoClient next() {
+    return get(next.getAndIncrement());
+  }
+
+  @Override
+  public void close() {
+    for (MongoCSFLE client : clients) {
+      client.close();
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package app.migrator.csfle.service;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+
+import app.migrator.csfle.config.SchemaConfiguration;
+
+/**
+ * Loads every data key of the schema into the auto encryption key cache before the first batch,
+ * so the key vault lookups and KMS unwraps do not land on the first writes of every worker.
+ *
+ * <p>libmongocrypt cannot be handed decrypted keys directly. Instead, a synthetic namespace whose
+ * schema encrypts one deterministic field per key is queried: encrypting the filter values makes
+ * libmongocrypt fetch the keys in one key vault query and unwrap them. The keys are split into
+ * groups queried in parallel, so the KMS round trips overlap.
+ *
+ * <p>libmongocrypt drops a key 60 s after fetching it, whether it was used or not, and a warm-up
+ * while it is cached fetches nothing. An optional refresh therefore re-warms the keys once they
+ * have expired, off the write path, so only the writes in between fetch a key themselves.
+ */
+public class DataKeyWarmUp implements AutoCloseable {
+  private static final Logger logger = LoggerFactory.getLogger(DataKeyWarmUp.class);
+
+  public static final String NAMESPACE = "csfle_migrator.__dataKeyWarmUp";
+  // Fixed expiry of the libmongocrypt key cache, from the time a key is fetched
+  public static final int KEY_CACHE_SECONDS = 60;
+  private static final BsonString PROBE = new BsonString("warm-up");
+
+  private final List<BsonBinary> keyIds;
+  private ScheduledExecutorService refresher;
+
+  public DataKeyWarmUp(Set<BsonBinary> keyIds) {
+    this.keyIds = new ArrayList<>(keyIds);
+  }
+
+  public boolean isEmpty() {
+    return keyIds.isEmpty();
+  }
+
+  /**
+   * @return schema of the warm-up namespace, to add to the auto encryption schema map
+   */
+  public BsonDocument getSchema() {
+    BsonDocument properties = new BsonDocument();
+    for (int i = 0; i < keyIds.size(); i++) {
+      properties.append(field(i), new BsonDocument("encrypt", new BsonDocument()
+          .append("keyId", new BsonArray(Collections.singletonList(keyIds.get(i))))
+          .append("bsonType", new BsonString("string"))
+          .append("algorithm", new BsonString(SchemaConfiguration.DETERMINISTIC))));
+    }
+    return new BsonDocument("bsonType", new BsonString("object")).append("properties", properties);
+  }
+
+  /**
+   * Checks with a single key vault query that every key exists.
+   *
+   * @param keyVault key vault collection, read without auto encryption
+   * @throws IllegalStateException listing the missing keys
+   */
+  public void verify(MongoCollection<BsonDocument> keyVault) {
+    List<BsonBinary> missing = new ArrayList<>(keyIds);
+    for (BsonDocument key : keyVault.find(Filters.in("_id", keyIds))
+        .projection(Projections.include("_id"))) {
+      missing.remove(key.getBinary("_id"));
+    }
+    if (!missing.isEmpty()) {
+      List<String> ids = new ArrayList<>();
+      for (BsonBinary id : missing) {
+        ids.add(Base64.getEncoder().encodeToString(id.getData()));
+      }
+      throw new IllegalStateException("Data keys missing from the key vault: " + ids);
+    }
+  }
+
+  /**
+   * Fetches and unwraps all keys through the auto encrypting client.
+   *
+   * @param client auto encrypting client whose key cache is warmed
+   * @param parallelism number of key groups unwrapped concurrently
+   */
+  public void warm(MongoClient client, int parallelism) {
+    long start = System.currentTimeMillis();
+    int groups = Math.max(1, Math.min(parallelism, keyIds.size()));
+    String[] namespace = NAMESPACE.split("\\.", 2);
+    MongoCollection<BsonDocument> collection =
+        client.getDatabase(namespace[0]).getCollection(namespace[1], BsonDocument.class);
+
+    ExecutorService executor = Executors.newFixedThreadPool(groups);
+    try {
+      List<CompletableFuture<Void>> futures = new ArrayList<>();
+      for (int g = 0; g < groups; g++) {
+        List<Bson> probes = new ArrayList<>();
+        for (int i = g; i < keyIds.size(); i += groups) {
+          probes.add(Filters.eq(field(i), PROBE));
+        }
+        futures.add(CompletableFuture.runAsync(
+            () -> collection.find(Filters.or(probes)).limit(1).first(), executor));
+      }
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    } finally {
+      executor.shutdown();
+    }
+    logger.info("Warmed {} data key(s) in {} ms", keyIds.size(), System.currentTimeMillis() - start);
+  }
+
+  /**
+   * Re-warms the keys on a background thread until closed. Call it right after {@link #warm}: the
+   * interval is counted from the end of the previous warm-up, when the keys were cached, so it
+   * must exceed {@link #KEY_CACHE_SECONDS} for a warm-up to find them expired.
+   */
+  public void scheduleRefresh(MongoClient client, int parallelism, int intervalSeconds) {
+    scheduleRefresh(client, parallelism, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  void scheduleRefresh(MongoClient client, int parallelism, long interval, TimeUnit unit) {
+    refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "data-key-refresh");
+      thread.setDaemon(true);
+      return thread;
+    });
+    refresher.scheduleWithFixedDelay(() -> {
+      try {
+        warm(client, parallelism);
+      } catch (RuntimeException e) {
+        logger.warn("Data key refresh failed: {}", e.getMessage());
+      }
+    }, interval, interval, unit);
+  }
+
+  private static String field(int index) {
+    return "k" + index;
+  }
+
+  @Override
+  public void close() {
+    if (refresher != null) {
+      refresher.shutdownNow();
+    }
+  }
+}
@@ -1,10 +1,12 @@
 package app.migrator.csfle.service;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
@@ -31,11 +33,12 @@ import com.mongodb.client.model.IndexOptions;
 import com.mongodb.client.model.vault.DataKeyOptions;
 import com.mongodb.client.vault.ClientEncryption;
 import com.mongodb.client.vault.ClientEncryptions;
-import com.mongodb.connection.SslSettings;
 
 import app.migrator.csfle.config.Configuration;
 import app.migrator.csfle.config.Configuration.EncryptionConfig;
+import app.migrator.csfle.config.MigrationConfiguration;
 import app.migrator.csfle.config.SchemaConfiguration;
+import app.migrator.csfle.monitor.CommandTimingListener;
 import lombok.Getter;
 
 public class MongoCSFLE {
@@ -54,6 +57,7 @@ public class MongoCSFLE {
   private MongoClient mongoClient;
   private MongoClientSettings mongoClientSettings;
 
+  @Getter
   private ClientEncryption clientEncryption;
   private ClientEncryptionSettings clientEncryptionSettings;
   private AutoEncryptionSettings autoEncryptionSettings;
@@ -71,6 +75,8 @@ public class MongoCSFLE {
   private final Map<String, Object> providerDetails = new HashMap<>();
 
   private HashMap<String, BsonDocument> schemaMap;
+  private DataKeyWarmUp dataKeyWarmUp;
+  private Map<String, SSLContext> kmsSslContextMap;
 
   public MongoCSFLE(String mongoUri, Configuration configuration) {
     this.mongoUri = mongoUri;
@@ -96,7 +102,19 @@ public class MongoCSFLE {
     this.kmsEndpoint = encryption.getKmsEndpoint();
   }
 
+  private Map<String, SSLContext> getKmsSSLContextMap() throws Exception {
+    // Built once, the auto encryption and explicit encryption settings share it
+    if (this.kmsSslContextMap == null) {
+      this.kmsSslContextMap = createKmipSSLContextMap();
+    }
+    return this.kmsSslContextMap;
+  }
+
   private Map<String, SSLContext> createKmipSSLContextMap() throws Exception {
+    // Only KMIP needs a client certificate, the local provider never opens a TLS connection
+    if (this.kmsProviderEnum != KmsProvider.KMIP) {
+      return new HashMap<>();
+    }
     String keyStorePath = configuration.getEncryption().getKeyStorePath();
     String keyStorePassword = configuration.getEncryption().getKeyStorePassword();
     String trustStorePath = configuration.getEncryption().getTrustStorePath();
@@ -106,14 +124,13 @@ public class MongoCSFLE {
 
     logger.info(
         "KeyStore Path: " + keyStorePath +
-        "\nKeyStore Password: " + keyStorePassword +
         "\nTrustStore Path: " + trustStorePath +
-        "\nTrustStore Password: " + trustStorePassword +
         "\nKeyStore Type: " + keyStoreType +
         "\nTrustStore Type: " + trustStoreType
     );
 
-    SSLContext sslContext = SSLContextFactory.create(
+    // Shared by every MongoCSFLE of the process, e.g. the crypt client pool
+    SSLContext sslContext = SSLContextFactory.getOrCreate(
         keyStorePath,
         keyStorePassword,
         trustStorePath,
@@ -121,12 +138,6 @@ public class MongoCSFLE {
         keyStoreType,
         trustStoreType);
 
-    SslSettings.builder()
-        .enabled(true)
-        .invalidHostNameAllowed(true)
-        .context(sslContext)
-        .build();
-
     // StreamFactoryFactory sff = NettyStreamFactoryFactory.builder()
     //   .sslContext(sslContext)
     //   .build();
@@ -160,7 +171,7 @@ public class MongoCSFLE {
             .kmsProviders(kmsProviders)
             .schemaMap(schemaMap)
             .extraOptions(extraOptions)
-            .kmsProviderSslContextMap(this.createKmipSSLContextMap())
+            .kmsProviderSslContextMap(this.getKmsSSLContextMap())
             .build();
 
     this.mongoClientSettings =
@@ -177,6 +188,7 @@ public class MongoCSFLE {
                   builder.readTimeout(10, TimeUnit.SECONDS);
                 })
             .autoEncryptionSettings(autoEncryptionSettings)
+            .addCommandListener(new CommandTimingListener())
             .build();
   }
 
@@ -189,7 +201,7 @@ public class MongoCSFLE {
                     .build())
             .keyVaultNamespace(keyVaultNamespace)
             .kmsProviders(kmsProviders)
-            .kmsProviderSslContextMap(this.createKmipSSLContextMap())
+            .kmsProviderSslContextMap(this.getKmsSSLContextMap())
             .build();
 
     logger.info("ClientEncryptionSettings: " + clientEncryptionSettings.toString());
@@ -251,6 +263,17 @@ public class MongoCSFLE {
     }
   }
 
+  //
+  // Function to create the local master key file on first use, e.g. for benchmark runs
+  public boolean createMasterKeyFileIfMissing() throws IOException {
+    if (this.kmsProviderEnum != KmsProvider.LOCAL || new File(masterKeyFilePath).exists()) {
+      return false;
+    }
+    createMasterKeyFile(generateMasterKey());
+    logger.info("Created local master key file: " + masterKeyFilePath);
+    return true;
+  }
+
   public byte[] readMasterKeyFile() throws IOException, Exception {
     byte[] localMasterKeyRead = new byte[96];
 
@@ -340,7 +363,51 @@ public class MongoCSFLE {
 
   public void loadSchema() {
     SchemaConfiguration schemas = configuration.getSchema();
-    this.schemaMap = schemas.getSchemas();
+    // Copy of the shared registry, staging namespaces are added below
+    this.schemaMap = new HashMap<>(schemas.getSchemas());
+
+    // Staging collections are loaded before the rename, so they need the schema too
+    MigrationConfiguration migration = configuration.getMigrationConfig();
+    if (migration != null && migration.isDropCollectionOnTarget()) {
+      for (Map.Entry<String, BsonDocument> entry : new ArrayList<>(schemaMap.entrySet())) {
+        String[] namespace = entry.getKey().split("\\.", 2);
+        schemaMap.put(namespace[0] + "." + migration.getStagingCollection(namespace[1]),
+            entry.getValue());
+      }
+    }
+
+    EncryptionConfig encryption = configuration.getEncryption();
+    this.dataKeyWarmUp = new DataKeyWarmUp(schemas.getKeyIds());
+    if (encryption.isWarmUpDataKeys() && !dataKeyWarmUp.isEmpty()) {
+      schemaMap.put(DataKeyWarmUp.NAMESPACE, dataKeyWarmUp.getSchema());
+    }
+  }
+
+  /**
+   * Loads the data keys of the schema into the key cache of the auto encrypting client. Failures
+   * are logged only, the keys are then fetched lazily by the first writes.
+   */
+  private void warmUpDataKeys() {
+    EncryptionConfig encryption = configuration.getEncryption();
+    if (!encryption.isWarmUpDataKeys() || dataKeyWarmUp.isEmpty()) {
+      return;
+    }
+    try (MongoClient keyVaultClient = MongoClients.create(this.mongoUri)) {
+      dataKeyWarmUp.verify(keyVaultClient.getDatabase(keyVaultDb)
+          .getCollection(keyVaultColl, BsonDocument.class));
+    } catch (RuntimeException e) {
+      logger.error("Data key check failed: " + e.getMessage());
+      return;
+    }
+    try {
+      dataKeyWarmUp.warm(mongoClient, encryption.getWarmUpParallelism());
+      if (encryption.getDataKeyRefreshSeconds() > 0) {
+        dataKeyWarmUp.scheduleRefresh(mongoClient, encryption.getWarmUpParallelism(),
+            encryption.getDataKeyRefreshSeconds());
+      }
+    } catch (RuntimeException e) {
+      logger.warn("Data key warm-up failed: " + e.getMessage());
+    }
   }
 
   public void preConfigure() {
@@ -395,6 +462,7 @@ public class MongoCSFLE {
       loadSchema();
       setClient();
       this.mongoClient = MongoClients.create(this.mongoClientSettings);
+      warmUpDataKeys();
     } catch (Exception e) {
       logger.error("Error setting up MongoDB CSFLE: " + e.getMessage());
       e.printStackTrace();
@@ -402,4 +470,16 @@ public class MongoCSFLE {
 
     return this;
   }
+
+  public void close() {
+    if (this.dataKeyWarmUp != null) {
+      this.dataKeyWarmUp.close();
+    }
+    if (this.clientEncryption != null) {
+      this.clientEncryption.close();
+    }
+    if (this.mongoClient != null) {
+      this.mongoClient.close();
+    }
+  }
 }
@@ -3,9 +3,12 @@ package app.migrator.csfle.service;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.bson.BsonTimestamp;
+import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.mongodb.client.ClientSession;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 
@@ -62,6 +65,19 @@ public class MongoDBService implements AutoCloseable {
     return collections;
   }
 
+  /**
+   * Gets the current operation time of the deployment, e.g. to pin snapshot reads or to start a
+   * change stream from the moment before a bulk copy. Requires a replica set or sharded cluster.
+   *
+   * @return current operation time
+   */
+  public BsonTimestamp getCurrentOperationTime() {
+    try (ClientSession session = client.startSession()) {
+      client.getDatabase("admin").runCommand(session, new Document("ping", 1));
+      return session.getOperationTime();
+    }
+  }
+
   @Override
   public void close() {
     try {
@@ -7,6 +7,8 @@ import java.security.SecureRandom;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
@@ -18,6 +20,45 @@ import javax.net.ssl.TrustManagerFactory;
  */
 public class SSLContextFactory {
 
+    // Sessions kept for resumption, KMS connections are short lived and reopened per request
+    private static final int SESSION_CACHE_SIZE = 1024;
+    private static final int SESSION_TIMEOUT_SECONDS = 3600;
+
+    // One context per keystore/truststore pair for the whole process
+    private static final Map<String, SSLContext> CONTEXTS = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the process-wide SSLContext for the given stores, creating it on first use. Sharing
+     * the context shares its client session cache, so every KMS connection after the first
+     * resumes the TLS session instead of running a full handshake with certificate checks.
+     * @return Cached SSLContext for secure communications
+     */
+    public static SSLContext getOrCreate(
+            String keyStorePath,
+            String keyStorePassword,
+            String trustStorePath,
+            String trustStorePassword,
+            String keyStoreType,
+            String trustStoreType) throws Exception {
+
+        String key = String.join("|", keyStorePath, keyStoreType, trustStorePath, trustStoreType);
+        SSLContext sslContext = CONTEXTS.get(key);
+        if (sslContext != null) {
+            return sslContext;
+        }
+        synchronized (CONTEXTS) {
+            sslContext = CONTEXTS.get(key);
+            if (sslContext == null) {
+                sslContext = create(keyStorePath, keyStorePassword, trustStorePath,
+                    trustStorePassword, keyStoreType, trustStoreType);
+                sslContext.getClientSessionContext().setSessionCacheSize(SESSION_CACHE_SIZE);
+                sslContext.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+                CONTEXTS.put(key, sslContext);
+            }
+            return sslContext;
+        }
+    }
+
     /**
      * Creates an SSLContext with both key store and trust store configurations
      * @param keyStorePath Path to the keystore file (usually .p12 or .jks)
@@ -0,0 +1,51 @@
+package app.migrator.csfle.sharding;
+
+import java.util.ArrayList;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+import com.mongodb.client.MongoClient;
+
+/**
+ * Shard key helpers shared by the source and target partitioning.
+ */
+final class ShardKeys {
+  private ShardKeys() {
+  }
+
+  /**
+   * @return true if the collection has an index with exactly this key pattern, usable as hint for
+   *     min/max range reads
+   */
+  static boolean hasIndex(MongoClient client, String database, String collection,
+      BsonDocument keyPattern) {
+    for (BsonDocument index : client.getDatabase(database).getCollection(collection)
+        .listIndexes(BsonDocument.class)) {
+      if (sameKeyPattern(keyPattern, index.getDocument("key"))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Compares key patterns by field order and direction, {a: 1} and {a: 1.0} are the same index.
+   */
+  static boolean sameKeyPattern(BsonDocument a, BsonDocument b) {
+    if (!new ArrayList<>(a.keySet()).equals(new ArrayList<>(b.keySet()))) {
+      return false;
+    }
+    for (String field : a.keySet()) {
+      BsonValue x = a.get(field);
+      BsonValue y = b.get(field);
+      boolean same = x.isNumber() && y.isNumber()
+          ? Math.signum(x.asNumber().doubleValue()) == Math.signum(y.asNumber().doubleValue())
+          : x.equals(y);
+      if (!same) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
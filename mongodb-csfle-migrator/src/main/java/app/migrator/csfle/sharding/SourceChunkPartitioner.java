@@ -0,0 +1,116 @@
+package app.migrator.csfle.sharding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+
+import app.migrator.csfle.worker.KeyRange;
+
+/**
+ * Partitions a sharded source collection along its chunks, read from {@code config.chunks}.
+ *
+ * <p>Adjacent chunks owned by the same shard are merged into one range. Each range is read through
+ * mongos, which routes on the query filter only: the min/max bounds select the range, and a shard
+ * key predicate from {@link KeyRange#getShardFilter()} targets the shards owning it. Ranges whose
+ * bounds differ in BSON type, and the open ended first and last ones, are broadcast to all shards,
+ * each returning only the documents it owns.
+ *
+ * <p>Hashed shard keys are not partitioned, their chunk bounds are hash values no query predicate
+ * can target, and the server refuses to sort on them.
+ */
+public class SourceChunkPartitioner {
+  private static final Logger logger = LoggerFactory.getLogger(SourceChunkPartitioner.class);
+
+  private final MongoClient sourceClient;
+
+  public SourceChunkPartitioner(MongoClient sourceClient) {
+    this.sourceClient = sourceClient;
+  }
+
+  /**
+   * @return true if the source is a mongos
+   */
+  public boolean isSourceSharded() {
+    BsonDocument hello = sourceClient.getDatabase("admin")
+        .runCommand(new BsonDocument("hello", new BsonInt32(1)), BsonDocument.class);
+    return "isdbgrid".equals(hello.getString("msg", new BsonString("")).getValue());
+  }
+
+  /**
+   * @return chunk-aligned ranges tagged with their shard, empty if the collection is not sharded
+   */
+  public List<KeyRange> partition(String database, String collection) {
+    String namespace = database + "." + collection;
+    BsonDocument metadata = sourceClient.getDatabase("config")
+        .getCollection("collections", BsonDocument.class)
+        .find(Filters.eq("_id", namespace)).first();
+    if (metadata == null || metadata.getBoolean("dropped", BsonBoolean.FALSE).getValue()) {
+      return Collections.emptyList();
+    }
+
+    BsonDocument keyPattern = metadata.getDocument("key");
+    if (keyPattern.values().stream().anyMatch(BsonValue::isString)) {
+      logger.info("{} is sharded on hashed key {}, copying it as a whole", namespace,
+          keyPattern.toJson());
+      return Collections.emptyList();
+    }
+    if (!ShardKeys.hasIndex(sourceClient, database, collection, keyPattern)) {
+      logger.info("No index exactly on shard key {} of {}, copying it as a whole",
+          keyPattern.toJson(), namespace);
+      return Collections.emptyList();
+    }
+
+    // Chunks are keyed by collection uuid since 5.0, by namespace before
+    BsonValue uuid = metadata.get("uuid");
+    List<BsonDocument> chunks = sourceClient.getDatabase("config")
+        .getCollection("chunks", BsonDocument.class)
+        .find(uuid != null ? Filters.eq("uuid", uuid) : Filters.eq("ns", namespace))
+        .sort(Sorts.ascending("min"))
+        .into(new ArrayList<>());
+    if (chunks.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    List<BsonDocument[]> bounds = new ArrayList<>();
+    List<String> owners = new ArrayList<>();
+    List<Integer> chunkCounts = new ArrayList<>();
+    for (BsonDocument chunk : chunks) {
+      String shard = chunk.getString("shard").getValue();
+      int last = owners.size() - 1;
+      if (last >= 0 && owners.get(last).equals(shard)) {
+        bounds.get(last)[1] = chunk.getDocument("max");
+        chunkCounts.set(last, chunkCounts.get(last) + 1);
+      } else {
+        bounds.add(new BsonDocument[] {chunk.getDocument("min"), chunk.getDocument("max")});
+        owners.add(shard);
+        chunkCounts.add(1);
+      }
+    }
+
+    long count = sourceClient.getDatabase(database).getCollection(collection)
+        .estimatedDocumentCount();
+    List<KeyRange> ranges = new ArrayList<>();
+    for (int i = 0; i < bounds.size(); i++) {
+      ranges.add(new KeyRange(keyPattern,
+          i == 0 ? null : bounds.get(i)[0],
+          i == bounds.size() - 1 ? null : bounds.get(i)[1],
+          count * chunkCounts.get(i) / chunks.size(),
+          owners.get(i)));
+    }
+    logger.info("Partitioned {} into {} ranges from {} chunks", namespace, ranges.size(),
+        chunks.size());
+    return ranges;
+  }
+}
@@ -0,0 +1,196 @@
+package app.migrator.csfle.sharding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonMaxKey;
+import org.bson.BsonMinKey;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+
+import app.migrator.csfle.config.Configuration.ShardingConfig;
+import app.migrator.csfle.planning.SplitPoints;
+import app.migrator.csfle.worker.KeyRange;
+
+/**
+ * Shards a target collection before it is loaded and spreads pre-split chunks over all shards, so
+ * every shard takes writes from the first batch instead of waiting for the balancer.
+ *
+ * <p>Split points are quantiles of a {@code $sample} of the source shard key values, see
+ * {@link SplitPoints}. The returned ranges match the target chunks, so the collection can be
+ * copied by one task per chunk.
+ */
+public class TargetPreSplitter {
+  private static final Logger logger = LoggerFactory.getLogger(TargetPreSplitter.class);
+
+  private final MongoClient sourceClient;
+  // Plain client, the sharding admin commands are not supported by auto encryption
+  private final MongoClient targetAdminClient;
+  private final ShardingConfig config;
+
+  public TargetPreSplitter(MongoClient sourceClient, MongoClient targetAdminClient,
+      ShardingConfig config) {
+    this.sourceClient = sourceClient;
+    this.targetAdminClient = targetAdminClient;
+    this.config = config;
+  }
+
+  /**
+   * @return true if the target is a mongos
+   */
+  public boolean isTargetSharded() {
+    BsonDocument hello = targetAdminClient.getDatabase("admin")
+        .runCommand(new BsonDocument("hello", new BsonInt32(1)), BsonDocument.class);
+    return "isdbgrid".equals(hello.getString("msg", new BsonString("")).getValue());
+  }
+
+  /**
+   * Shards and pre-splits the target collection.
+   *
+   * @param target namespace to shard on the target, e.g. a staging collection
+   * @param encryptedFields encrypted paths of the namespace
+   * @return source ranges matching the target chunks, empty when the collection should be copied
+   *     as a whole
+   */
+  public List<KeyRange> preSplit(String database, String collection, MongoNamespace target,
+      Map<String, String> encryptedFields) {
+    String namespace = database + "." + collection;
+    String targetNamespace = target.getFullName();
+    BsonDocument shardKey = config.getShardKeyFor(namespace);
+    List<String> fields = new ArrayList<>(shardKey.keySet());
+
+    for (String field : fields) {
+      String encrypted = findEncryptedOverlap(field, encryptedFields);
+      if (encrypted != null) {
+        logger.warn("Not pre-splitting {}: shard key field '{}' overlaps '{}', encrypted on the target",
+            namespace, field, encrypted);
+        return Collections.emptyList();
+      }
+    }
+
+    if (isCollectionSharded(targetNamespace)) {
+      logger.info("{} is already sharded on the target, keeping its chunks", targetNamespace);
+      return Collections.emptyList();
+    }
+
+    List<String> shards = listShards();
+    MongoDatabase admin = targetAdminClient.getDatabase("admin");
+    runIgnoringErrors(admin,
+        new BsonDocument("enableSharding", new BsonString(target.getDatabaseName())));
+    admin.runCommand(new BsonDocument("shardCollection", new BsonString(targetNamespace))
+        .append("key", shardKey));
+
+    // Hashed keys are already pre-split and distributed by shardCollection
+    if (shardKey.values().stream().anyMatch(BsonValue::isString)) {
+      logger.info("Sharded {} on hashed key {}", namespace, shardKey.toJson());
+      return Collections.emptyList();
+    }
+
+    int chunks = shards.size() * config.getChunksPerShard();
+    long count = sourceClient.getDatabase(database).getCollection(collection)
+        .estimatedDocumentCount();
+    List<BsonDocument> splitPoints = SplitPoints.sample(
+        sourceClient.getDatabase(database).getCollection(collection, BsonDocument.class),
+        fields, chunks, config.getSamplesPerChunk(), count);
+    if (splitPoints.isEmpty()) {
+      logger.info("Sharded {} on {}, too few documents to pre-split", namespace, shardKey.toJson());
+      return Collections.emptyList();
+    }
+
+    for (BsonDocument middle : splitPoints) {
+      admin.runCommand(new BsonDocument("split", new BsonString(targetNamespace)).append("middle", middle));
+    }
+
+    List<KeyRange> ranges = new ArrayList<>();
+    int failedMoves = 0;
+    long perRange = count / (splitPoints.size() + 1);
+    for (int i = 0; i <= splitPoints.size(); i++) {
+      BsonDocument min = i == 0 ? null : splitPoints.get(i - 1);
+      BsonDocument max = i == splitPoints.size() ? null : splitPoints.get(i);
+      ranges.add(new KeyRange(shardKey, min, max, perRange));
+
+      // Contiguous blocks of chunks per shard
+      String shard = shards.get(i * shards.size() / (splitPoints.size() + 1));
+      BsonArray bounds = new BsonArray(Arrays.asList(
+          min == null ? bound(fields, new BsonMinKey()) : min,
+          max == null ? bound(fields, new BsonMaxKey()) : max));
+      try {
+        admin.runCommand(new BsonDocument("moveChunk", new BsonString(targetNamespace))
+            .append("bounds", bounds)
+            .append("to", new BsonString(shard)));
+      } catch (MongoCommandException e) {
+        // The chunk stays where it is, the balancer may still move it later
+        failedMoves++;
+        logger.warn("Moving chunk {} of {} to {} failed: {}", bounds, targetNamespace,
+            shard, e.getErrorMessage());
+      }
+    }
+    logger.info("Pre-split {} into {} chunks over {} shards, {} chunk move(s) failed", namespace,
+        ranges.size(), shards.size(), failedMoves);
+
+    if (!ShardKeys.hasIndex(sourceClient, database, collection, shardKey)) {
+      logger.info("No source index on {} for {}, copying it as a whole", shardKey.toJson(), namespace);
+      return Collections.emptyList();
+    }
+    return ranges;
+  }
+
+  /**
+   * @return encrypted path equal to the shard key field, inside it or containing it, e.g.
+   *     {@code customer} for {@code customer.id}, or null if none
+   */
+  private static String findEncryptedOverlap(String field, Map<String, String> encryptedFields) {
+    for (String encrypted : encryptedFields.keySet()) {
+      if (field.equals(encrypted) || field.startsWith(encrypted + ".")
+          || encrypted.startsWith(field + ".")) {
+        return encrypted;
+      }
+    }
+    return null;
+  }
+
+  private static BsonDocument bound(List<String> fields, BsonValue value) {
+    BsonDocument bound = new BsonDocument();
+    for (String field : fields) {
+      bound.append(field, value);
+    }
+    return bound;
+  }
+
+  private boolean isCollectionSharded(String namespace) {
+    return targetAdminClient.getDatabase("config").getCollection("collections", BsonDocument.class)
+        .find(new BsonDocument("_id", new BsonString(namespace))).first() != null;
+  }
+
+  private List<String> listShards() {
+    BsonDocument result = targetAdminClient.getDatabase("admin")
+        .runCommand(new BsonDocument("listShards", new BsonInt32(1)), BsonDocument.class);
+    List<String> shards = new ArrayList<>();
+    for (BsonValue shard : result.getArray("shards")) {
+      shards.add(shard.asDocument().getString("_id").getValue());
+    }
+    return shards;
+  }
+
+  private static void runIgnoringErrors(MongoDatabase admin, BsonDocument command) {
+    try {
+      admin.runCommand(command);
+    } catch (MongoCommandException e) {
+      // e.g. sharding already enabled
+      logger.debug("{} failed: {}", command.getFirstKey(), e.getErrorMessage());
+    }
+  }
+}
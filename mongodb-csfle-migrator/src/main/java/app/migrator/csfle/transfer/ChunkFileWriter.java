@@ -0,0 +1,228 @@
+package app.migrator.csfle.transfer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.function.IntSupplier;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import app.migrator.csfle.config.Configuration.ExportConfig;
+
+/**
+ * Writes the encrypted documents of one migration task into a sequence of chunk files. Each chunk
+ * is concatenated BSON, optionally gzip compressed, written through a direct buffer to a
+ * {@link FileChannel}. A chunk is written as {@code .part}, renamed when complete and then
+ * described by its {@link ChunkManifest}.
+ */
+public class ChunkFileWriter implements AutoCloseable {
+  private static final Logger logger = LoggerFactory.getLogger(ChunkFileWriter.class);
+  private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+  // Minimal gzip member header: deflate, no name, no mtime, unknown OS
+  private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+  private final ExportConfig config;
+  private final DocumentEncryptor encryptor;
+  private final Path directory;
+  private final String sourceNamespace;
+  private final String namespace;
+  // Next chunk number of the namespace, shared by all tasks writing it
+  private final IntSupplier nextChunk;
+  private final boolean gzip;
+  private final ByteBuffer buffer;
+
+  private FileChannel channel;
+  private Path partFile;
+  private String fileName;
+  private Deflater deflater;
+  private final CRC32 crc = new CRC32();
+  private long documents;
+  private long bsonBytes;
+  private long fileBytes;
+  private int failedCount = 0;
+
+  public ChunkFileWriter(ExportConfig config, DocumentEncryptor encryptor, Path directory,
+      String sourceNamespace, String namespace, IntSupplier nextChunk) {
+    this.config = config;
+    this.encryptor = encryptor;
+    this.directory = directory;
+    this.sourceNamespace = sourceNamespace;
+    this.namespace = namespace;
+    this.nextChunk = nextChunk;
+    this.gzip = "gzip".equals(config.getCompression());
+    this.buffer = ByteBuffer.allocateDirect(config.getBufferSizeBytes());
+  }
+
+  /**
+   * Encrypts and appends a batch. Documents that fail to encrypt are logged and counted.
+   */
+  public void writeBatch(List<Document> batch) {
+    for (Document document : batch) {
+      BsonDocument encrypted;
+      try {
+        encrypted = encryptor.encrypt(document);
+      } catch (RuntimeException e) {
+        failedCount++;
+        logger.error("[{}] Cannot encrypt document {}: {}", sourceNamespace, document.get("_id"),
+            e.getMessage());
+        continue;
+      }
+      write(new RawBsonDocument(encrypted, CODEC).getByteBuffer().asNIO());
+    }
+  }
+
+  public int getFailedCount() {
+    return failedCount;
+  }
+
+  private void write(ByteBuffer bson) {
+    try {
+      if (channel == null) {
+        open();
+      }
+      documents++;
+      bsonBytes += bson.remaining();
+      crc.update(bson.duplicate());
+      if (gzip) {
+        deflater.setInput(bson);
+        while (!deflater.needsInput()) {
+          deflate(Deflater.NO_FLUSH);
+        }
+      } else {
+        put(bson);
+      }
+      if (bsonBytes >= config.getChunkSizeBytes()) {
+        finishChunk();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot write chunk " + partFile, e);
+    }
+  }
+
+  private void open() throws IOException {
+    Files.createDirectories(directory);
+    fileName = String.format("chunk-%05d.bson%s", nextChunk.getAsInt(), gzip ? ".gz" : "");
+    partFile = directory.resolve(fileName + ".part");
+    channel = FileChannel.open(partFile, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    crc.reset();
+    documents = 0;
+    bsonBytes = 0;
+    fileBytes = 0;
+    if (gzip) {
+      deflater = new Deflater(config.getCompressionLevel(), true);
+      put(ByteBuffer.wrap(GZIP_HEADER));
+    }
+  }
+
+  private void put(ByteBuffer bytes) throws IOException {
+    while (bytes.hasRemaining()) {
+      if (!buffer.hasRemaining()) {
+        drain();
+      }
+      int length = Math.min(bytes.remaining(), buffer.remaining());
+      ByteBuffer slice = bytes.duplicate();
+      slice.limit(slice.position() + length);
+      buffer.put(slice);
+      bytes.position(bytes.position() + length);
+    }
+  }
+
+  private void deflate(int flush) throws IOException {
+    deflater.deflate(buffer, flush);
+    if (!buffer.hasRemaining()) {
+      drain();
+    }
+  }
+
+  private void drain() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      fileBytes += channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  private void finishChunk() throws IOException {
+    if (gzip) {
+      deflater.finish();
+      while (!deflater.finished()) {
+        deflate(Deflater.NO_FLUSH);
+      }
+      deflater.end();
+      ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+      trailer.putInt((int) crc.getValue()).putInt((int) bsonBytes).flip();
+      put(trailer);
+    }
+    drain();
+    channel.force(false);
+    channel.close();
+    channel = null;
+    Files.move(partFile, directory.resolve(fileName), StandardCopyOption.ATOMIC_MOVE);
+
+    ChunkManifest manifest = new ChunkManifest();
+    manifest.setSourceNamespace(sourceNamespace);
+    manifest.setNamespace(namespace);
+    manifest.setFile(fileName);
+    manifest.setCompression(config.getCompression());
+    manifest.setDocuments(documents);
+    manifest.setBsonBytes(bsonBytes);
+    manifest.setFileBytes(fileBytes);
+    manifest.setCrc32(crc.getValue());
+    manifest.setCreatedAt(Instant.now().toString());
+    manifest.write(directory.resolve(fileName.substring(0, fileName.indexOf('.'))
+        + ChunkManifest.SUFFIX));
+    logger.info("[{}] Wrote {} with {} documents, {} bytes", namespace, fileName, documents,
+        fileBytes);
+  }
+
+  /**
+   * Completes the current chunk.
+   */
+  @Override
+  public void close() {
+    if (channel == null) {
+      return;
+    }
+    try {
+      finishChunk();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot complete chunk " + partFile, e);
+    }
+  }
+
+  /**
+   * Drops the current chunk, e.g. after a failed read, so no partial data is loaded.
+   */
+  public void abort() {
+    if (channel == null) {
+      return;
+    }
+    try {
+      channel.close();
+      Files.deleteIfExists(partFile);
+      if (deflater != null) {
+        deflater.end();
+      }
+    } catch (IOException e) {
+      logger.warn("Cannot remove incomplete chunk {}: {}", partFile, e.getMessage());
+    } finally {
+      channel = null;
+    }
+  }
+}
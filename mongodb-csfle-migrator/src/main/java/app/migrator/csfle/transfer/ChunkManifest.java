@@ -0,0 +1,62 @@
+package app.migrator.csfle.transfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import lombok.Data;
+
+/**
+ * Description of one encrypted chunk file, written next to it as {@code <chunk>.manifest.json}
+ * once the chunk is complete. A chunk without a manifest is unfinished and must not be loaded.
+ */
+@Data
+public class ChunkManifest {
+  public static final String SUFFIX = ".manifest.json";
+  private static final ObjectMapper MAPPER = new ObjectMapper()
+      .enable(SerializationFeature.INDENT_OUTPUT)
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  private int version = 1;
+  private String sourceNamespace;
+  // Namespace to load the chunk into
+  private String namespace;
+  // Data file name, relative to the manifest
+  private String file;
+  private String compression;
+  private long documents;
+  // Uncompressed size: concatenated BSON documents
+  private long bsonBytes;
+  private long fileBytes;
+  // CRC32 of the uncompressed BSON
+  private long crc32;
+  private String createdAt;
+
+  /**
+   * Writes the manifest atomically, so readers never see a partial one.
+   */
+  public void write(Path path) {
+    try {
+      Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+      MAPPER.writeValue(tmp.toFile(), this);
+      Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot write manifest " + path, e);
+    }
+  }
+
+  public static ChunkManifest read(File file) {
+    try {
+      return MAPPER.readValue(file, ChunkManifest.class);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot read manifest " + file, e);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package app.migrator.csfle.transfer;
+
+import java.util.Map;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+
+import com.mongodb.client.model.vault.EncryptOptions;
+import com.mongodb.client.vault.ClientEncryption;
+
+/**
+ * Applies a CSFLE JSON schema to a document with explicit encryption, producing the same
+ * ciphertext layout auto encryption writes to the target: every field marked {@code encrypt} is
+ * replaced by its encrypted value, with the keyId and algorithm of the field or inherited from
+ * {@code encryptMetadata}. Used where there is no target cluster to auto encrypt against.
+ */
+public class DocumentEncryptor {
+  private final ClientEncryption clientEncryption;
+  // null when the namespace has no schema, documents are then passed through
+  private final BsonDocument schema;
+
+  public DocumentEncryptor(ClientEncryption clientEncryption, BsonDocument schema) {
+    this.clientEncryption = clientEncryption;
+    this.schema = schema;
+  }
+
+  /**
+   * @return BSON copy of the document with its encrypted fields replaced by ciphertext
+   */
+  public BsonDocument encrypt(Document document) {
+    BsonDocument encrypted = document.toBsonDocument();
+    if (schema != null) {
+      // keyId JSON pointers are resolved against the plaintext document
+      encrypt(schema, encrypted, document.toBsonDocument(), null, null);
+    }
+    return encrypted;
+  }
+
+  private void encrypt(BsonDocument node, BsonDocument document, BsonDocument original,
+      BsonValue inheritedKeyId, String inheritedAlgorithm) {
+    BsonDocument metadata = node.getDocument("encryptMetadata", null);
+    BsonValue keyId = metadata != null && metadata.containsKey("keyId")
+        ? metadata.get("keyId")
+        : inheritedKeyId;
+    String algorithm = metadata != null && metadata.containsKey("algorithm")
+        ? metadata.getString("algorithm").getValue()
+        : inheritedAlgorithm;
+
+    BsonDocument properties = node.getDocument("properties", null);
+    if (properties == null) {
+      return;
+    }
+    for (Map.Entry<String, BsonValue> property : properties.entrySet()) {
+      BsonValue value = document.get(property.getKey());
+      if (value == null || !property.getValue().isDocument()) {
+        continue;
+      }
+      BsonDocument child = property.getValue().asDocument();
+      BsonDocument encrypt = child.getDocument("encrypt", null);
+      if (encrypt != null) {
+        BsonValue fieldKeyId = encrypt.containsKey("keyId") ? encrypt.get("keyId") : keyId;
+        String fieldAlgorithm = encrypt.containsKey("algorithm")
+            ? encrypt.getString("algorithm").getValue()
+            : algorithm;
+        document.put(property.getKey(),
+            clientEncryption.encrypt(value, options(fieldKeyId, fieldAlgorithm, original)));
+      } else if (value.isDocument()) {
+        encrypt(child, value.asDocument(), original, keyId, algorithm);
+      }
+    }
+  }
+
+  private static EncryptOptions options(BsonValue keyId, String algorithm, BsonDocument original) {
+    EncryptOptions options = new EncryptOptions(algorithm);
+    if (keyId.isArray()) {
+      return options.keyId(keyId.asArray().get(0).asBinary());
+    }
+    // JSON pointer to the keyAltName, e.g. "/tenant"
+    BsonValue keyAltName = original;
+    for (String part : keyId.asString().getValue().substring(1).split("/")) {
+      keyAltName = keyAltName != null && keyAltName.isDocument()
+          ? keyAltName.asDocument().get(part)
+          : null;
+    }
+    if (keyAltName == null || !keyAltName.isString()) {
+      throw new IllegalArgumentException(
+          "keyId pointer " + keyId.asString().getValue() + " does not resolve to a string");
+    }
+    return options.keyAltName(keyAltName.asString().getValue());
+  }
+}
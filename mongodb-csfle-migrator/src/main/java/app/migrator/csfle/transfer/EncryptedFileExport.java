@@ -0,0 +1,75 @@
+package app.migrator.csfle.transfer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoNamespace;
+
+import app.migrator.csfle.config.Configuration;
+import app.migrator.csfle.service.CryptClientPool;
+
+/**
+ * Offline mode of the migration: instead of writing to the target cluster, every task encrypts its
+ * documents explicitly and writes them to chunk files under
+ * {@code <directory>/<database>/<collection>/}, named after the target namespace. The files are
+ * loaded later with the {@code import} command.
+ */
+public class EncryptedFileExport {
+  private static final Logger logger = LoggerFactory.getLogger(EncryptedFileExport.class);
+
+  private final Configuration config;
+  private final CryptClientPool cryptClients;
+  private final Path directory;
+  private final Map<String, AtomicInteger> chunkNumbers = new ConcurrentHashMap<>();
+  private final AtomicInteger nextClient = new AtomicInteger();
+
+  /**
+   * @throws IllegalArgumentException if the directory already holds files, chunks of different
+   *     runs must not be mixed
+   */
+  public EncryptedFileExport(Configuration config, CryptClientPool cryptClients) {
+    this.config = config;
+    this.cryptClients = cryptClients;
+    this.directory = Paths.get(config.getExport().getDirectory());
+    try {
+      Files.createDirectories(directory);
+      try (Stream<Path> files = Files.list(directory)) {
+        if (files.findAny().isPresent()) {
+          throw new IllegalArgumentException("Export directory " + directory + " is not empty");
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot create export directory " + directory, e);
+    }
+    logger.info("Exporting encrypted documents to {} ({} compression)", directory,
+        config.getExport().getCompression());
+  }
+
+  /**
+   * @return writer for one task copying the given source collection
+   */
+  public ChunkFileWriter openWriter(String database, String collection) {
+    MongoNamespace target = config.getMigrationConfig() == null
+        ? new MongoNamespace(database, collection)
+        : config.getMigrationConfig().getTargetNamespace(database, collection);
+    AtomicInteger chunks =
+        chunkNumbers.computeIfAbsent(target.getFullName(), ns -> new AtomicInteger());
+    DocumentEncryptor encryptor = new DocumentEncryptor(
+        cryptClients.getClientEncryption(nextClient.getAndIncrement()),
+        config.getSchema() == null ? null : config.getSchema().getSchema(target.getFullName()));
+
+    return new ChunkFileWriter(config.getExport(), encryptor,
+        directory.resolve(target.getDatabaseName()).resolve(target.getCollectionName()),
+        database + "." + collection, target.getFullName(), chunks::getAndIncrement);
+  }
+}
@@ -0,0 +1,309 @@
+package app.migrator.csfle.transfer;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+
+import app.migrator.csfle.monitor.CollectionProgress;
+import app.migrator.csfle.monitor.MigrationMonitor;
+
+/**
+ * Loads the chunk files written by {@code migrate --to-file} into the target. Documents are
+ * already encrypted, so they are inserted as raw BSON through a plain client, without decoding
+ * or re-encoding.
+ *
+ * <p>Uncompressed chunks are memory-mapped. Each batch is copied out of the mapping once, and its
+ * documents are {@link RawBsonDocument} views over that copy. Gzip chunks are streamed through an
+ * inflater into the same batch layout. Chunks are loaded in parallel with unordered inserts.
+ *
+ * <p>With verification on, the CRC32 of a whole chunk is checked in a first pass, so a corrupt
+ * chunk is rejected before any of its documents reaches the target.
+ */
+public class EncryptedFileImporter {
+  private static final Logger logger = LoggerFactory.getLogger(EncryptedFileImporter.class);
+  // Mapped window, documents are at most 16 MB so one always fits
+  private static final long MAX_WINDOW = 1L << 30;
+  // Length prefix and terminating null of an empty document
+  private static final int MIN_DOCUMENT_LENGTH = 5;
+  private static final InsertManyOptions UNORDERED = new InsertManyOptions().ordered(false);
+
+  private final MongoClient targetClient;
+  private final MigrationMonitor monitor;
+  private final int threads;
+  private final int batchSize;
+  private final boolean verify;
+  private final AtomicLong failedDocuments = new AtomicLong();
+
+  /**
+   * @param targetClient plain client, the documents are already encrypted
+   * @param batchSize documents per insertMany
+   * @param verify check the CRC32 of every chunk against its manifest before loading it
+   */
+  public EncryptedFileImporter(MongoClient targetClient, MigrationMonitor monitor, int threads,
+      int batchSize, boolean verify) {
+    this.targetClient = targetClient;
+    this.monitor = monitor;
+    this.threads = threads;
+    this.batchSize = batchSize;
+    this.verify = verify;
+  }
+
+  /**
+   * Loads every complete chunk below the directory.
+   *
+   * @return number of documents that failed to insert
+   * @throws IllegalStateException if a chunk could not be read or does not match its manifest
+   */
+  public long importDirectory(String directory) throws InterruptedException {
+    List<Path> manifests;
+    try (Stream<Path> files = Files.walk(Paths.get(directory))) {
+      manifests = files
+          .filter(path -> path.getFileName().toString().endsWith(ChunkManifest.SUFFIX))
+          .sorted()
+          .collect(Collectors.toList());
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot list " + directory, e);
+    }
+    if (manifests.isEmpty()) {
+      throw new IllegalArgumentException("No chunk manifests found in " + directory);
+    }
+
+    List<ChunkManifest> chunks = new ArrayList<>();
+    for (Path path : manifests) {
+      chunks.add(ChunkManifest.read(path.toFile()));
+    }
+    chunks.stream()
+        .collect(Collectors.groupingBy(ChunkManifest::getNamespace, Collectors.counting()))
+        .forEach((namespace, count) -> monitor.getProgress(namespace).setPartitions(count.intValue()));
+    logger.info("Importing {} chunk(s) from {} with {} thread(s)", chunks.size(), directory, threads);
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < chunks.size(); i++) {
+      ChunkManifest manifest = chunks.get(i);
+      File file = manifests.get(i).resolveSibling(manifest.getFile()).toFile();
+      futures.add(executor.submit(() -> importChunk(manifest, file)));
+    }
+    executor.shutdown();
+    int failedChunks = 0;
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        failedChunks++;
+        logger.error("Chunk import failed: {}", e.getCause().getMessage(), e.getCause());
+      }
+    }
+    executor.awaitTermination(1, TimeUnit.MINUTES);
+    if (failedChunks > 0) {
+      throw new IllegalStateException(failedChunks + " of " + chunks.size() + " chunk(s) failed");
+    }
+    return failedDocuments.get();
+  }
+
+  private void importChunk(ChunkManifest manifest, File file) {
+    CollectionProgress progress = monitor.getProgress(manifest.getNamespace());
+    progress.start(manifest.getDocuments());
+    MongoNamespace namespace = new MongoNamespace(manifest.getNamespace());
+    MongoCollection<RawBsonDocument> collection = targetClient
+        .getDatabase(namespace.getDatabaseName())
+        .getCollection(namespace.getCollectionName(), RawBsonDocument.class);
+
+    long start = System.currentTimeMillis();
+    try {
+      if (verify) {
+        verifyChecksum(manifest, file);
+      }
+      long documents = "gzip".equals(manifest.getCompression())
+          ? importCompressed(manifest, file, collection, progress)
+          : importMapped(manifest, file, collection, progress);
+      if (documents != manifest.getDocuments()) {
+        throw new IllegalStateException(file + " holds " + documents + " documents, manifest says "
+            + manifest.getDocuments());
+      }
+      progress.complete();
+      logger.info("[{}] Loaded {} ({} documents) in {} ms", manifest.getNamespace(),
+          manifest.getFile(), documents, System.currentTimeMillis() - start);
+    } catch (IOException e) {
+      progress.fail();
+      throw new UncheckedIOException("Cannot read " + file, e);
+    } catch (RuntimeException e) {
+      progress.fail();
+      throw e;
+    }
+  }
+
+  private long importMapped(ChunkManifest manifest, File file,
+      MongoCollection<RawBsonDocument> collection, CollectionProgress progress) throws IOException {
+    long documents = 0;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size != manifest.getBsonBytes()) {
+        throw new IllegalStateException(file + " has " + size + " bytes, manifest says "
+            + manifest.getBsonBytes());
+      }
+      long position = 0;
+      while (position < size) {
+        MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+            Math.min(size - position, MAX_WINDOW));
+        window.order(ByteOrder.LITTLE_ENDIAN);
+        // Whole documents of this window, the rest is mapped again with the next one
+        int consumed = 0;
+        while (window.remaining() >= 4) {
+          int batchStart = window.position();
+          List<Integer> offsets = new ArrayList<>(batchSize);
+          while (offsets.size() < batchSize && window.remaining() >= 4) {
+            int length = window.getInt(window.position());
+            if (length < MIN_DOCUMENT_LENGTH) {
+              throw new IllegalStateException("Invalid document length " + length + " at offset "
+                  + (position + window.position()) + " of " + file);
+            }
+            if (length > window.remaining()) {
+              break;
+            }
+            offsets.add(window.position() - batchStart);
+            window.position(window.position() + length);
+          }
+          if (offsets.isEmpty()) {
+            break;
+          }
+          byte[] bytes = new byte[window.position() - batchStart];
+          window.duplicate().position(batchStart).get(bytes);
+          insert(collection, views(bytes, offsets), progress);
+          documents += offsets.size();
+          consumed = window.position();
+        }
+        if (consumed == 0) {
+          throw new IllegalStateException("Truncated document at offset " + position + " of " + file);
+        }
+        position += consumed;
+      }
+    }
+    return documents;
+  }
+
+  private long importCompressed(ChunkManifest manifest, File file,
+      MongoCollection<RawBsonDocument> collection, CollectionProgress progress) throws IOException {
+    long documents = 0;
+    try (InputStream stream = new GZIPInputStream(
+        new BufferedInputStream(Files.newInputStream(file.toPath()), 1 << 20), 1 << 20)) {
+      DataInputStream in = new DataInputStream(stream);
+      byte[] header = new byte[4];
+      boolean more = true;
+      while (more) {
+        List<byte[]> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize) {
+          try {
+            in.readFully(header);
+          } catch (EOFException e) {
+            more = false;
+            break;
+          }
+          int length = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getInt();
+          if (length < MIN_DOCUMENT_LENGTH) {
+            throw new IllegalStateException("Invalid document length " + length + " in " + file);
+          }
+          byte[] bytes = new byte[length];
+          System.arraycopy(header, 0, bytes, 0, 4);
+          in.readFully(bytes, 4, length - 4);
+          batch.add(bytes);
+        }
+        if (!batch.isEmpty()) {
+          List<RawBsonDocument> views = new ArrayList<>(batch.size());
+          for (byte[] bytes : batch) {
+            views.add(new RawBsonDocument(bytes));
+          }
+          insert(collection, views, progress);
+          documents += batch.size();
+        }
+      }
+    }
+    return documents;
+  }
+
+  /**
+   * Checks the CRC32 of the chunk's BSON against its manifest, reading the mapped file or
+   * inflating the gzip stream once without parsing documents.
+   */
+  private void verifyChecksum(ChunkManifest manifest, File file) throws IOException {
+    CRC32 crc = new CRC32();
+    if ("gzip".equals(manifest.getCompression())) {
+      try (InputStream stream = new GZIPInputStream(
+          new BufferedInputStream(Files.newInputStream(file.toPath()), 1 << 20), 1 << 20)) {
+        byte[] buffer = new byte[1 << 20];
+        for (int read = stream.read(buffer); read >= 0; read = stream.read(buffer)) {
+          crc.update(buffer, 0, read);
+        }
+      }
+    } else {
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        long size = channel.size();
+        for (long position = 0; position < size; position += MAX_WINDOW) {
+          crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+              Math.min(size - position, MAX_WINDOW)));
+        }
+      }
+    }
+    if (crc.getValue() != manifest.getCrc32()) {
+      throw new IllegalStateException("CRC32 mismatch in " + file + ", nothing was loaded from it");
+    }
+  }
+
+  private static List<RawBsonDocument> views(byte[] bytes, List<Integer> offsets) {
+    List<RawBsonDocument> views = new ArrayList<>(offsets.size());
+    for (int i = 0; i < offsets.size(); i++) {
+      int end = i + 1 < offsets.size() ? offsets.get(i + 1) : bytes.length;
+      views.add(new RawBsonDocument(bytes, offsets.get(i), end - offsets.get(i)));
+    }
+    return views;
+  }
+
+  private void insert(MongoCollection<RawBsonDocument> collection, List<RawBsonDocument> batch,
+      CollectionProgress progress) {
+    try {
+      collection.insertMany(batch, UNORDERED);
+      progress.recordBatch(batch.size(), 0);
+    } catch (MongoBulkWriteException e) {
+      // e.g. duplicate keys when a chunk is loaded twice, the other documents are inserted
+      int failed = e.getWriteErrors().size();
+      failedDocuments.addAndGet(failed);
+      progress.recordBatch(batch.size() - failed, failed);
+      logger.error("[{}] {} of {} documents failed, first error: {}", collection.getNamespace(),
+          failed, batch.size(), e.getWriteErrors().get(0).getMessage());
+    }
+  }
+}
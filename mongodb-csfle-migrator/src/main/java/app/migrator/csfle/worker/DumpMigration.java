@@ -0,0 +1,290 @@
+package app.migrator.csfle.worker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoNamespace;
+
+import app.migrator.csfle.config.Configuration;
+import app.migrator.csfle.monitor.CollectionProgress;
+import app.migrator.csfle.monitor.MigrationMonitor;
+import app.migrator.csfle.service.CryptClientPool;
+
+/**
+ * Bulk copy from a mongodump instead of a source cluster. Documents go through the same
+ * auto-encrypting {@link MigrationTargetWriter} as a cluster copy, one pipeline per namespace.
+ *
+ * <p>Archive blocks are demultiplexed by a single reader into a bounded queue per namespace, each
+ * drained by its own writer thread, so every collection mongodump interleaved is written in
+ * parallel. Directory dumps are copied one collection per task on the worker pool. Batches hold
+ * their size in the {@link MemoryGovernor} until written.
+ */
+public class DumpMigration {
+  private static final Logger logger = LoggerFactory.getLogger(DumpMigration.class);
+  private static final DocumentCodec CODEC = new DocumentCodec();
+  private static final int QUEUED_BATCHES = 4;
+
+  private final Configuration config;
+  private final DumpSourceReader reader;
+  private final CryptClientPool cryptClients;
+  private final MigrationMonitor monitor;
+  private final MemoryGovernor memoryGovernor;
+
+  public DumpMigration(Configuration config, DumpSourceReader reader,
+      CryptClientPool cryptClients, MigrationMonitor monitor, MemoryGovernor memoryGovernor) {
+    this.config = config;
+    this.reader = reader;
+    this.cryptClients = cryptClients;
+    this.monitor = monitor;
+    this.memoryGovernor = memoryGovernor;
+  }
+
+  /**
+   * Copies a directory dump, one task per collection.
+   */
+  public void submitTasks(WorkerManager workerManager, Set<String> namespaces) {
+    for (String namespace : namespaces) {
+      workerManager.submitTask(namespace, () -> {
+        Pipeline pipeline = new Pipeline(namespace);
+        pipeline.start();
+        try {
+          reader.readCollection(namespace, document -> pipeline.add(document));
+          pipeline.finish();
+        } catch (RuntimeException e) {
+          pipeline.fail();
+          throw e;
+        }
+      });
+    }
+  }
+
+  /**
+   * Copies an archive, blocking until every namespace is written.
+   */
+  public void runArchive(Set<String> namespaces) throws InterruptedException {
+    Map<String, Pipeline> pipelines = new HashMap<>();
+    List<Thread> threads = new ArrayList<>();
+
+    try {
+      demultiplex(namespaces, pipelines, threads);
+    } finally {
+      // Unblocks the writer threads of namespaces left open by a read error or a truncated archive
+      for (Pipeline pipeline : pipelines.values()) {
+        pipeline.abort();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    }
+  }
+
+  private void demultiplex(Set<String> namespaces, Map<String, Pipeline> pipelines,
+      List<Thread> threads) throws InterruptedException {
+    reader.readArchive(new DumpSourceReader.Handler() {
+      @Override
+      public void document(String namespace, RawBsonDocument document) throws InterruptedException {
+        if (!namespaces.contains(namespace)) {
+          return;
+        }
+        Pipeline pipeline = pipelines.get(namespace);
+        if (pipeline == null) {
+          pipeline = new Pipeline(namespace);
+          pipeline.start();
+          pipelines.put(namespace, pipeline);
+          Thread thread = new Thread(pipeline::drain, "dump-" + namespace);
+          thread.start();
+          threads.add(thread);
+        }
+        pipeline.enqueue(document);
+      }
+
+      @Override
+      public void end(String namespace) throws InterruptedException {
+        Pipeline pipeline = pipelines.get(namespace);
+        if (pipeline != null) {
+          pipeline.close();
+        } else if (namespaces.contains(namespace)) {
+          // Empty collection
+          new Pipeline(namespace).start();
+          monitor.getProgress(namespace).complete();
+        }
+      }
+    });
+  }
+
+  /**
+   * Raw documents of one batch with their size. Decoding is left to the writing thread.
+   */
+  private static class Batch {
+    private final List<RawBsonDocument> documents = new ArrayList<>();
+    private long bytes = 0;
+  }
+
+  /**
+   * Batches and writes the documents of one namespace, either directly (directory dumps) or
+   * through a queue drained by its own thread (archives).
+   */
+  private class Pipeline {
+    private final String namespace;
+    private final CollectionProgress progress;
+    private final MigrationTargetWriter writer = new MigrationTargetWriter();
+    private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+    private Batch batch = new Batch();
+    private volatile boolean failed = false;
+    private boolean closed = false;
+
+    Pipeline(String namespace) {
+      this.namespace = namespace;
+      this.progress = monitor.getProgress(namespace);
+    }
+
+    void start() {
+      MongoNamespace source = new MongoNamespace(namespace);
+      MongoNamespace target = config.getMigrationConfig() == null
+          ? source
+          : config.getMigrationConfig().getWriteNamespace(
+              source.getDatabaseName(), source.getCollectionName());
+      writer.setup(cryptClients.next(), target.getDatabaseName(), target.getCollectionName());
+      progress.start(0);
+      logger.info("Copying {} from the dump into {}", namespace, target);
+    }
+
+    /**
+     * Directory mode: writes full batches in the calling thread.
+     */
+    void add(RawBsonDocument document) {
+      if (append(document)) {
+        reserveAndWrite(take());
+      }
+    }
+
+    void finish() {
+      reserveAndWrite(take());
+      progress.complete();
+    }
+
+    void fail() {
+      progress.fail();
+    }
+
+    private void reserveAndWrite(Batch full) {
+      try {
+        memoryGovernor.reserve(full.bytes);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while waiting for the memory budget", e);
+      }
+      write(full);
+    }
+
+    /**
+     * Archive mode: hands full batches to the writer thread.
+     */
+    void enqueue(RawBsonDocument document) throws InterruptedException {
+      if (append(document)) {
+        put(take());
+      }
+    }
+
+    void close() throws InterruptedException {
+      put(take());
+      // Empty batch marks the end
+      queue.put(new Batch());
+      closed = true;
+    }
+
+    /**
+     * Ends the namespace as failed when the archive cannot be read to its end.
+     */
+    void abort() throws InterruptedException {
+      if (!closed) {
+        logger.error("{} did not reach its end in the archive", namespace);
+        failed = true;
+        queue.put(new Batch());
+        closed = true;
+      }
+    }
+
+    private void put(Batch full) throws InterruptedException {
+      if (full.documents.isEmpty() || failed) {
+        return;
+      }
+      // The reader holds no reservation, writer threads release theirs as they go
+      memoryGovernor.reserve(full.bytes);
+      queue.put(full);
+    }
+
+    /**
+     * Writer thread of an archive namespace. Keeps draining after a failure, so the archive
+     * reader is never blocked by a dead pipeline.
+     */
+    void drain() {
+      try {
+        for (Batch next = queue.take(); !next.documents.isEmpty(); next = queue.take()) {
+          if (failed) {
+            memoryGovernor.release(next.bytes);
+            continue;
+          }
+          try {
+            write(next);
+          } catch (RuntimeException e) {
+            // Already logged, the rest of the namespace is skipped
+          }
+        }
+        if (failed) {
+          progress.fail();
+        } else {
+          progress.complete();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        progress.fail();
+      }
+    }
+
+    private boolean append(RawBsonDocument document) {
+      batch.documents.add(document);
+      batch.bytes += document.getByteBuffer().remaining();
+      return batch.documents.size() >= config.getWorker().getMaxBatchSize();
+    }
+
+    private Batch take() {
+      Batch full = batch;
+      batch = new Batch();
+      return full;
+    }
+
+    private void write(Batch full) {
+      try {
+        if (full.documents.isEmpty()) {
+          return;
+        }
+        List<Document> documents = new ArrayList<>(full.documents.size());
+        for (RawBsonDocument document : full.documents) {
+          documents.add(document.decode(CODEC));
+        }
+        long failedBefore = writer.getFailedCount();
+        writer.writeBatch(documents);
+        long failedNow = writer.getFailedCount() - failedBefore;
+        progress.recordBatch(documents.size() - failedNow, failedNow);
+      } catch (RuntimeException e) {
+        failed = true;
+        logger.error("Writing {} from the dump failed: {}", namespace, e.getMessage());
+        throw e;
+      } finally {
+        memoryGovernor.release(full.bytes);
+      }
+    }
+  }
+}
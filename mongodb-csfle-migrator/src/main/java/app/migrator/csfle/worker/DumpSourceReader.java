@@ -0,0 +1,229 @@
+package app.migrator.csfle.worker;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads documents straight from mongodump output instead of a source cluster: either an
+ * {@code --archive} file, gzip compressed or not, or a dump directory of
+ * {@code <database>/<collection>.bson[.gz]} files.
+ *
+ * <p>An archive interleaves blocks of several collections. {@link #readArchive(Handler)} walks it
+ * once and hands every document to the handler with its namespace, so the caller can feed one
+ * pipeline per namespace. Directory files are independent and read one collection each.
+ */
+public class DumpSourceReader {
+  private static final Logger logger = LoggerFactory.getLogger(DumpSourceReader.class);
+  private static final int ARCHIVE_MAGIC = 0x8199e26d;
+  private static final int TERMINATOR = -1;
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private final Path path;
+  // Directory mode: BSON file of every namespace
+  private final Map<String, Path> files = new LinkedHashMap<>();
+
+  /**
+   * Receives the documents of an archive in file order.
+   */
+  public interface Handler {
+    void document(String namespace, RawBsonDocument document) throws InterruptedException;
+
+    /**
+     * Called once all documents of the namespace were handed over.
+     */
+    void end(String namespace) throws InterruptedException;
+  }
+
+  public DumpSourceReader(String path) {
+    this.path = Paths.get(path);
+    if (!Files.exists(this.path)) {
+      throw new IllegalArgumentException("Dump not found: " + path);
+    }
+  }
+
+  public boolean isArchive() {
+    return Files.isRegularFile(path);
+  }
+
+  /**
+   * @return collections of the dump, views and time series collections excluded
+   */
+  public List<String> listNamespaces() {
+    return isArchive() ? listArchiveNamespaces() : listDirectoryNamespaces();
+  }
+
+  private List<String> listArchiveNamespaces() {
+    List<String> namespaces = new ArrayList<>();
+    try (DataInputStream in = openArchive()) {
+      // Prelude block: archive header, then one metadata document per collection
+      readDocument(in);
+      for (RawBsonDocument metadata = readDocument(in); metadata != null;
+          metadata = readDocument(in)) {
+        String namespace = metadata.getString("db").getValue() + "."
+            + metadata.getString("collection").getValue();
+        String type = metadata.containsKey("type") ? metadata.getString("type").getValue() : "";
+        if (type.isEmpty() || "collection".equals(type)) {
+          namespaces.add(namespace);
+        } else {
+          logger.warn("Skipping {} {} of the archive", type, namespace);
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot read archive " + path, e);
+    }
+    return namespaces;
+  }
+
+  private List<String> listDirectoryNamespaces() {
+    try (Stream<Path> databases = Files.list(path)) {
+      for (Path database : (Iterable<Path>) databases.filter(Files::isDirectory).sorted()::iterator) {
+        try (Stream<Path> collections = Files.list(database)) {
+          collections.sorted().forEach(file -> {
+            String name = file.getFileName().toString();
+            String collection = name.endsWith(".bson.gz")
+                ? name.substring(0, name.length() - ".bson.gz".length())
+                : name.endsWith(".bson") ? name.substring(0, name.length() - ".bson".length()) : null;
+            if (collection != null) {
+              files.put(unescape(database.getFileName().toString()) + "." + unescape(collection),
+                  file);
+            }
+          });
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot list dump directory " + path, e);
+    }
+    return new ArrayList<>(files.keySet());
+  }
+
+  /**
+   * mongodump percent-escapes characters that are not allowed in file names.
+   */
+  private static String unescape(String name) {
+    return URLDecoder.decode(name.replace("+", "%2B"), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads the whole archive, handing over the documents of every namespace block.
+   */
+  public void readArchive(Handler handler) throws InterruptedException {
+    try (DataInputStream in = openArchive()) {
+      // Skip the prelude block
+      while (readDocument(in) != null) {
+        continue;
+      }
+      RawBsonDocument header;
+      while ((header = readDocument(in, true)) != null) {
+        String namespace = header.getString("db").getValue() + "."
+            + header.getString("collection").getValue();
+        boolean eof = header.containsKey("EOF") && header.getBoolean("EOF").getValue();
+        for (RawBsonDocument document = readDocument(in); document != null;
+            document = readDocument(in)) {
+          handler.document(namespace, document);
+        }
+        if (eof) {
+          handler.end(namespace);
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot read archive " + path, e);
+    }
+  }
+
+  /**
+   * Reads the BSON file of one namespace of a dump directory.
+   */
+  public void readCollection(String namespace, Consumer<RawBsonDocument> consumer) {
+    Path file = files.get(namespace);
+    if (file == null) {
+      throw new IllegalArgumentException(namespace + " is not part of " + path);
+    }
+    try (DataInputStream in = open(file)) {
+      RawBsonDocument document;
+      while ((document = readDocument(in, true)) != null) {
+        consumer.accept(document);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot read " + file, e);
+    }
+  }
+
+  private DataInputStream openArchive() throws IOException {
+    DataInputStream in = open(path);
+    byte[] magic = new byte[4];
+    in.readFully(magic);
+    if (ByteBuffer.wrap(magic).order(ByteOrder.LITTLE_ENDIAN).getInt() != ARCHIVE_MAGIC) {
+      in.close();
+      throw new IllegalArgumentException(path + " is not a mongodump archive");
+    }
+    return in;
+  }
+
+  /**
+   * Opens a file, inflating it when it starts with the gzip magic.
+   */
+  private static DataInputStream open(Path file) throws IOException {
+    InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+    in.mark(2);
+    boolean gzip = in.read() == 0x1f && in.read() == 0x8b;
+    in.reset();
+    if (gzip) {
+      in = new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+    }
+    return new DataInputStream(in);
+  }
+
+  private static RawBsonDocument readDocument(DataInputStream in) throws IOException {
+    return readDocument(in, false);
+  }
+
+  /**
+   * @param endAllowed whether the stream may end here instead of holding a document
+   * @return next document, null at a terminator or an allowed end of stream
+   */
+  private static RawBsonDocument readDocument(DataInputStream in, boolean endAllowed)
+      throws IOException {
+    byte[] header = new byte[4];
+    try {
+      in.readFully(header);
+    } catch (EOFException e) {
+      if (endAllowed) {
+        return null;
+      }
+      throw e;
+    }
+    int length = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    if (length == TERMINATOR) {
+      return null;
+    }
+    if (length < 5) {
+      throw new IOException("Invalid BSON length " + length);
+    }
+    byte[] bytes = new byte[length];
+    System.arraycopy(header, 0, bytes, 0, 4);
+    in.readFully(bytes, 4, length - 4);
+    return new RawBsonDocument(bytes);
+  }
+}
@@ -0,0 +1,168 @@
+package app.migrator.csfle.worker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoException;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoClient;
+
+import app.migrator.csfle.config.SchemaConfiguration;
+import app.migrator.csfle.monitor.CollectionProgress;
+
+/**
+ * Copies the secondary indexes of a source collection to the target once its documents are loaded,
+ * so the bulk inserts do not pay for index maintenance.
+ *
+ * <p>Indexes that cannot work on CSFLE ciphertext are skipped: indexes on randomly encrypted
+ * fields or on paths inside an encrypted field, non-equality indexes (text, geo) on
+ * deterministically encrypted fields, and partial indexes filtering on encrypted fields.
+ */
+public class IndexCopier {
+  private static final Logger logger = LoggerFactory.getLogger(IndexCopier.class);
+
+  private final MongoClient sourceClient;
+  private final MongoClient targetClient;
+  // Encrypted path -> algorithm
+  private final Map<String, String> encryptedFields;
+  private final CollectionProgress progress;
+
+  /**
+   * @param encryptedFields encrypted paths of the namespace, see
+   *     {@link SchemaConfiguration#getEncryptedFields(String)}
+   */
+  public IndexCopier(MongoClient sourceClient, MongoClient targetClient,
+      Map<String, String> encryptedFields, CollectionProgress progress) {
+    this.sourceClient = sourceClient;
+    this.targetClient = targetClient;
+    this.encryptedFields = encryptedFields;
+    this.progress = progress;
+  }
+
+  /**
+   * Builds every eligible index of the collection with a single createIndexes command, so the
+   * target scans the collection once for all of them.
+   *
+   * @param target namespace to build the indexes on, e.g. a staging collection
+   */
+  public void copy(String database, String collection, MongoNamespace target) {
+    String namespace = database + "." + collection;
+    List<BsonDocument> toBuild = new ArrayList<>();
+    int skipped = 0;
+
+    for (BsonDocument index : sourceClient.getDatabase(database).getCollection(collection)
+        .listIndexes(BsonDocument.class)) {
+      String name = index.getString("name").getValue();
+      if ("_id_".equals(name)) {
+        continue;
+      }
+      String reason = skipReason(index);
+      if (reason != null) {
+        logger.warn("Skipping index {} on {}: {}", name, namespace, reason);
+        skipped++;
+        continue;
+      }
+      BsonDocument spec = index.clone();
+      spec.remove("ns");
+      toBuild.add(spec);
+    }
+
+    progress.startIndexes(toBuild.size(), skipped);
+    if (toBuild.isEmpty()) {
+      return;
+    }
+
+    logger.info("Building {} index(es) on {}", toBuild.size(), namespace);
+    long start = System.currentTimeMillis();
+    try {
+      targetClient.getDatabase(target.getDatabaseName()).runCommand(new BsonDocument()
+          .append("createIndexes", new BsonString(target.getCollectionName()))
+          .append("indexes", new BsonArray(toBuild)));
+      progress.recordIndexesBuilt(toBuild.size());
+      logger.info("Built {} index(es) on {} in {} ms", toBuild.size(), namespace,
+          System.currentTimeMillis() - start);
+    } catch (MongoException e) {
+      progress.recordIndexesFailed(toBuild.size());
+      logger.error("Failed to build indexes on {}: {}", namespace, e.getMessage());
+    }
+  }
+
+  private String skipReason(BsonDocument index) {
+    BsonDocument key = index.getDocument("key");
+    for (Map.Entry<String, BsonValue> entry : key.entrySet()) {
+      String field = entry.getKey();
+      String encrypted = encryptedPrefix(field);
+      if (encrypted == null) {
+        continue;
+      }
+      if (!encrypted.equals(field)) {
+        return "'" + field + "' is inside encrypted field '" + encrypted + "'";
+      }
+      if (SchemaConfiguration.RANDOM.equals(encryptedFields.get(encrypted))) {
+        return "'" + field + "' is randomly encrypted";
+      }
+      if (!entry.getValue().isNumber() && !"hashed".equals(stringValue(entry.getValue()))) {
+        return "'" + field + "' is encrypted, only equality indexes apply";
+      }
+    }
+
+    // Text indexes list their fields as weights, the key is {_fts: "text", _ftsx: 1}
+    if (index.containsKey("weights")) {
+      for (String field : index.getDocument("weights").keySet()) {
+        if (encryptedPrefix(field) != null) {
+          return "text index on encrypted field '" + field + "'";
+        }
+      }
+    }
+
+    if (index.containsKey("partialFilterExpression")) {
+      List<String> fields = new ArrayList<>();
+      collectFilterFields(index.getDocument("partialFilterExpression"), fields);
+      for (String field : fields) {
+        if (encryptedPrefix(field) != null) {
+          return "partial filter on encrypted field '" + field + "'";
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the encrypted path equal to or containing the given field, null if not encrypted
+   */
+  private String encryptedPrefix(String field) {
+    for (String path : encryptedFields.keySet()) {
+      if (field.equals(path) || field.startsWith(path + ".")) {
+        return path;
+      }
+    }
+    return null;
+  }
+
+  private static String stringValue(BsonValue value) {
+    return value.isString() ? value.asString().getValue() : null;
+  }
+
+  private static void collectFilterFields(BsonValue filter, List<String> fields) {
+    if (filter.isArray()) {
+      for (BsonValue value : filter.asArray()) {
+        collectFilterFields(value, fields);
+      }
+    } else if (filter.isDocument()) {
+      for (Map.Entry<String, BsonValue> entry : filter.asDocument().entrySet()) {
+        if (!entry.getKey().startsWith("$")) {
+          fields.add(entry.getKey());
+        }
+        collectFilterFields(entry.getValue(), fields);
+      }
+    }
+  }
+}
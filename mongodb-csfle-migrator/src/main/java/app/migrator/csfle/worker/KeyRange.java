@@ -0,0 +1,103 @@
+package app.migrator.csfle.worker;
+
+import java.util.Map;
+
+import org.bson.BsonDocument;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.model.Filters;
+
+import lombok.Getter;
+
+/**
+ * Slice of a source collection in index order, read with the find min/max modifiers so the bounds
+ * follow the index ordering across BSON types, as chunk ranges do.
+ */
+@Getter
+public class KeyRange {
+  // Index key pattern the bounds refer to, also used as hint and sort
+  private final BsonDocument keyPattern;
+  // Inclusive lower bound, null for the start of the index
+  private final BsonDocument min;
+  // Exclusive upper bound, null for the end of the index
+  private final BsonDocument max;
+  // Used for progress reporting only, the range is read until exhausted
+  private final long estimatedDocuments;
+  // Source shard owning the range, null when the source is not partitioned by chunks
+  private final String shard;
+
+  public KeyRange(BsonDocument keyPattern, BsonDocument min, BsonDocument max,
+      long estimatedDocuments) {
+    this(keyPattern, min, max, estimatedDocuments, null);
+  }
+
+  public KeyRange(BsonDocument keyPattern, BsonDocument min, BsonDocument max,
+      long estimatedDocuments, String shard) {
+    this.keyPattern = keyPattern;
+    this.min = min;
+    this.max = max;
+    this.estimatedDocuments = estimatedDocuments;
+    this.shard = shard;
+  }
+
+  /**
+   * Predicates on the first key field covering the range, so mongos routes the query to the shards
+   * owning it. It only sees the query filter, the min/max bounds still select the exact range.
+   *
+   * <p>A comparison only matches values of its own BSON type, while the bounds order across types.
+   * The filter is therefore only built when both bounds hold the same type, open ended ranges are
+   * broadcast.
+   *
+   * @return filter matching a superset of the range, null if none can be built
+   */
+  public Bson getShardFilter() {
+    if (min == null || max == null) {
+      return null;
+    }
+    Map.Entry<String, BsonValue> first = keyPattern.entrySet().iterator().next();
+    BsonValue lower = min.get(first.getKey());
+    BsonValue upper = max.get(first.getKey());
+    if (lower == null || upper == null || !first.getValue().isNumber()
+        || first.getValue().asNumber().intValue() < 0
+        || typeBracket(lower) == null || typeBracket(lower) != typeBracket(upper)) {
+      return null;
+    }
+    // Later fields of a compound key can extend the range to the upper value itself
+    return Filters.and(Filters.gte(first.getKey(), lower),
+        keyPattern.size() == 1
+            ? Filters.lt(first.getKey(), upper)
+            : Filters.lte(first.getKey(), upper));
+  }
+
+  /**
+   * @return type compared against by $gte and $lt, null for types not worth a predicate
+   */
+  private static BsonType typeBracket(BsonValue value) {
+    switch (value.getBsonType()) {
+      case INT32:
+      case INT64:
+      case DOUBLE:
+      case DECIMAL128:
+        return BsonType.DOUBLE;
+      case SYMBOL:
+      case STRING:
+        return BsonType.STRING;
+      case OBJECT_ID:
+      case DATE_TIME:
+      case TIMESTAMP:
+      case BOOLEAN:
+      case BINARY:
+        return value.getBsonType();
+      default:
+        return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "[" + (min == null ? "MinKey" : min.toJson()) + ", "
+        + (max == null ? "MaxKey" : max.toJson()) + ")";
+  }
+}
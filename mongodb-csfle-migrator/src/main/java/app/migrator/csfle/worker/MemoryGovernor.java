@@ -0,0 +1,102 @@
+package app.migrator.csfle.worker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide byte budget for documents held in memory: batches read from the source and change
+ * events waiting on the apply lanes. Holders reserve the BSON size of their documents, taken from
+ * the raw bytes read off the wire, and release it once written, so heap use stays bounded whatever
+ * the document size.
+ *
+ * <p>A caller must not block while it holds a reservation, otherwise every thread could wait for
+ * the others. {@link #tryReserve(long)} lets holders flush or spill what they have instead, and
+ * {@link #reserve(long)} is for callers holding nothing. A single document larger than the budget
+ * is let through when nothing else is reserved.
+ */
+public class MemoryGovernor {
+  private static final Logger logger = LoggerFactory.getLogger(MemoryGovernor.class);
+
+  private final long maxBytes;
+  private long usedBytes = 0;
+  private long peakBytes = 0;
+  private long waits = 0;
+  private final AtomicLong spilledDocuments = new AtomicLong();
+
+  /**
+   * @param maxBytes budget in bytes, 0 or less for half of the maximum heap
+   */
+  public MemoryGovernor(long maxBytes) {
+    this.maxBytes = maxBytes > 0 ? maxBytes : Runtime.getRuntime().maxMemory() / 2;
+    logger.info("In-flight document budget: {} MB", this.maxBytes / (1024 * 1024));
+  }
+
+  /**
+   * Reserves bytes if the budget allows it right away.
+   *
+   * @return true if reserved
+   */
+  public synchronized boolean tryReserve(long bytes) {
+    if (usedBytes > 0 && usedBytes + bytes > maxBytes) {
+      return false;
+    }
+    add(bytes);
+    return true;
+  }
+
+  /**
+   * Blocks until the bytes are reserved. Only for callers that hold no reservation.
+   */
+  public synchronized void reserve(long bytes) throws InterruptedException {
+    if (usedBytes > 0 && usedBytes + bytes > maxBytes) {
+      waits++;
+      do {
+        wait(TimeUnit.SECONDS.toMillis(1));
+      } while (usedBytes > 0 && usedBytes + bytes > maxBytes);
+    }
+    add(bytes);
+  }
+
+  private void add(long bytes) {
+    usedBytes += bytes;
+    peakBytes = Math.max(peakBytes, usedBytes);
+  }
+
+  public synchronized void release(long bytes) {
+    if (bytes <= 0) {
+      return;
+    }
+    usedBytes = Math.max(0, usedBytes - bytes);
+    notifyAll();
+  }
+
+  public void recordSpilled(long documents) {
+    spilledDocuments.addAndGet(documents);
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public synchronized long getUsedBytes() {
+    return usedBytes;
+  }
+
+  public synchronized long getPeakBytes() {
+    return peakBytes;
+  }
+
+  /**
+   * @return number of times a caller had to wait for the budget
+   */
+  public synchronized long getWaits() {
+    return waits;
+  }
+
+  public long getSpilledDocuments() {
+    return spilledDocuments.get();
+  }
+}
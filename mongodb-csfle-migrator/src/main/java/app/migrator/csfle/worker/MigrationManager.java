@@ -1,14 +1,36 @@
 package app.migrator.csfle.worker;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonObjectId;
+import org.bson.BsonTimestamp;
+import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.ClientSession;
 import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
 
 import app.migrator.csfle.config.Configuration;
+import app.migrator.csfle.config.MigrationConfiguration.DeltaConfig;
+import app.migrator.csfle.config.MigrationConfiguration.NamespaceOptions;
+import app.migrator.csfle.monitor.CollectionProgress;
+import app.migrator.csfle.monitor.MigrationMonitor;
+import app.migrator.csfle.transfer.ChunkFileWriter;
+import app.migrator.csfle.transfer.EncryptedFileExport;
 
 public class MigrationManager {
   private static final Logger logger =
@@ -23,6 +45,25 @@ public class MigrationManager {
   private String sourceCollection;
 
   private Configuration configuration;
+  private final MigrationMonitor monitor;
+  private CollectionProgress progress;
+  private SourceReadSettings readSettings;
+  private ClientSession sourceSession;
+  // System.nanoTime() when the snapshot session was pinned by its first read
+  private long sourceSessionPinned;
+  private Bson readFilter = new Document();
+
+  // Delta mode: the range (watermark, deltaUpperBound] is migrated by this run
+  private WatermarkStore watermarkStore;
+  private String deltaField;
+  private BsonValue deltaUpperBound;
+
+  // Partitioned copy: only this index range of the collection is migrated by this task
+  private KeyRange range;
+
+  // Offline mode: documents go to encrypted chunk files instead of the target
+  private EncryptedFileExport fileExport;
+  private ChunkFileWriter fileWriter;
 
   private boolean isInitialized = false;
   private int batchSize = 1000;
@@ -34,21 +75,174 @@ public class MigrationManager {
 
   public MigrationManager(
       WorkerManager workerManager,
-      Configuration configuration
+      Configuration configuration,
+      MigrationMonitor monitor,
+      ReadRateLimiter readRateLimiter,
+      MemoryGovernor memoryGovernor
       ) {
     this.workerManager = workerManager;
     this.configuration = configuration;
-    this.sourceReader = new MigrationSourceReader();
+    this.monitor = monitor;
+    this.sourceReader = new MigrationSourceReader(readRateLimiter, memoryGovernor);
     this.targetWriter = new MigrationTargetWriter();
   }
 
   private long getTotalCountInCollection() {
     // Implement the logic to count the total number of documents in the source collection
     // This could involve using the MongoDB Java driver to query the collection.
-    return this.sourceMongoClient
+    MongoCollection<Document> collection = readSettings.apply(this.sourceMongoClient
+        .getDatabase(sourceDatabase)
+        .getCollection(sourceCollection));
+
+    return sourceSession == null
+        ? collection.countDocuments(readFilter)
+        : collection.countDocuments(sourceSession, readFilter);
+  }
+
+  private long getAverageDocumentSize() {
+    try {
+      Document stats = this.sourceMongoClient
+          .getDatabase(sourceDatabase)
+          .runCommand(new Document("collStats", sourceCollection));
+      Object avgObjSize = stats.get("avgObjSize");
+      return avgObjSize instanceof Number ? ((Number) avgObjSize).longValue() : 0;
+    } catch (Exception e) {
+      logger.warn("Failed to read collStats of {}.{}, bytes/s limit disabled: {}",
+          sourceDatabase, sourceCollection, e.getMessage());
+      return 0;
+    }
+  }
+
+  /**
+   * Builds the delta-mode range filter: documents past the stored watermark, up to the current
+   * maximum of the delta field. Documents written during the run are left for the next one.
+   *
+   * <p>For dates, ObjectIds and timestamps the upper bound is kept strictly below the source clock,
+   * so a document written after it was captured cannot land on the bound, which the saved
+   * watermark would then skip.
+   */
+  private Bson buildDeltaFilter() {
+    DeltaConfig delta = configuration.getMigrationConfig() == null
+        ? null
+        : configuration.getMigrationConfig().getDelta();
+    if (delta == null || !delta.isEnabled()) {
+      return new Document();
+    }
+
+    String namespace = sourceDatabase + "." + sourceCollection;
+    this.deltaField = delta.getFieldFor(namespace);
+    this.watermarkStore = new WatermarkStore(targetMongoClient, delta);
+    this.deltaUpperBound = capBelowSourceTime(findMaxValue(deltaField));
+    // Paging by _id would scan the whole _id index for the few documents in the delta range
+    if (!"_id".equals(deltaField)) {
+      this.sourceReader.setPageField(deltaField);
+    }
+    // Documents past an older watermark may already be on the target
+    this.targetWriter.setUpsert(true);
+
+    BsonValue watermark = watermarkStore.load(namespace, deltaField);
+    logger.info("Delta mode for {} on {}: ({}, {}]", namespace, deltaField, watermark, deltaUpperBound);
+
+    if (deltaUpperBound == null) {
+      return Filters.exists(deltaField);
+    }
+    List<Bson> conditions = new ArrayList<>();
+    if (watermark != null) {
+      conditions.add(Filters.gt(deltaField, watermark));
+    }
+    conditions.add(Filters.lte(deltaField, deltaUpperBound));
+    return Filters.and(conditions);
+  }
+
+  private BsonValue findMaxValue(String field) {
+    MongoCollection<BsonDocument> collection = readSettings.apply(this.sourceMongoClient
         .getDatabase(sourceDatabase)
-        .getCollection(sourceCollection)
-        .countDocuments();
+        .getCollection(sourceCollection, BsonDocument.class));
+
+    BsonDocument max = (sourceSession == null ? collection.find() : collection.find(sourceSession))
+        .sort(Sorts.descending(field))
+        .projection(Projections.include(field))
+        .limit(1)
+        .first();
+
+    BsonValue value = max;
+    for (String part : field.split("\\.")) {
+      if (value == null || !value.isDocument()) {
+        return null;
+      }
+      value = value.asDocument().get(part);
+    }
+    return value;
+  }
+
+  private BsonValue capBelowSourceTime(BsonValue max) {
+    if (max == null) {
+      return null;
+    }
+    // A snapshot read sees nothing written after its own time, which may be behind the clock
+    long nowMillis = sourceSession != null && sourceSession.getOperationTime() != null
+        ? sourceSession.getOperationTime().getTime() * 1000L
+        : this.sourceMongoClient.getDatabase("admin")
+            .runCommand(new BsonDocument("hello", new BsonInt32(1)), BsonDocument.class)
+            .getDateTime("localTime").getValue();
+    int nowSeconds = (int) (nowMillis / 1000);
+    switch (max.getBsonType()) {
+      case DATE_TIME: {
+        // Operation times only have seconds
+        long cap = nowSeconds * 1000L - 1;
+        return max.asDateTime().getValue() <= cap ? max : new BsonDateTime(cap);
+      }
+      case OBJECT_ID: {
+        // Largest ObjectId of the previous second
+        byte[] bytes = new byte[12];
+        Arrays.fill(bytes, (byte) 0xff);
+        ByteBuffer.wrap(bytes).putInt(nowSeconds - 1);
+        ObjectId cap = new ObjectId(bytes);
+        return max.asObjectId().getValue().compareTo(cap) <= 0 ? max : new BsonObjectId(cap);
+      }
+      case TIMESTAMP: {
+        BsonTimestamp cap = new BsonTimestamp(nowSeconds - 1, -1);
+        return max.asTimestamp().compareTo(cap) <= 0 ? max : cap;
+      }
+      default:
+        return max;
+    }
+  }
+
+  private void saveWatermark() {
+    if (watermarkStore == null || deltaUpperBound == null) {
+      return;
+    }
+    if (targetWriter.getFailedCount() > 0) {
+      logger.warn("{}.{} had failed documents, keeping the previous watermark",
+          sourceDatabase, sourceCollection);
+      return;
+    }
+    watermarkStore.save(sourceDatabase + "." + sourceCollection, deltaField, deltaUpperBound);
+  }
+
+  private MongoNamespace getWriteNamespace() {
+    return configuration.getMigrationConfig() == null
+        ? new MongoNamespace(sourceDatabase, sourceCollection)
+        : configuration.getMigrationConfig().getWriteNamespace(sourceDatabase, sourceCollection);
+  }
+
+  private NamespaceOptions getNamespaceOptions() {
+    return configuration.getMigrationConfig() == null
+        ? new NamespaceOptions()
+        : configuration.getMigrationConfig().getNamespaceOptions(sourceDatabase, sourceCollection);
+  }
+
+  /**
+   * @return configured namespace filter combined with the delta range
+   */
+  private Bson buildReadFilter() {
+    BsonDocument filter = getNamespaceOptions().parseFilter();
+    Bson delta = buildDeltaFilter();
+    if (filter == null) {
+      return delta;
+    }
+    return Filters.and(filter, delta);
   }
 
   private int getTotalRounds() {
@@ -64,10 +258,38 @@ public class MigrationManager {
     this.targetMongoClient = targetMongoClient;
     this.sourceDatabase = sourceDatabase;
     this.sourceCollection = sourceCollection;
+    this.progress = monitor.getProgress(sourceDatabase + "." + sourceCollection);
+    this.readSettings = SourceReadSettings.from(configuration.getSourceRead());
 
     return this;
   }
 
+  /**
+   * Restricts this task to one index range of the collection, for collections copied by several
+   * tasks in parallel.
+   */
+  public MigrationManager setRange(KeyRange range) {
+    this.range = range;
+    return this;
+  }
+
+  /**
+   * Replaces documents by _id instead of inserting them, for a range an earlier attempt may have
+   * partly copied.
+   */
+  public MigrationManager setUpsert(boolean upsert) {
+    this.targetWriter.setUpsert(upsert);
+    return this;
+  }
+
+  /**
+   * Writes this task to encrypted chunk files instead of the target cluster.
+   */
+  public MigrationManager setFileExport(EncryptedFileExport fileExport) {
+    this.fileExport = fileExport;
+    return this;
+  }
+
   public void run() {
     if (!isInitialized) {
       throw new IllegalStateException("MigrationManager is not initialized.");
@@ -89,48 +311,124 @@ public class MigrationManager {
     // Implement the logic to run the migration process
     // This could involve reading data from the source, processing it,
     // and writing it to the target database.
-    sourceReader.setup(this.sourceMongoClient, sourceDatabase, sourceCollection);
-    targetWriter.setup(this.targetMongoClient, sourceDatabase, sourceCollection);
+    sourceReader.setup(
+        this.sourceMongoClient, sourceDatabase, sourceCollection, readSettings, sourceSession);
+    sourceReader.setRange(range);
+    if (fileExport != null) {
+      fileWriter = fileExport.openWriter(sourceDatabase, sourceCollection);
+    } else {
+      MongoNamespace writeNamespace = getWriteNamespace();
+      targetWriter.setup(this.targetMongoClient, writeNamespace.getDatabaseName(),
+          writeNamespace.getCollectionName());
+    }
+
+    progress.start(totalCount);
 
     // Start the migration process
-    for (int i = 0; i < batchCount; i++) {
-      logger.info( "Batch: " + i  + " - " + sourceCollection);
+    try {
+      long offset = 0;
+      // Counts are only an estimate on a live source, so read until a short batch
+      boolean exhausted = false;
+      while (!exhausted) {
+        // Batch size may be changed at runtime through JMX, so re-read it for every batch
+        batchSize = configuration.getWorker().getMaxBatchSize();
+        logger.info( "Batch: " + currentBatchIndex  + " - " + sourceCollection);
+
+        currentBatchSize = batchSize;
+        currentBatchCount = currentBatchIndex + (int) Math.ceil((double) Math.max(0, totalCount - offset) / batchSize);
 
-      currentBatchIndex = i;
-      currentBatchSize = Math.min(batchSize, (int) (totalCount - (i * batchSize)));
-      currentBatchCount = Math.min(batchCount, this.getTotalRounds());
+        // Read data from the source database and collection
+        if (sourceSession != null && readSettings.isSnapshotExpiring(sourceSessionPinned)) {
+          renewSourceSession();
+        }
+        // Range and delta field reads keep their own position
+        if (range == null) {
+          sourceReader.setAfterId(sourceReader.getLastId());
+        }
+        sourceReader.setLimit(currentBatchSize);
 
-      // Read data from the source database and collection
-      sourceReader.setSkip(currentBatchIndex * batchSize);
-      sourceReader.setLimit(currentBatchSize);
+        int read = processBatch();
+        exhausted = read < currentBatchSize;
 
-      processBatch();
+        offset += currentBatchSize;
+        currentBatchIndex++;
+      }
+      if (fileWriter != null) {
+        fileWriter.close();
+      }
+      progress.complete();
+      saveWatermark();
+    } catch (RuntimeException e) {
+      if (fileWriter != null) {
+        fileWriter.abort();
+      }
+      progress.fail();
+      throw e;
+    } finally {
+      if (sourceSession != null) {
+        sourceSession.close();
+      }
     }
   }
 
-  private void processBatch() {
-    // Read data from the source
-    List<Document> docs = sourceReader.read().into(new ArrayList<>());
+  /**
+   * Moves a long read on to a new snapshot before the source drops the history of the current one.
+   * Batches are paged by key, so the rest of the collection is read as a new range from where the
+   * last batch stopped. Changes between the two snapshots are replayed by the change stream, which
+   * starts before any task.
+   */
+  private void renewSourceSession() {
+    logger.info("Snapshot of {}.{} is close to the snapshot window, reading on from a new one",
+        sourceDatabase, sourceCollection);
+    sourceSession.close();
+    sourceSession = readSettings.startSession(sourceMongoClient);
+    sourceSessionPinned = System.nanoTime();
+    sourceReader.setSession(sourceSession);
+  }
+
+  private int processBatch() {
+    long start = System.nanoTime();
+
+    // Read data from the source, in several parts when the window exceeds the memory budget
+    int read = sourceReader.readBatch(this::writeDocuments);
 
     logger.info("Target database: " + sourceDatabase + ", collection: " + sourceCollection);
-    logger.info("Read " + docs.size() + " documents.");
+    logger.info("Read " + read + " documents.");
 
-    // Print all documents
+    monitor.getBatchLatencies().record(System.nanoTime() - start);
+    return read;
+  }
 
-    // for (Document doc : docs) {
-    //   // Process each document
-    //   logger.info(doc.toJson());
-    // }
+  private void writeDocuments(List<Document> docs) {
+    if (fileWriter != null) {
+      long failedBefore = fileWriter.getFailedCount();
+      fileWriter.writeBatch(docs);
+      long failed = fileWriter.getFailedCount() - failedBefore;
+      progress.recordBatch(docs.size() - failed, failed);
+      return;
+    }
 
     // Write data to the target
+    long failedBefore = targetWriter.getFailedCount();
     targetWriter.writeBatch(docs);
+    long failed = targetWriter.getFailedCount() - failedBefore;
+
+    progress.recordBatch(docs.size() - failed, failed);
   }
 
   public MigrationManager initialize() {
     // Initialize the migration process
     // This could involve setting up connections, preparing data structures, etc.
     this.batchSize = configuration.getWorker().getMaxBatchSize();
-    this.totalCount = getTotalCountInCollection();
+    this.sourceSession = readSettings.startSession(sourceMongoClient);
+    // The first read below pins the snapshot, its window starts about now
+    this.sourceSessionPinned = System.nanoTime();
+    this.readFilter = buildReadFilter();
+    this.sourceReader.setFilter(readFilter);
+    this.sourceReader.setProjection(getNamespaceOptions().parseProjection());
+    this.totalCount = range == null ? getTotalCountInCollection() : range.getEstimatedDocuments();
+    this.sourceReader.setAverageDocumentSize(getAverageDocumentSize());
+    this.sourceReader.setSpillDirectory(configuration.getWorker().getSpillDirectory());
     this.batchCount = getTotalRounds();
 
     // this.currentBatchSize = Math.min(batchSize, (int) (totalCount - (currentBatchIndex * batchSize)));
@@ -1,27 +1,102 @@
 package app.migrator.csfle.worker;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.bson.BsonDocument;
+import org.bson.BsonNull;
+import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import com.mongodb.client.ClientSession;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import app.migrator.csfle.monitor.BatchReadEvent;
+import lombok.Getter;
 import lombok.Setter;
 
 public class MigrationSourceReader {
   private static final Logger logger = LoggerFactory.getLogger(MigrationSourceReader.class);
+  private static final Bson ID_INDEX = Sorts.ascending("_id");
+  private static final DocumentCodec CODEC = new DocumentCodec();
+  // Index key of range reads, returned next to each document and removed once decoded
+  private static final String INDEX_KEY = "__migratorIndexKey";
+  private final ReadRateLimiter readRateLimiter;
+  private final MemoryGovernor memoryGovernor;
   private MongoClient mongoClient;
   private String sourceDatabase;
   private String sourceCollection;
-
+  private SourceReadSettings readSettings;
+  // Snapshot session every read goes through, replaced when a long read renews its snapshot
   @Setter
-  private int skip;
+  private ClientSession session;
+
   @Setter
   private int limit;
+  // Whole collection reads start after this _id, null for the first batch
+  @Setter
+  private Object afterId;
+  // _id of the last document read, where the next batch starts
+  @Getter
+  private Object lastId;
+  // Server-side filter, e.g. the delta-mode watermark range
+  @Setter
+  private Bson filter = new Document();
+  // Fields kept or dropped at the source, null for whole documents
+  @Setter
+  private Bson projection;
+  // Index range to read instead of the whole collection, null for all of it
+  private KeyRange range;
+  // Field whole collection reads are paged on instead of _id, e.g. the delta field
+  @Setter
+  private String pageField;
+  // Index key, or page field value, of the last document read, where the next batch starts
+  private BsonDocument lastKey;
+  // _ids read so far with that key, several documents can share it
+  private List<BsonValue> lastKeyIds = new ArrayList<>();
+  // Used to charge the bytes/s limit before the batch is read
+  @Setter
+  private long averageDocumentSize;
+  // Where documents over the memory budget are spilled, null to flush partial batches instead
+  @Setter
+  private String spillDirectory;
 
-  public void setup(MongoClient mongoClient, String sourceDatabase, String sourceCollection) {
+  public MigrationSourceReader(ReadRateLimiter readRateLimiter, MemoryGovernor memoryGovernor) {
+    this.readRateLimiter = readRateLimiter;
+    this.memoryGovernor = memoryGovernor;
+  }
+
+  public void setup(
+      MongoClient mongoClient,
+      String sourceDatabase,
+      String sourceCollection,
+      SourceReadSettings readSettings,
+      ClientSession session) {
     this.mongoClient = mongoClient;
     this.sourceDatabase = sourceDatabase;
     this.sourceCollection = sourceCollection;
+    this.readSettings = readSettings;
+    this.session = session;
+  }
+
+  /**
+   * Sets the index range to read and starts over at its beginning.
+   */
+  public void setRange(KeyRange range) {
+    this.range = range;
+    this.lastKey = null;
+    this.lastKeyIds = new ArrayList<>();
   }
 
   // public void read() {
@@ -40,20 +115,231 @@ public class MigrationSourceReader {
   //       });
   // }
 
-  public FindIterable<Document> read() {
+  /**
+   * @return the current window as raw BSON, so its size is known without re-encoding it
+   */
+  public FindIterable<RawBsonDocument> read() {
     // Implement the logic to find all documents in the source collection
     // and return them as a list or stream.
     // This could involve using the MongoDB Java driver to query the collection.
 
     // logger.info("Skipping {} documents and limiting to {} documents", skip, limit);
+    readRateLimiter.acquire(limit, limit * averageDocumentSize);
 
-    FindIterable<Document> docs = mongoClient
+    MongoCollection<RawBsonDocument> collection = readSettings.apply(mongoClient
       .getDatabase(sourceDatabase)
-      .getCollection(sourceCollection)
-      .find()
-        .skip(skip)
-        .limit(limit);
+      .getCollection(sourceCollection, RawBsonDocument.class));
+
+    if (range == null && pageField != null) {
+      // Paged on the field, its index if any serves both the filter and the sort
+      Bson pageFilter = filter;
+      if (lastKey != null) {
+        BsonValue last = lastKey.get(pageField);
+        pageFilter = Filters.and(filter, Filters.or(Filters.gt(pageField, last),
+            Filters.and(Filters.eq(pageField, last), Filters.nin("_id", lastKeyIds))));
+      }
+      return (session == null
+          ? collection.find(pageFilter)
+          : collection.find(session, pageFilter))
+          .projection(projection)
+          .sort(Sorts.ascending(pageField))
+          .limit(limit);
+    }
 
+    if (range == null) {
+      // Paged by _id rather than skip, so documents moving or deleted during the run cannot shift
+      // later batches past unread ones
+      Bson pageFilter = afterId == null ? filter : Filters.and(filter, Filters.ne("_id", afterId));
+      FindIterable<RawBsonDocument> docs = (session == null
+          ? collection.find(pageFilter)
+          : collection.find(session, pageFilter))
+          .projection(projection)
+          .sort(ID_INDEX)
+          .limit(limit);
+      if (afterId != null) {
+        // Index bounds cross BSON types, a $gt on a mixed-type _id would not
+        docs.hint(ID_INDEX).min(new Document("_id", afterId));
+      }
+      return docs;
+    }
+
+    // Paged by the last index key read, the documents already read with that key are left out
+    Bson shardFilter = range.getShardFilter();
+    Bson rangeFilter = shardFilter == null ? filter : Filters.and(filter, shardFilter);
+    if (!lastKeyIds.isEmpty()) {
+      rangeFilter = Filters.and(rangeFilter, Filters.nin("_id", lastKeyIds));
+    }
+    Bson indexKey = Projections.meta(INDEX_KEY, "indexKey");
+    FindIterable<RawBsonDocument> docs = (session == null
+        ? collection.find(rangeFilter)
+        : collection.find(session, rangeFilter))
+        .projection(projection == null ? indexKey : Projections.fields(projection, indexKey))
+        .hint(range.getKeyPattern())
+        .sort(range.getKeyPattern())
+        .limit(limit);
+    BsonDocument min = lastKey != null ? lastKey : range.getMin();
+    if (min != null) {
+      docs.min(min);
+    }
+    if (range.getMax() != null) {
+      docs.max(range.getMax());
+    }
     return docs;
   }
+
+  /**
+   * Reads the current window and hands it to the sink within the memory budget, then
+   * records it as a {@link BatchReadEvent}.
+   *
+   * <p>Every document reserves its size from the {@link MemoryGovernor}. When the budget runs out,
+   * the rest of the window is spilled to a local file if a spill directory is set, otherwise the
+   * documents read so far are handed over and released before reading on. The sink may therefore
+   * be called more than once per window.
+   *
+   * @param sink writes documents, their reservation is released once it returns
+   * @return number of documents in the window
+   */
+  public int readBatch(Consumer<List<Document>> sink) {
+    FindIterable<RawBsonDocument> docs = read();
+
+    BatchReadEvent event = new BatchReadEvent();
+    event.begin();
+    Chunk chunk = new Chunk(sink);
+    long readNanos = 0;
+    long bytes = 0;
+    int count = 0;
+    SpillFile spill = null;
+
+    try {
+      long start = System.nanoTime();
+      try (MongoCursor<RawBsonDocument> cursor = docs.iterator()) {
+        while (cursor.hasNext()) {
+          RawBsonDocument document = cursor.next();
+          lastId = document.get("_id");
+          if (range != null || pageField != null) {
+            BsonDocument key = range != null
+                ? document.getDocument(INDEX_KEY)
+                : new BsonDocument(pageField, valueAt(document, pageField));
+            if (!key.equals(lastKey)) {
+              lastKey = key;
+              lastKeyIds = new ArrayList<>();
+            }
+            lastKeyIds.add(document.get("_id"));
+          }
+          long size = document.getByteBuffer().remaining();
+          bytes += size;
+          count++;
+          if (spill != null) {
+            spill.append(document);
+          } else if (chunk.tryAdd(document, size)) {
+            continue;
+          } else if (!chunk.isEmpty() && spillDirectory != null) {
+            spill = new SpillFile(spillDirectory, sourceCollection + "-");
+            spill.append(document);
+          } else {
+            // Waiting for the budget is not source latency
+            readNanos += System.nanoTime() - start;
+            chunk.flush();
+            chunk.add(document, size);
+            start = System.nanoTime();
+          }
+        }
+      }
+      readNanos += System.nanoTime() - start;
+      readRateLimiter.recordLatency(TimeUnit.NANOSECONDS.toMillis(readNanos));
+      event.commit(sourceDatabase + "." + sourceCollection, count, bytes);
+
+      if (spill != null) {
+        memoryGovernor.recordSpilled(spill.getCount());
+        logger.info("Spilled {} documents of {}.{} over the memory budget", spill.getCount(),
+            sourceDatabase, sourceCollection);
+        for (RawBsonDocument document = spill.next(); document != null;
+            document = spill.next()) {
+          long size = document.getByteBuffer().remaining();
+          if (!chunk.tryAdd(document, size)) {
+            chunk.flush();
+            chunk.add(document, size);
+          }
+        }
+      }
+      chunk.flush();
+    } finally {
+      chunk.release();
+      if (spill != null) {
+        spill.close();
+      }
+    }
+    return count;
+  }
+
+  private static BsonValue valueAt(BsonDocument document, String path) {
+    BsonValue value = document;
+    for (String part : path.split("\\.")) {
+      if (!value.isDocument() || !value.asDocument().containsKey(part)) {
+        return BsonNull.VALUE;
+      }
+      value = value.asDocument().get(part);
+    }
+    return value;
+  }
+
+  /**
+   * Documents read but not yet handed to the sink, with their reservation. Raw documents are
+   * decoded once they are reserved, spilled ones are written to the file as read.
+   */
+  private class Chunk {
+    private final Consumer<List<Document>> sink;
+    private List<Document> documents = new ArrayList<>();
+    private long reserved = 0;
+
+    Chunk(Consumer<List<Document>> sink) {
+      this.sink = sink;
+    }
+
+    boolean isEmpty() {
+      return documents.isEmpty();
+    }
+
+    boolean tryAdd(RawBsonDocument document, long size) {
+      if (!memoryGovernor.tryReserve(size)) {
+        return false;
+      }
+      documents.add(decode(document));
+      reserved += size;
+      return true;
+    }
+
+    /**
+     * Adds a document to an empty chunk, waiting for the budget.
+     */
+    void add(RawBsonDocument document, long size) {
+      try {
+        memoryGovernor.reserve(size);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while waiting for the memory budget", e);
+      }
+      documents.add(decode(document));
+      reserved += size;
+    }
+
+    private Document decode(RawBsonDocument document) {
+      Document decoded = document.decode(CODEC);
+      decoded.remove(INDEX_KEY);
+      return decoded;
+    }
+
+    void flush() {
+      if (!documents.isEmpty()) {
+        sink.accept(documents);
+      }
+      documents = new ArrayList<>();
+      release();
+    }
+
+    void release() {
+      memoryGovernor.release(reserved);
+      reserved = 0;
+    }
+  }
 }
@@ -3,29 +3,51 @@ package app.migrator.csfle.worker;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import lombok.Setter;
+
 import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoException;
 import com.mongodb.MongoSecurityException;
 import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
+
+import app.migrator.csfle.monitor.BatchClientTimeEvent;
+import app.migrator.csfle.monitor.BatchWriteEvent;
+import app.migrator.csfle.monitor.CommandTimingListener;
+import app.migrator.csfle.monitor.DocumentSizes;
 
 public class MigrationTargetWriter {
     private static final Logger logger = LoggerFactory.getLogger(MigrationTargetWriter.class);
     private MongoClient mongoClient;
     private String targetDatabase;
     private String targetCollection;
-    private final List<Document> failedDocuments = new ArrayList<>();
+    // Failed documents are kept in the _errors collection, only counted here
+    private int failedCount = 0;
+    // Replace by _id instead of inserting, for re-runs over documents already on the target
+    @Setter
+    private boolean upsert = false;
+    // Shard key fields of the target other than _id, null until looked up for the first upsert
+    private List<String> shardKeyFields;
 
     public void setup(MongoClient mongoClient, String targetDatabase, String targetCollection) {
         this.mongoClient = mongoClient;
         this.targetDatabase = targetDatabase;
         this.targetCollection = targetCollection;
+        this.shardKeyFields = null;
     }
 
     public void write(Document document) {
@@ -54,6 +76,14 @@ public class MigrationTargetWriter {
         logger.info("Attempting to write {} documents to {}.{}",
             documents.size(), targetDatabase, targetCollection);
 
+        BatchWriteEvent event = new BatchWriteEvent();
+        BatchClientTimeEvent clientEvent = new BatchClientTimeEvent();
+        long bytes = event.isEnabled() || clientEvent.isEnabled() ? DocumentSizes.of(documents) : 0;
+        CommandTimingListener.reset();
+        long start = System.nanoTime();
+        event.begin();
+        clientEvent.begin();
+
         try {
             MongoCollection<Document> collection = mongoClient
                 .getDatabase(targetDatabase)
@@ -61,36 +91,114 @@ public class MigrationTargetWriter {
 
             InsertManyOptions options = new InsertManyOptions()
                 .ordered(false); // Allow unordered inserts
-            collection.insertMany(documents, options);
+
+            if (upsert) {
+                collection.bulkWrite(toUpserts(documents), new BulkWriteOptions().ordered(false));
+            } else {
+                collection.insertMany(documents, options);
+            }
+            commitEvents(event, clientEvent, start, documents.size(), bytes, 0);
 
             logger.info("Successfully wrote {} documents to {}.{}",
                 documents.size(), targetDatabase, targetCollection);
 
         } catch (MongoSecurityException e) {
+            commitEvents(event, clientEvent, start, documents.size(), bytes, documents.size());
             logger.error("CSFLE encryption failed - check encryption keys and permissions: {}",
                 e.getMessage());
-            failedDocuments.addAll(documents);
+            failedCount += documents.size();
             saveFailedBatch(documents, "CSFLE_ERROR", e.getMessage());
             throw e;
 
         } catch (MongoBulkWriteException e) {
+            commitEvents(event, clientEvent, start, documents.size(), bytes, e.getWriteErrors().size());
             logger.error("Bulk write partially failed: {}", e.getMessage());
             handleBulkWriteError(documents, e);
 
         } catch (MongoException e) {
+            commitEvents(event, clientEvent, start, documents.size(), bytes, documents.size());
             logger.error("MongoDB operation failed: {}", e);
-            failedDocuments.addAll(documents);
+            failedCount += documents.size();
             saveFailedBatch(documents, "WRITE_ERROR", e.getMessage());
             throw e;
 
         } catch (Exception e) {
+            commitEvents(event, clientEvent, start, documents.size(), bytes, documents.size());
             logger.error("Unexpected error during write: {}", e.getMessage());
-            failedDocuments.addAll(documents);
+            failedCount += documents.size();
             saveFailedBatch(documents, "UNKNOWN_ERROR", e.getMessage());
             throw new RuntimeException("Write operation failed", e);
         }
     }
 
+    /**
+     * Ends the batch events before any error handling writes, so they only cover the batch itself.
+     */
+    private void commitEvents(BatchWriteEvent event, BatchClientTimeEvent clientEvent,
+            long start, int documents, long bytes, int failed) {
+        long writeNanos = System.nanoTime() - start;
+        long serverNanos = CommandTimingListener.elapsedNanos();
+        event.commit(getNamespace(), documents, bytes, serverNanos, failed);
+        clientEvent.commit(getNamespace(), documents, bytes, writeNanos, serverNanos, failed);
+    }
+
+    /**
+     * Replacements by _id, plus the shard key when the target is sharded: mongos needs the full
+     * shard key to route an upsert.
+     */
+    private List<WriteModel<Document>> toUpserts(List<Document> documents) {
+        if (shardKeyFields == null) {
+            shardKeyFields = findShardKeyFields();
+        }
+        ReplaceOptions replaceOptions = new ReplaceOptions().upsert(true);
+        List<WriteModel<Document>> models = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            List<Bson> filter = new ArrayList<>();
+            filter.add(Filters.eq("_id", document.get("_id")));
+            for (String field : shardKeyFields) {
+                // Missing shard key fields are stored and matched as null
+                filter.add(Filters.eq(field, valueAt(document, field)));
+            }
+            models.add(new ReplaceOneModel<>(
+                filter.size() == 1 ? filter.get(0) : Filters.and(filter), document, replaceOptions));
+        }
+        return models;
+    }
+
+    private List<String> findShardKeyFields() {
+        List<String> fields = new ArrayList<>();
+        BsonDocument metadata = mongoClient.getDatabase("config")
+            .getCollection("collections", BsonDocument.class)
+            .find(Filters.eq("_id", getNamespace()))
+            .first();
+        if (metadata != null && metadata.isDocument("key")
+                && !metadata.getBoolean("dropped", BsonBoolean.FALSE).getValue()) {
+            for (String field : metadata.getDocument("key").keySet()) {
+                if (!"_id".equals(field)) {
+                    fields.add(field);
+                }
+            }
+            logger.info("{} is sharded on {}, upserts include it", getNamespace(),
+                metadata.getDocument("key").toJson());
+        }
+        return fields;
+    }
+
+    private static Object valueAt(Document document, String path) {
+        Object value = document;
+        for (String part : path.split("\\.")) {
+            if (!(value instanceof Document)) {
+                return null;
+            }
+            value = ((Document) value).get(part);
+        }
+        return value;
+    }
+
+    private String getNamespace() {
+        return targetDatabase + "." + targetCollection;
+    }
+
     private void handleBulkWriteError(List<Document> documents, MongoBulkWriteException e) {
         List<BulkWriteError> errors = e.getWriteErrors();
 
@@ -98,7 +206,7 @@ public class MigrationTargetWriter {
             int index = error.getIndex();
             if (index < documents.size()) {
                 Document failedDoc = documents.get(index);
-                failedDocuments.add(failedDoc);
+                failedCount++;
 
                 logger.error("[{}.{}] Document write failed at index {}: {}",
                     this.targetDatabase, this.targetCollection,
@@ -152,11 +260,11 @@ public class MigrationTargetWriter {
         }
     }
 
-    public List<Document> getFailedDocuments() {
-        return new ArrayList<>(failedDocuments);
+    public int getFailedCount() {
+        return failedCount;
     }
 
     public void clearFailedDocuments() {
-        failedDocuments.clear();
+        failedCount = 0;
     }
 }
@@ -0,0 +1,202 @@
+package app.migrator.csfle.worker;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Global token bucket for source reads, in documents/s and bytes/s. A single instance is shared by
+ * every {@link MigrationSourceReader}, so the configured rates are limits for the whole run.
+ *
+ * <p>When a latency threshold is set, the limiter also adapts to the source: read latencies above
+ * the threshold shrink the effective rate multiplicatively, latencies well below it let the rate
+ * recover step by step up to the configured limits. With no configured document rate, throttling
+ * starts from the throughput measured when the threshold was first exceeded.
+ */
+public class ReadRateLimiter {
+  private static final Logger logger = LoggerFactory.getLogger(ReadRateLimiter.class);
+
+  private static final double MIN_FACTOR = 0.05;
+  private static final double DECREASE = 0.7;
+  private static final double INCREASE = 0.1;
+  private static final double EWMA_ALPHA = 0.2;
+  private static final long ADJUST_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final Bucket docs = new Bucket();
+  private final Bucket bytes = new Bucket();
+
+  private volatile double docsPerSecond;
+  private volatile double bytesPerSecond;
+  private volatile long latencyThresholdMillis;
+
+  private volatile double throttleFactor = 1.0;
+  private double baselineDocsPerSecond = 0;
+  private double latencyEwmaMillis = 0;
+  private long lastAdjustNanos = System.nanoTime();
+
+  private long windowStartNanos = System.nanoTime();
+  private long windowDocs = 0;
+  private double measuredDocsPerSecond = 0;
+
+  /**
+   * Creates a new limiter.
+   *
+   * @param docsPerSecond maximum number of documents read per second, 0 or less for unlimited
+   * @param bytesPerSecond maximum number of bytes read per second, 0 or less for unlimited
+   * @param latencyThresholdMillis batch read latency above which reads are slowed down, 0 or less
+   *     to disable adaptive throttling
+   */
+  public ReadRateLimiter(double docsPerSecond, double bytesPerSecond, long latencyThresholdMillis) {
+    this.docsPerSecond = docsPerSecond;
+    this.bytesPerSecond = bytesPerSecond;
+    this.latencyThresholdMillis = latencyThresholdMillis;
+  }
+
+  /**
+   * Single token bucket holding at most one second worth of permits.
+   */
+  private static class Bucket {
+    private double tokens = 0;
+    private long lastRefillNanos = System.nanoTime();
+
+    /**
+     * Takes permits, going into debt if needed.
+     *
+     * @return nanoseconds the caller has to wait before using the permits
+     */
+    long take(double permits, double rate, long now) {
+      if (rate <= 0) {
+        tokens = 0;
+        lastRefillNanos = now;
+        return 0;
+      }
+      tokens = Math.min(rate, tokens + (now - lastRefillNanos) * rate / TimeUnit.SECONDS.toNanos(1));
+      lastRefillNanos = now;
+      tokens -= permits;
+
+      return tokens >= 0 ? 0 : (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+    }
+  }
+
+  public double getDocsPerSecond() {
+    return docsPerSecond;
+  }
+
+  public synchronized void setDocsPerSecond(double docsPerSecond) {
+    this.docsPerSecond = docsPerSecond;
+  }
+
+  public double getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+
+  public synchronized void setBytesPerSecond(double bytesPerSecond) {
+    this.bytesPerSecond = bytesPerSecond;
+  }
+
+  public long getLatencyThresholdMillis() {
+    return latencyThresholdMillis;
+  }
+
+  public synchronized void setLatencyThresholdMillis(long latencyThresholdMillis) {
+    this.latencyThresholdMillis = latencyThresholdMillis;
+    if (latencyThresholdMillis <= 0) {
+      throttleFactor = 1.0;
+    }
+  }
+
+  /**
+   * @return share of the configured rate currently allowed by adaptive throttling, 1.0 when not
+   *     throttled
+   */
+  public double getThrottleFactor() {
+    return throttleFactor;
+  }
+
+  /**
+   * @return document rate currently enforced, 0 when unlimited
+   */
+  public synchronized double getEffectiveDocsPerSecond() {
+    double base = docsPerSecond > 0 ? docsPerSecond : baselineDocsPerSecond;
+    return throttleFactor < 1.0 || docsPerSecond > 0 ? base * throttleFactor : 0;
+  }
+
+  private double getEffectiveBytesPerSecond() {
+    return bytesPerSecond > 0 ? bytesPerSecond * throttleFactor : 0;
+  }
+
+  /**
+   * Blocks until the given number of documents and bytes may be read.
+   *
+   * @param docs number of documents about to be read
+   * @param estimatedBytes estimated size of those documents, 0 if unknown
+   */
+  public void acquire(int docs, long estimatedBytes) {
+    long waitNanos;
+
+    synchronized (this) {
+      long now = System.nanoTime();
+      measure(docs, now);
+      waitNanos = Math.max(
+          this.docs.take(docs, getEffectiveDocsPerSecond(), now),
+          this.bytes.take(estimatedBytes, getEffectiveBytesPerSecond(), now));
+    }
+
+    if (waitNanos > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while waiting for read permits", e);
+      }
+    }
+  }
+
+  private void measure(int docs, long now) {
+    windowDocs += docs;
+    long elapsed = now - windowStartNanos;
+    if (elapsed >= ADJUST_INTERVAL_NANOS) {
+      measuredDocsPerSecond = windowDocs * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+      windowDocs = 0;
+      windowStartNanos = now;
+    }
+  }
+
+  /**
+   * Feeds the latency of one source batch read into the adaptive throttle.
+   *
+   * @param latencyMillis time the source took to return the batch
+   */
+  public synchronized void recordLatency(long latencyMillis) {
+    if (latencyThresholdMillis <= 0) {
+      return;
+    }
+    latencyEwmaMillis = latencyEwmaMillis == 0
+        ? latencyMillis
+        : EWMA_ALPHA * latencyMillis + (1 - EWMA_ALPHA) * latencyEwmaMillis;
+
+    long now = System.nanoTime();
+    if (now - lastAdjustNanos < ADJUST_INTERVAL_NANOS) {
+      return;
+    }
+    lastAdjustNanos = now;
+
+    if (latencyEwmaMillis > latencyThresholdMillis) {
+      if (throttleFactor == 1.0 && docsPerSecond <= 0) {
+        baselineDocsPerSecond = Math.max(1, measuredDocsPerSecond);
+      }
+      throttleFactor = Math.max(MIN_FACTOR, throttleFactor * DECREASE);
+      logger.warn("Source read latency {} ms above {} ms, throttling reads to {} docs/s",
+          Math.round(latencyEwmaMillis), latencyThresholdMillis,
+          Math.round(getEffectiveDocsPerSecond()));
+    } else if (latencyEwmaMillis < latencyThresholdMillis * DECREASE && throttleFactor < 1.0) {
+      throttleFactor = Math.min(1.0, throttleFactor + INCREASE);
+      if (throttleFactor == 1.0) {
+        baselineDocsPerSecond = 0;
+        logger.info("Source read latency back to {} ms, throttling lifted",
+            Math.round(latencyEwmaMillis));
+      }
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package app.migrator.csfle.worker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonTimestamp;
+
+import com.mongodb.ClientSessionOptions;
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadConcernLevel;
+import com.mongodb.ReadPreference;
+import com.mongodb.Tag;
+import com.mongodb.TagSet;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+
+import app.migrator.csfle.config.Configuration.SourceReadConfig;
+
+/**
+ * Read preference, read concern and snapshot settings applied to every source read.
+ */
+public class SourceReadSettings {
+  private final ReadPreference readPreference;
+  private final ReadConcern readConcern;
+  private final boolean snapshot;
+  private final BsonTimestamp atClusterTime;
+  private final int snapshotWindowSeconds;
+
+  private SourceReadSettings(
+      ReadPreference readPreference,
+      ReadConcern readConcern,
+      boolean snapshot,
+      BsonTimestamp atClusterTime,
+      int snapshotWindowSeconds) {
+    this.readPreference = readPreference;
+    this.readConcern = readConcern;
+    this.snapshot = snapshot;
+    this.atClusterTime = atClusterTime;
+    this.snapshotWindowSeconds = snapshotWindowSeconds;
+  }
+
+  public static SourceReadSettings from(SourceReadConfig config) {
+    if (config == null) {
+      return new SourceReadSettings(null, null, false, null, 0);
+    }
+
+    ReadPreference readPreference = null;
+    if (config.getReadPreference() != null) {
+      List<TagSet> tagSets = new ArrayList<>();
+      if (config.getReadPreferenceTags() != null) {
+        for (Map<String, String> tags : config.getReadPreferenceTags()) {
+          List<Tag> tagList = new ArrayList<>();
+          tags.forEach((name, value) -> tagList.add(new Tag(name, value)));
+          tagSets.add(new TagSet(tagList));
+        }
+      }
+      readPreference = tagSets.isEmpty() && config.getMaxStalenessSeconds() == null
+          ? ReadPreference.valueOf(config.getReadPreference())
+          : ReadPreference.valueOf(config.getReadPreference(), tagSets,
+              config.getMaxStalenessSeconds() == null ? 0 : config.getMaxStalenessSeconds(),
+              TimeUnit.SECONDS);
+    }
+
+    // Snapshot reads carry their read concern on the session, not on the collection
+    ReadConcern readConcern = null;
+    if (!config.isSnapshot() && config.getReadConcern() != null) {
+      readConcern = new ReadConcern(ReadConcernLevel.fromString(config.getReadConcern()));
+    }
+
+    BsonTimestamp atClusterTime = config.getAtClusterTime() == null
+        ? null
+        : new BsonTimestamp(config.getAtClusterTime().getT(), config.getAtClusterTime().getI());
+
+    return new SourceReadSettings(readPreference, readConcern, config.isSnapshot(), atClusterTime,
+        config.getSnapshotWindowSeconds() == null ? 0 : config.getSnapshotWindowSeconds());
+  }
+
+  /**
+   * Applies the read preference and read concern to a source collection.
+   *
+   * @param collection source collection
+   * @return collection with the configured read settings
+   */
+  public <T> MongoCollection<T> apply(MongoCollection<T> collection) {
+    MongoCollection<T> configured = collection;
+    if (readPreference != null) {
+      configured = configured.withReadPreference(readPreference);
+    }
+    if (readConcern != null) {
+      configured = configured.withReadConcern(readConcern);
+    }
+    return configured;
+  }
+
+  /**
+   * Starts a snapshot session for one task, pinned to the configured cluster time. Without one,
+   * the server pins it to the cluster time of its first read, so every later read of the session
+   * sees the same point-in-time copy of the source.
+   *
+   * @param client source client
+   * @return session to pass to every read, or null when snapshot reads are disabled
+   */
+  public ClientSession startSession(MongoClient client) {
+    if (!snapshot) {
+      return null;
+    }
+    ClientSession session = client.startSession(
+        ClientSessionOptions.builder().snapshot(true).build());
+    if (atClusterTime != null) {
+      session.setSnapshotTimestamp(atClusterTime);
+    }
+    return session;
+  }
+
+  /**
+   * A session pinned at its first read has to be replaced before the source drops the history of
+   * its snapshot and answers SnapshotTooOld. A configured cluster time is never replaced.
+   *
+   * @param pinnedNanos {@link System#nanoTime()} of the first read of the session
+   * @return true once three quarters of the snapshot window have passed, leaving the last quarter
+   *     for the batch in flight
+   */
+  public boolean isSnapshotExpiring(long pinnedNanos) {
+    if (!snapshot || atClusterTime != null || snapshotWindowSeconds <= 0) {
+      return false;
+    }
+    long ageSeconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - pinnedNanos);
+    return ageSeconds >= snapshotWindowSeconds * 3L / 4;
+  }
+}
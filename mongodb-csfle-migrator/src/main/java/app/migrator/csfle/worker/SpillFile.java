@@ -0,0 +1,98 @@
+package app.migrator.csfle.worker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.bson.RawBsonDocument;
+
+/**
+ * Local file holding the documents of a batch that did not fit the {@link MemoryGovernor} budget.
+ * Documents are appended as plain BSON, which is length-prefixed, and read back in order once the
+ * batch cursor is exhausted. The file is deleted on close.
+ */
+public class SpillFile implements AutoCloseable {
+  private final Path path;
+  private OutputStream out;
+  private DataInputStream in;
+  private long count = 0;
+
+  public SpillFile(String directory, String prefix) {
+    try {
+      Path dir = Paths.get(directory);
+      Files.createDirectories(dir);
+      this.path = Files.createTempFile(dir, prefix, ".bson");
+      this.out = new BufferedOutputStream(Files.newOutputStream(path));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot create spill file in " + directory, e);
+    }
+  }
+
+  public void append(RawBsonDocument document) {
+    ByteBuffer buffer = document.getByteBuffer().asNIO();
+    try {
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      out.write(bytes);
+      count++;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot write spill file " + path, e);
+    }
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Switches the file to reading, on the first call, and returns the next document.
+   *
+   * @return next spilled document, null once all were read
+   */
+  public RawBsonDocument next() {
+    try {
+      if (in == null) {
+        out.close();
+        InputStream stream = new BufferedInputStream(Files.newInputStream(path));
+        in = new DataInputStream(stream);
+      }
+      byte[] header = new byte[4];
+      try {
+        in.readFully(header);
+      } catch (EOFException e) {
+        return null;
+      }
+      int size = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getInt();
+      byte[] bytes = new byte[size];
+      System.arraycopy(header, 0, bytes, 0, 4);
+      in.readFully(bytes, 4, size - 4);
+      return new RawBsonDocument(bytes);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot read spill file " + path, e);
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      if (in != null) {
+        in.close();
+      } else {
+        out.close();
+      }
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot delete spill file " + path, e);
+    }
+  }
+}
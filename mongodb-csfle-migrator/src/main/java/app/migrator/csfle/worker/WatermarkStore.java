@@ -0,0 +1,51 @@
+package app.migrator.csfle.worker;
+
+import java.util.Date;
+
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+
+import app.migrator.csfle.config.MigrationConfiguration.DeltaConfig;
+
+/**
+ * Stores the delta-mode high-water mark of every namespace on the target.
+ */
+public class WatermarkStore {
+  private final MongoCollection<BsonDocument> collection;
+
+  public WatermarkStore(MongoClient targetClient, DeltaConfig config) {
+    this.collection = targetClient
+        .getDatabase(config.getWatermarkDatabase())
+        .getCollection(config.getWatermarkCollection(), BsonDocument.class);
+  }
+
+  /**
+   * @param namespace database.collection
+   * @param field field the watermark was taken on
+   * @return stored watermark, or null when the namespace was never migrated on that field
+   */
+  public BsonValue load(String namespace, String field) {
+    BsonDocument watermark = collection.find(Filters.eq("_id", namespace)).first();
+    if (watermark == null || !field.equals(watermark.getString("field", new BsonString("")).getValue())) {
+      return null;
+    }
+    return watermark.get("value");
+  }
+
+  public void save(String namespace, String field, BsonValue value) {
+    collection.replaceOne(
+        Filters.eq("_id", namespace),
+        new BsonDocument("_id", new BsonString(namespace))
+            .append("field", new BsonString(field))
+            .append("value", value)
+            .append("updatedAt", new BsonDateTime(new Date().getTime())),
+        new ReplaceOptions().upsert(true));
+  }
+}
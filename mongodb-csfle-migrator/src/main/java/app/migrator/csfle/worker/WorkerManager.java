@@ -13,11 +13,12 @@ import org.slf4j.LoggerFactory;
 public class WorkerManager {
   private static final Logger logger = LoggerFactory.getLogger(WorkerManager.class);
 
-  private final int maxWorkers;
+  private volatile int maxWorkers;
   private final int queueSize;
-  private final ExecutorService executorService;
+  private final ThreadPoolExecutor executorService;
   private final BlockingQueue<WorkerTask> taskQueue;
   private final Map<String, WorkerStatus> workerStatus;
+  private int pendingTasks = 0;
 
   /**
    * Creates a new WorkerManager with specified capacity.
@@ -28,7 +29,7 @@ public class WorkerManager {
   public WorkerManager(int maxWorkers, int queueSize) {
     this.maxWorkers = maxWorkers;
     this.queueSize = queueSize;
-    this.executorService = Executors.newFixedThreadPool(maxWorkers);
+    this.executorService = (ThreadPoolExecutor) Executors.newFixedThreadPool(maxWorkers);
     this.taskQueue = new ArrayBlockingQueue<>(queueSize);
     this.workerStatus = new ConcurrentHashMap<>();
   }
@@ -37,12 +38,12 @@ public class WorkerManager {
    * Represents the current status of a worker thread.
    */
   @Data
-  private static class WorkerStatus {
+  public static class WorkerStatus {
     private final String workerId;
-    private boolean busy;
-    private String currentCollection;
-    private long processedDocuments;
-    private long startTime;
+    private volatile boolean busy;
+    private volatile String currentCollection;
+    private volatile long completedTasks;
+    private volatile long startTime;
   }
 
   /**
@@ -78,6 +79,9 @@ public class WorkerManager {
       try {
         boolean offered = taskQueue.offer(workerTask, 1, TimeUnit.SECONDS);
         if (offered) {
+          synchronized (this) {
+            pendingTasks++;
+          }
           logger.debug("Task submitted for collection: {}", collection);
           processQueue();
           return;
@@ -103,17 +107,19 @@ public class WorkerManager {
   }
 
   /**
-   * Processes queued tasks if workers are available.
+   * Processes queued tasks while workers are available.
    */
-  private void processQueue() {
-    if (getAvailableWorkers() > 0 && !taskQueue.isEmpty()) {
+  private synchronized void processQueue() {
+    while (getAvailableWorkers() > 0 && !taskQueue.isEmpty()) {
+      String workerId = assignWorker();
+      if (workerId == null) {
+        return;
+      }
       WorkerTask task = taskQueue.poll();
-      if (task != null) {
-        String workerId = assignWorker();
-        if (workerId != null) {
-          executeTask(workerId, task);
-        }
+      if (task == null) {
+        return;
       }
+      executeTask(workerId, task);
     }
   }
 
@@ -152,15 +158,45 @@ public class WorkerManager {
     executorService.submit(() -> {
       try {
         task.getTask().run();
+      } catch (RuntimeException e) {
+        logger.error("Task failed for collection {}: {}", task.getCollection(), e.getMessage(), e);
       } finally {
-        status.setBusy(false);
-        status.setCurrentCollection(null);
-        status.setProcessedDocuments(status.getProcessedDocuments() + 1);
+        releaseWorker(workerId, status);
         processQueue(); // Process next task if available
+        taskFinished();
       }
     });
   }
 
+  /**
+   * Frees the worker and retires it under the same lock, so a concurrent processQueue cannot hand
+   * a task to a worker that is being removed.
+   */
+  private synchronized void releaseWorker(String workerId, WorkerStatus status) {
+    status.setBusy(false);
+    status.setCurrentCollection(null);
+    status.setCompletedTasks(status.getCompletedTasks() + 1);
+    retireWorkerIfRemoved(workerId);
+  }
+
+  private synchronized void taskFinished() {
+    pendingTasks--;
+    if (pendingTasks == 0) {
+      notifyAll();
+    }
+  }
+
+  /**
+   * Blocks until every submitted task, queued or running, has finished.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public synchronized void awaitCompletion() throws InterruptedException {
+    while (pendingTasks > 0) {
+      wait();
+    }
+  }
+
   /**
    * Initializes worker threads and their status tracking.
    */
@@ -171,6 +207,71 @@ public class WorkerManager {
     }
   }
 
+  /**
+   * Changes the number of concurrent workers at runtime. New workers pick up queued tasks
+   * immediately; when shrinking, busy workers finish their current task before being removed.
+   *
+   * @param newMaxWorkers new number of concurrent workers
+   */
+  public synchronized void setMaxWorkers(int newMaxWorkers) {
+    if (newMaxWorkers <= 0) {
+      throw new IllegalArgumentException("maxWorkers must be greater than zero");
+    }
+    logger.info("Changing worker concurrency from {} to {}", maxWorkers, newMaxWorkers);
+
+    if (newMaxWorkers > executorService.getMaximumPoolSize()) {
+      executorService.setMaximumPoolSize(newMaxWorkers);
+      executorService.setCorePoolSize(newMaxWorkers);
+    } else {
+      executorService.setCorePoolSize(newMaxWorkers);
+      executorService.setMaximumPoolSize(newMaxWorkers);
+    }
+    this.maxWorkers = newMaxWorkers;
+
+    for (int i = 0; i < newMaxWorkers; i++) {
+      workerStatus.putIfAbsent("worker-" + i, new WorkerStatus("worker-" + i));
+    }
+    for (String workerId : workerStatus.keySet()) {
+      retireWorkerIfRemoved(workerId);
+    }
+    processQueue();
+  }
+
+  /**
+   * Removes an idle worker whose index is outside the current concurrency limit.
+   *
+   * @param workerId ID of the worker to check
+   */
+  private synchronized void retireWorkerIfRemoved(String workerId) {
+    WorkerStatus status = workerStatus.get(workerId);
+    int index = Integer.parseInt(workerId.substring("worker-".length()));
+    if (status != null && !status.isBusy() && index >= maxWorkers) {
+      workerStatus.remove(workerId);
+    }
+  }
+
+  public int getMaxWorkers() {
+    return maxWorkers;
+  }
+
+  /**
+   * Gets the number of workers currently running a task.
+   *
+   * @return count of busy workers
+   */
+  public int getActiveWorkers() {
+    return (int) workerStatus.values().stream().filter(WorkerStatus::isBusy).count();
+  }
+
+  /**
+   * Gets the number of tasks waiting for a worker.
+   *
+   * @return count of queued tasks
+   */
+  public int getQueueDepth() {
+    return taskQueue.size();
+  }
+
   /**
    * Gets the current status of all workers.
    *
@@ -0,0 +1,40 @@
+package app.migrator.csfle.cdc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+class ChangeEventBatchWriterTest {
+  private static final Document PATIENT = Document.parse("{_id: 1, name: 'Ann', "
+      + "medicalRecords: [{date: 'd1', notes: 'n1'}, {date: 'd2', notes: 'n2'}, 'legacy'], "
+      + "address: {city: 'Oslo', zip: '0150'}}");
+
+  @Test
+  void includesPathInEveryArrayElement() {
+    Document projected = ChangeEventBatchWriter.project(PATIENT,
+        BsonDocument.parse("{'medicalRecords.date': 1, 'address.city': 1}"));
+
+    assertEquals(Document.parse("{_id: 1, medicalRecords: [{date: 'd1'}, {date: 'd2'}], "
+        + "address: {city: 'Oslo'}}"), projected);
+  }
+
+  @Test
+  void excludesPathFromEveryArrayElement() {
+    Document projected = ChangeEventBatchWriter.project(PATIENT,
+        BsonDocument.parse("{'medicalRecords.notes': 0, name: 0}"));
+
+    assertEquals(Document.parse("{_id: 1, medicalRecords: [{date: 'd1'}, {date: 'd2'}, 'legacy'], "
+        + "address: {city: 'Oslo', zip: '0150'}}"), projected);
+  }
+
+  @Test
+  void leavesEventDocumentUntouched() {
+    Document original = Document.parse(PATIENT.toJson());
+
+    ChangeEventBatchWriter.project(PATIENT, BsonDocument.parse("{'medicalRecords.notes': 0}"));
+
+    assertEquals(original, PATIENT);
+  }
+}
@@ -0,0 +1,60 @@
+package app.migrator.csfle.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonBinary;
+import org.bson.BsonBinarySubType;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.client.MongoClient;
+
+class DataKeyWarmUpTest {
+
+  @Test
+  void refreshFetchesKeysOffTheCallingThreadAfterTheInterval() throws InterruptedException {
+    List<String> threads = new CopyOnWriteArrayList<>();
+    CountDownLatch fetched = new CountDownLatch(2);
+    MongoClient client = stub(MongoClient.class, threads, fetched);
+
+    try (DataKeyWarmUp warmUp = new DataKeyWarmUp(Collections.singleton(
+        new BsonBinary(BsonBinarySubType.UUID_STANDARD, new byte[16])))) {
+      long start = System.nanoTime();
+      warmUp.scheduleRefresh(client, 1, 200, TimeUnit.MILLISECONDS);
+      assertTrue(threads.isEmpty(), "no warm-up before the interval");
+
+      assertTrue(fetched.await(5, TimeUnit.SECONDS));
+      assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 400);
+      assertEquals(2, threads.size());
+      for (String thread : threads) {
+        assertNotEquals(Thread.currentThread().getName(), thread);
+      }
+    }
+  }
+
+  /**
+   * Chains every call down to FindIterable.first(), which records the querying thread.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> T stub(Class<T> type, List<String> threads, CountDownLatch fetched) {
+    return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+        (proxy, method, args) -> {
+          if ("first".equals(method.getName())) {
+            threads.add(Thread.currentThread().getName());
+            fetched.countDown();
+            return null;
+          }
+          return method.getReturnType().isInterface()
+              ? stub(method.getReturnType(), threads, fetched)
+              : null;
+        });
+  }
+}